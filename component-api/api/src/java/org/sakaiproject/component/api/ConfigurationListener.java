@@ -0,0 +1,44 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.api;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * ConfigurationListener is told when configuration values it has subscribed to (with ServerConfigurationService.addConfigurationListener()) are
+ * changed by a reload of the configuration.
+ * </p>
+ */
+public interface ConfigurationListener
+{
+	/**
+	 * Some of the subscribed configuration values have changed. All the changes from one reload come in one call, made on a configuration
+	 * notification thread, not the thread that made the change.
+	 *
+	 * @param changes
+	 *        The changed values, by name - the new value, or null if the value was removed.
+	 * @param version
+	 *        The configuration version with these changes.
+	 */
+	void configurationChanged(Map<String, String> changes, long version);
+}
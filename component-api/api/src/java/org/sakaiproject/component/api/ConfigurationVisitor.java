@@ -0,0 +1,40 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.api;
+
+/**
+ * <p>
+ * ConfigurationVisitor is given, one at a time, the configuration values ServerConfigurationService.forEachWithPrefix() finds.
+ * </p>
+ */
+public interface ConfigurationVisitor
+{
+	/**
+	 * Take one configuration value.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param value
+	 *        The value, trimmed - "" if blank.
+	 */
+	void visit(String name, String value);
+}
@@ -21,8 +21,11 @@
 
 package org.sakaiproject.component.api;
 
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -169,6 +172,46 @@ public interface ServerConfigurationService
 	 */
 	String[] getStrings(String name);
 
+	/**
+	 * Access some named configuration values as a list of strings, as with getStrings(), without making a copy. The list is shared, and cannot
+	 * be modified; it is replaced, not changed, when the configuration is reloaded.
+	 * 
+	 * @param name
+	 *        The configuration value name base.
+	 * @return The configuration values with this name, or null if not found.
+	 */
+	List<String> getStringList(String name);
+
+	/**
+	 * Access the names of the configuration values that start with a prefix, in order, without making a copy. The list is a view of the
+	 * configuration, and cannot be modified; it is replaced, not changed, when the configuration is reloaded.
+	 * 
+	 * @param prefix
+	 *        The name prefix ("webdav." for all values whose names start "webdav.").
+	 * @return The names, sorted - empty if none.
+	 */
+	List<String> getKeysWithPrefix(String prefix);
+
+	/**
+	 * Access the configuration values whose names start with a prefix, without making a copy. The map is a view of the configuration, sorted by
+	 * name, and cannot be modified; it is replaced, not changed, when the configuration is reloaded.
+	 * 
+	 * @param prefix
+	 *        The name prefix ("webdav." for all values whose names start "webdav.").
+	 * @return The values, trimmed ("" if blank), by their full names - empty if none.
+	 */
+	Map<String, String> getSubset(String prefix);
+
+	/**
+	 * Give each configuration value whose name starts with a prefix to a visitor, in name order.
+	 * 
+	 * @param prefix
+	 *        The name prefix ("webdav." for all values whose names start "webdav.").
+	 * @param visitor
+	 *        The visitor.
+	 */
+	void forEachWithPrefix(String prefix, ConfigurationVisitor visitor);
+
 	/**
 	 * Access some named configuration value as an int.
 	 * 
@@ -180,6 +223,17 @@ public interface ServerConfigurationService
 	 */
 	int getInt(String name, int dflt);
 
+	/**
+	 * Access some named configuration value as a long.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @param dflt
+	 *        The value to return if not found.
+	 * @return The configuration value with this name, or the default value if not found.
+	 */
+	long getLong(String name, long dflt);
+
 	/**
 	 * Access some named configuration value as a boolean.
 	 * 
@@ -191,6 +245,113 @@ public interface ServerConfigurationService
 	 */
 	boolean getBoolean(String name, boolean dflt);
 
+	/**
+	 * Access some named configuration value as a comma separated list ("sakai.motd, sakai.iframe.site"). The value is split once per configuration
+	 * version, and the list shared.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @return The items, trimmed, without blanks, in order - not modifiable - empty if not found.
+	 */
+	List<String> getCommaList(String name);
+
+	/**
+	 * Access some named configuration value as a comma separated set. The value is split once per configuration version, and the set shared.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @return The items, trimmed, without blanks or repeats, in order - not modifiable - empty if not found.
+	 */
+	Set<String> getCommaSet(String name);
+
+	/**
+	 * Access some named configuration value as a comma separated list of key=value pairs ("small=10, large=100"). The value is parsed once per
+	 * configuration version, and the map shared.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @return The values by key, both trimmed, in order - not modifiable - empty if not found, or not all pairs.
+	 */
+	Map<String, String> getKeyValueMap(String name);
+
+	/**
+	 * Access some named configuration value as a duration: a whole number, with a unit ("ns", "us", "ms", "s", "m", "h" or "d" - "30s", "5m"), or
+	 * without one, in the unit asked for. The value is parsed once per configuration version.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @param unit
+	 *        The unit to give the duration in.
+	 * @param dflt
+	 *        The value to return if not found, or not a valid duration.
+	 * @return The duration, in the unit, or the default value if not found.
+	 */
+	long getDuration(String name, TimeUnit unit, long dflt);
+
+	/**
+	 * Access some named configuration value as a size in bytes: a whole number, with a unit ("B", "K", "M", "G" or "T", or "KB", "KiB" and so on, in
+	 * any case, all in 1024s - "512MB"), or without one, in bytes. The value is parsed once per configuration version.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @param dflt
+	 *        The value to return if not found, or not a valid size.
+	 * @return The size in bytes, or the default value if not found.
+	 */
+	long getByteSize(String name, long dflt);
+
+	/**
+	 * Access some named configuration value as one of an enum's constants, named in any case. The value is matched once per configuration version.
+	 * 
+	 * @param name
+	 *        The configuration value name.
+	 * @param type
+	 *        The enum.
+	 * @param dflt
+	 *        The value to return if not found, or not one of the constants.
+	 * @return The constant, or the default value if not found.
+	 */
+	<E extends Enum<E>> E getEnum(String name, Class<E> type, E dflt);
+
+	/**
+	 * Access the version of the configuration values - it goes up by one each time the configuration is reloaded, so a value derived from the
+	 * configuration can be kept until the version changes.
+	 * 
+	 * @return The configuration version, starting at 1 once the configuration is first loaded.
+	 */
+	long getConfigurationVersion();
+
+	/**
+	 * Find where the value in effect for a name was set: the properties file, and line, or the properties object, that set it. Each source is a
+	 * layer over those read before it, and the last to set a value wins.
+	 * 
+	 * @param name
+	 *        The property name.
+	 * @return A description of the source, such as "URL [file:/opt/sakai/sakai.properties] line 12", or null if the value is not set.
+	 */
+	String getPropertySource(String name);
+
+	/**
+	 * Subscribe to changes to some configuration values. After each configuration reload that changes any of them, the listener is given those
+	 * changes, all in one call.
+	 * 
+	 * @param listener
+	 *        The listener.
+	 * @param names
+	 *        The exact names of the values to watch, or null for none.
+	 * @param prefixes
+	 *        The name prefixes of the values to watch ("smtp." for all values whose names start "smtp."), or null for none.
+	 */
+	void addConfigurationListener(ConfigurationListener listener, String[] names, String[] prefixes);
+
+	/**
+	 * Remove all of this listener's subscriptions.
+	 * 
+	 * @param listener
+	 *        The listener.
+	 */
+	void removeConfigurationListener(ConfigurationListener listener);
+
 	/**
 	 * Access the list of tool ids in order for this category, to impose on the displays of many tools
 	 * 
@@ -239,4 +400,46 @@ public interface ServerConfigurationService
     * @return map with tool id as key and category id as value
     */
    Map<String, String> getToolToCategoryMap(String category);
+
+	/**
+	 * Check if a tool is required for this category.
+	 * 
+	 * @param category
+	 *        The tool category.
+	 * @param toolId
+	 *        The tool id.
+	 * @return true if the tool is required for this category, false if not.
+	 */
+	boolean isToolRequired(String category, String toolId);
+
+	/**
+	 * Check if a tool is selected by default for this category.
+	 * 
+	 * @param category
+	 *        The tool category.
+	 * @param toolId
+	 *        The tool id.
+	 * @return true if the tool is selected by default for this category, false if not.
+	 */
+	boolean isToolDefault(String category, String toolId);
+
+	/**
+	 * Access a tool's position in the tool order for this category.
+	 * 
+	 * @param category
+	 *        The tool category.
+	 * @param toolId
+	 *        The tool id.
+	 * @return The tool's position (from 0) in the tool order for this category, or -1 if it is not in the order.
+	 */
+	int getToolPosition(String category, String toolId);
+
+	/**
+	 * Access a comparator that sorts tool ids (String) into the tool order for this category, with tools not in the order last.
+	 * 
+	 * @param category
+	 *        The tool category.
+	 * @return The comparator.
+	 */
+	Comparator<String> getToolOrderComparator(String category);
 }
@@ -25,6 +25,8 @@ import org.sakaiproject.component.cover.ComponentManager;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -209,6 +211,86 @@ public class ServerConfigurationService
 		return service.getStrings(param0);
 	}
 
+	public static List<String> getStringList(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getStringList(param0);
+	}
+
+	public static List<String> getKeysWithPrefix(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getKeysWithPrefix(param0);
+	}
+
+	public static Map<String, String> getSubset(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getSubset(param0);
+	}
+
+	public static void forEachWithPrefix(java.lang.String param0, org.sakaiproject.component.api.ConfigurationVisitor param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return;
+
+		service.forEachWithPrefix(param0, param1);
+	}
+
+	public static List<String> getCommaList(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getCommaList(param0);
+	}
+
+	public static Set<String> getCommaSet(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getCommaSet(param0);
+	}
+
+	public static Map<String, String> getKeyValueMap(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getKeyValueMap(param0);
+	}
+
+	public static long getDuration(java.lang.String param0, TimeUnit param1, long param2)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return 0;
+
+		return service.getDuration(param0, param1, param2);
+	}
+
+	public static long getByteSize(java.lang.String param0, long param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return 0;
+
+		return service.getByteSize(param0, param1);
+	}
+
+	public static <E extends Enum<E>> E getEnum(java.lang.String param0, Class<E> param1, E param2)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getEnum(param0, param1, param2);
+	}
+
 	public static java.util.List getToolOrder(java.lang.String param0)
 	{
 		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
@@ -241,6 +323,47 @@ public class ServerConfigurationService
 		return service.getInt(param0, param1);
 	}
 
+	public static long getLong(java.lang.String param0, long param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return 0;
+
+		return service.getLong(param0, param1);
+	}
+
+	public static long getConfigurationVersion()
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return 0;
+
+		return service.getConfigurationVersion();
+	}
+
+	public static java.lang.String getPropertySource(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getPropertySource(param0);
+	}
+
+	public static void addConfigurationListener(org.sakaiproject.component.api.ConfigurationListener param0, java.lang.String[] param1,
+			java.lang.String[] param2)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return;
+
+		service.addConfigurationListener(param0, param1, param2);
+	}
+
+	public static void removeConfigurationListener(org.sakaiproject.component.api.ConfigurationListener param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return;
+
+		service.removeConfigurationListener(param0);
+	}
+
 
    /**
     * access the list of tool categories for the given site type
@@ -282,5 +405,37 @@ public class ServerConfigurationService
       return service.getToolToCategoryMap(category);
    }
 
+	public static boolean isToolRequired(java.lang.String param0, java.lang.String param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return false;
+
+		return service.isToolRequired(param0, param1);
+	}
+
+	public static boolean isToolDefault(java.lang.String param0, java.lang.String param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return false;
+
+		return service.isToolDefault(param0, param1);
+	}
+
+	public static int getToolPosition(java.lang.String param0, java.lang.String param1)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return -1;
+
+		return service.getToolPosition(param0, param1);
+	}
+
+	public static java.util.Comparator<String> getToolOrderComparator(java.lang.String param0)
+	{
+		org.sakaiproject.component.api.ServerConfigurationService service = getInstance();
+		if (service == null) return null;
+
+		return service.getToolOrderComparator(param0);
+	}
+
 
 }
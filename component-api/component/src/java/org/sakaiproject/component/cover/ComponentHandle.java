@@ -0,0 +1,176 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.cover;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * ComponentHandle is a typed, cached reference to a component. The component is found through the {@link ComponentManager} the first time it is
+ * needed, and kept until a component is registered again under the same name (with loadComponent()) or the component manager is closed.
+ * </p>
+ * <p>
+ * Handles are shared - there is one per component name - so they can be kept in static fields:
+ * </p>
+ *
+ * <pre>
+ * private static final ComponentHandle&lt;UserDirectoryService&gt; USER_DIRECTORY = ComponentHandle.forInterface(UserDirectoryService.class);
+ * ...
+ * USER_DIRECTORY.get().getUser(id);
+ * </pre>
+ */
+public class ComponentHandle<T>
+{
+	/** The handles, by component name. */
+	private static ConcurrentMap<String, ComponentHandle<?>> m_handles = new ConcurrentHashMap<String, ComponentHandle<?>>();
+
+	/** The component name. */
+	private final String m_name;
+
+	/** The component type. */
+	private final Class<T> m_type;
+
+	/** The component, once found. */
+	private volatile T m_component = null;
+
+	/** Counts invalidations, so a lookup that overlaps one is not kept. */
+	private int m_version = 0;
+
+	/**
+	 * Access the handle for the component registered under this interface's name.
+	 *
+	 * @param iface
+	 *        The component interface.
+	 * @return The handle.
+	 */
+	public static <T> ComponentHandle<T> forInterface(Class<T> iface)
+	{
+		return forName(iface.getName(), iface);
+	}
+
+	/**
+	 * Access the handle for the component registered under this name.
+	 *
+	 * @param name
+	 *        The component name.
+	 * @param type
+	 *        The component type.
+	 * @return The handle.
+	 * @throws ClassCastException
+	 *         if there is already a handle for this name of a different type.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> ComponentHandle<T> forName(String name, Class<T> type)
+	{
+		ComponentHandle<?> rv = m_handles.get(name);
+		if (rv == null)
+		{
+			ComponentHandle<?> handle = new ComponentHandle<T>(name, type);
+			rv = m_handles.putIfAbsent(name, handle);
+			if (rv == null) rv = handle;
+		}
+
+		if (rv.m_type != type)
+		{
+			throw new ClassCastException("component handle for: " + name + " is for: " + rv.m_type.getName() + " not: " + type.getName());
+		}
+
+		return (ComponentHandle<T>) rv;
+	}
+
+	/**
+	 * Forget the component cached for this name - called when a component is registered under the name.
+	 *
+	 * @param name
+	 *        The component name.
+	 */
+	public static void invalidate(String name)
+	{
+		ComponentHandle<?> handle = m_handles.get(name);
+		if (handle != null) handle.clear();
+	}
+
+	/**
+	 * Forget all the cached components - called when the component manager is closed.
+	 */
+	public static void invalidateAll()
+	{
+		for (ComponentHandle<?> handle : m_handles.values())
+		{
+			handle.clear();
+		}
+	}
+
+	private ComponentHandle(String name, Class<T> type)
+	{
+		m_name = name;
+		m_type = type;
+	}
+
+	/**
+	 * Access the component.
+	 *
+	 * @return The component, or null if there is none.
+	 * @throws ClassCastException
+	 *         if the component is not of the handle's type.
+	 */
+	public T get()
+	{
+		T rv = m_component;
+		if (rv == null)
+		{
+			int version = 0;
+			synchronized (this)
+			{
+				version = m_version;
+			}
+
+			rv = m_type.cast(ComponentManager.get(m_name));
+
+			// keep it, unless invalidated while we were looking
+			if (ComponentManager.CACHE_COMPONENTS)
+			{
+				synchronized (this)
+				{
+					if (m_version == version) m_component = rv;
+				}
+			}
+		}
+
+		return rv;
+	}
+
+	private synchronized void clear()
+	{
+		m_version++;
+		m_component = null;
+	}
+
+	/**
+	 * @return The component name.
+	 */
+	public String getName()
+	{
+		return m_name;
+	}
+}
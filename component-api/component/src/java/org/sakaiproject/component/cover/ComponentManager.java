@@ -35,8 +35,11 @@ import org.sakaiproject.component.impl.SpringCompMgr;
  */
 public class ComponentManager
 {
-	/** A component manager - use the Spring based one. */
-	private static org.sakaiproject.component.api.ComponentManager m_componentManager = null;
+	/** A component manager - use the Spring based one - published once initialized. */
+	private static volatile org.sakaiproject.component.api.ComponentManager m_componentManager = null;
+
+	/** The component manager being initialized, seen by the thread initializing it, and by tasks from initializationTask(). */
+	private static ThreadLocal<org.sakaiproject.component.api.ComponentManager> m_initializing = new ThreadLocal<org.sakaiproject.component.api.ComponentManager>();
 
 	/** If true, covers will cache the components they find once - good for production, bad for some unit testing. */
 	public static final boolean CACHE_COMPONENTS = true;
@@ -52,20 +55,68 @@ public class ComponentManager
 	 */
 	public static org.sakaiproject.component.api.ComponentManager getInstance()
 	{
-		// make sure we make only one instance
+		// once initialized, no locking
+		org.sakaiproject.component.api.ComponentManager rv = m_componentManager;
+		if (rv != null) return rv;
+
+		// if this thread is initializing it (or helping to), use it as it is
+		rv = m_initializing.get();
+		if (rv != null) return rv;
+
+		// make sure we make only one instance - other threads wait here till it is initialized
 		synchronized (m_syncObj)
 		{
 			// if we do not yet have our component manager instance, create and init / populate it
 			if (m_componentManager == null)
 			{
-				m_componentManager = new SpringCompMgr(null);
-				((SpringCompMgr) m_componentManager).init();
+				SpringCompMgr componentManager = new SpringCompMgr(null);
+				m_initializing.set(componentManager);
+				try
+				{
+					componentManager.init();
+				}
+				finally
+				{
+					m_initializing.remove();
+					m_componentManager = componentManager;
+				}
 			}
 		}
 
 		return m_componentManager;
 	}
 
+	/**
+	 * Wrap a task the component manager's initialization runs on another thread, so that covers used by the task see the component manager
+	 * being initialized (as the initializing thread does) rather than waiting for the initialization to finish. Call this on the initializing
+	 * thread.
+	 * 
+	 * @param task
+	 *        The task.
+	 * @return The wrapped task.
+	 */
+	public static Runnable initializationTask(final Runnable task)
+	{
+		final org.sakaiproject.component.api.ComponentManager initializing = m_initializing.get();
+		if (initializing == null) return task;
+
+		return new Runnable()
+		{
+			public void run()
+			{
+				m_initializing.set(initializing);
+				try
+				{
+					task.run();
+				}
+				finally
+				{
+					m_initializing.remove();
+				}
+			}
+		};
+	}
+
 	public static Object get(Class iface)
 	{
 		return getInstance().get(iface);
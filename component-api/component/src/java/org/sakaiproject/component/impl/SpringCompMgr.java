@@ -26,14 +26,22 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.component.api.ComponentManager;
+import org.sakaiproject.component.cover.ComponentHandle;
 import org.sakaiproject.util.ComponentsLoader;
+import org.sakaiproject.util.NoisierDefaultListableBeanFactory;
 import org.sakaiproject.util.SakaiApplicationContext;
+import org.sakaiproject.util.StartupTrace;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ConfigurableApplicationContext;
 
@@ -68,6 +76,15 @@ public class SpringCompMgr implements ComponentManager
 	/** The Spring Application Context. */
 	protected SakaiApplicationContext m_ac = null;
 
+	/** The loader used to load the component packages. */
+	protected ComponentsLoader m_componentsLoader = null;
+
+	/** Names of components found missing, with the bean factory's registration count at the time - still missing if that's unchanged. */
+	protected ConcurrentMap<String, Long> m_missing = new ConcurrentHashMap<String, Long>();
+
+	/** Counts of lookups for missing components, by name. */
+	protected ConcurrentMap<String, AtomicLong> m_missCounts = new ConcurrentHashMap<String, AtomicLong>();
+
 	/** The already created components given to manage (their interface names). */
 	protected Set m_loadedComponents = new HashSet();
 
@@ -98,6 +115,8 @@ public class SpringCompMgr implements ComponentManager
 	{
 		if (m_ac != null) return;
 
+		long start = StartupTrace.start();
+
 		// Make sure a "sakai.home" system property is set.
 		ensureSakaiHome();
 		checkSecurityPath();
@@ -115,7 +134,9 @@ public class SpringCompMgr implements ComponentManager
 		m_ac.setConfigLocations(configLocationList.toArray(new String[0]));
 
 		// load component packages
+		long loadStart = StartupTrace.start();
 		loadComponents();
+		StartupTrace.end(StartupTrace.COMPONENT_MANAGER, "load components", loadStart);
 
 		// if configured (with the system property CLOSE_ON_SHUTDOWN set), create a shutdown task to close when the JVM closes
 		// (otherwise we will close in removeChildAc() when the last child is gone)
@@ -130,6 +151,7 @@ public class SpringCompMgr implements ComponentManager
 			});
 		}
 
+		long refreshStart = StartupTrace.start();
 		try
 		{
 			// get the singletons loaded
@@ -139,6 +161,16 @@ public class SpringCompMgr implements ComponentManager
 		{
 			M_log.warn(t.getMessage(), t);
 		}
+		StartupTrace.end(StartupTrace.COMPONENT_MANAGER, "refresh", refreshStart);
+
+		// the classes are loaded - report what sharing jars saved
+		if (m_componentsLoader != null)
+		{
+			m_componentsLoader.reportSharedJars();
+		}
+
+		StartupTrace.end(StartupTrace.COMPONENT_MANAGER, "init", start);
+		StartupTrace.write(new File(System.getProperty("sakai.home"), StartupTrace.TRACE_FILE));
 	}
 	/**
 	 * Access the ApplicationContext
@@ -157,12 +189,18 @@ public class SpringCompMgr implements ComponentManager
 	{
 		Object component = null;
 
+		// don't ask Spring again for a component we know is missing
+		long registrations = getRegistrationCount();
+		if (isMissing(iface.getName(), registrations)) return null;
+
 		try
 		{
 			component = m_ac.getBean(iface.getName(), iface);
 		}
 		catch (NoSuchBeanDefinitionException e)
 		{
+			missing(iface.getName(), registrations, e);
+
 			// This is an expected outcome, we don't usually want logs
 			if (M_log.isDebugEnabled()) M_log.debug("get(" + iface.getName() + "): " + e, e);
 		}
@@ -181,12 +219,18 @@ public class SpringCompMgr implements ComponentManager
 	{
 		Object component = null;
 
+		// don't ask Spring again for a component we know is missing
+		long registrations = getRegistrationCount();
+		if (isMissing(ifaceName, registrations)) return null;
+
 		try
 		{
 			component = m_ac.getBean(ifaceName);
 		}
 		catch (NoSuchBeanDefinitionException e)
 		{
+			missing(ifaceName, registrations, e);
+
 			// This is an expected outcome, we don't usually want logs
 			if (M_log.isDebugEnabled()) M_log.debug("get(" + ifaceName + "): " + e, e);
 		}
@@ -198,6 +242,84 @@ public class SpringCompMgr implements ComponentManager
 		return component;
 	}
 
+	/**
+	 * @return The bean factory's count of registrations, or -1 if it doesn't keep one.
+	 */
+	protected long getRegistrationCount()
+	{
+		if (m_ac.getBeanFactory() instanceof NoisierDefaultListableBeanFactory)
+		{
+			return ((NoisierDefaultListableBeanFactory) m_ac.getBeanFactory()).getRegistrationCount();
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Check if this component is known to be missing, counting the miss if so.
+	 * 
+	 * @param name
+	 *        The component name.
+	 * @param registrations
+	 *        The bean factory's current count of registrations.
+	 * @return true if known missing, false if it must be looked up.
+	 */
+	protected boolean isMissing(String name, long registrations)
+	{
+		Long missingAt = m_missing.get(name);
+		if ((missingAt == null) || (registrations == -1) || (missingAt.longValue() != registrations)) return false;
+
+		countMiss(name);
+		return true;
+	}
+
+	/**
+	 * Record that this component was not found.
+	 * 
+	 * @param name
+	 *        The component name.
+	 * @param registrations
+	 *        The bean factory's count of registrations from before the lookup.
+	 * @param e
+	 *        The exception from the lookup.
+	 */
+	protected void missing(String name, long registrations, NoSuchBeanDefinitionException e)
+	{
+		// only if it was this bean missing, not something it needs
+		if (!name.equals(e.getBeanName())) return;
+
+		m_missing.put(name, registrations);
+		countMiss(name);
+	}
+
+	protected void countMiss(String name)
+	{
+		AtomicLong count = m_missCounts.get(name);
+		if (count == null)
+		{
+			AtomicLong newCount = new AtomicLong();
+			count = m_missCounts.putIfAbsent(name, newCount);
+			if (count == null) count = newCount;
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Access the counts of lookups for missing components.
+	 * 
+	 * @return The number of times each missing component was asked for, by name.
+	 */
+	public Map<String, Long> getMissCounts()
+	{
+		Map<String, Long> rv = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : m_missCounts.entrySet())
+		{
+			rv.put(entry.getKey(), entry.getValue().get());
+		}
+
+		return rv;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -249,6 +371,13 @@ public class SpringCompMgr implements ComponentManager
 	{
 		m_hasBeenClosed = true;
 		m_ac.close();
+		ComponentHandle.invalidateAll();
+
+		// the components are gone - close the jars they were loaded from
+		if (m_componentsLoader != null)
+		{
+			m_componentsLoader.close();
+		}
 	}
 
 	/**
@@ -260,6 +389,8 @@ public class SpringCompMgr implements ComponentManager
 		m_loadedComponents.add(iface.getName());
 
 		m_ac.getBeanFactory().registerSingleton(iface.getName(), component);
+		ComponentHandle.invalidate(iface.getName());
+		m_missing.remove(iface.getName());
 	}
 
 	/**
@@ -271,6 +402,8 @@ public class SpringCompMgr implements ComponentManager
 		m_loadedComponents.add(ifaceName);
 
 		m_ac.getBeanFactory().registerSingleton(ifaceName, component);
+		ComponentHandle.invalidate(ifaceName);
+		m_missing.remove(ifaceName);
 	}
 
 	/**
@@ -279,6 +412,7 @@ public class SpringCompMgr implements ComponentManager
 	protected void loadComponents()
 	{
 		ComponentsLoader loader = new ComponentsLoader();
+		m_componentsLoader = loader;
 
 		// locate the components root
 		// if we have our system property set, use it
@@ -0,0 +1,882 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanNameReference;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.ChildBeanDefinition;
+import org.springframework.beans.factory.support.LookupOverride;
+import org.springframework.beans.factory.support.ManagedList;
+import org.springframework.beans.factory.support.ManagedMap;
+import org.springframework.beans.factory.support.ManagedProperties;
+import org.springframework.beans.factory.support.ManagedSet;
+import org.springframework.beans.factory.support.MethodOverride;
+import org.springframework.beans.factory.support.MethodOverrides;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.util.ClassUtils;
+
+/**
+ * <p>
+ * BeanDefinitionCache keeps the bean definitions parsed from each component package's components.xml in a binary file under sakai.home, so that a
+ * restart with unchanged component packages can skip XML parsing and validation.
+ * </p>
+ * <p>
+ * Each package's entry is keyed by a digest of its components XML files, its jar list (name, size and modification time) and the files under
+ * its WEB-INF/classes (path, size and modification time). The entry also records every resource the XML reader actually loaded - the
+ * components XML files and any they pull in with &lt;import resource=...&gt; - with a digest of each one's content, and these are checked again
+ * before the entry is used. An entry whose key or resources do not match, or that cannot be read back, is treated as stale: the package is
+ * parsed again and the entry rewritten.
+ * </p>
+ * <p>
+ * Only the metadata the XML reader produces is cached: strings, typed strings, bean references, inner beans and managed collections. A package
+ * whose definitions hold anything else (such as objects made by a custom namespace handler) is simply not cached.
+ * </p>
+ */
+public class BeanDefinitionCache
+{
+	/** Our logger */
+	private static Log M_log = LogFactory.getLog(BeanDefinitionCache.class);
+
+	/** Marks a cache file, and its format version - change the version when the format changes. */
+	protected final static int MAGIC = 0x53424443;
+
+	protected final static int VERSION = 2;
+
+	/** Value tags. */
+	protected final static byte NULL = 0;
+
+	protected final static byte STRING = 1;
+
+	protected final static byte TYPED_STRING = 2;
+
+	protected final static byte BEAN_REFERENCE = 3;
+
+	protected final static byte BEAN_NAME_REFERENCE = 4;
+
+	protected final static byte INNER_BEAN = 5;
+
+	protected final static byte LIST = 6;
+
+	protected final static byte SET = 7;
+
+	protected final static byte MAP = 8;
+
+	protected final static byte PROPERTIES = 9;
+
+	/** The directory holding the cache files. */
+	protected File m_dir = null;
+
+	/**
+	 * Construct.
+	 *
+	 * @param dir
+	 *        The directory to keep the cache files in; it is created if missing.
+	 */
+	public BeanDefinitionCache(File dir)
+	{
+		m_dir = dir;
+		if (!m_dir.isDirectory() && !m_dir.mkdirs())
+		{
+			M_log.warn("BeanDefinitionCache: cannot create cache directory: " + m_dir);
+		}
+	}
+
+	/**
+	 * Compute the key for a component package: a digest of its XML files' contents, its jars' names, sizes and modification times, and the paths,
+	 * sizes and modification times of the files under its WEB-INF/classes.
+	 *
+	 * @param dir
+	 *        The package's root directory.
+	 * @param xmls
+	 *        The XML files that will be read for the package, in order.
+	 * @return The key, or null if it could not be computed.
+	 */
+	public String key(File dir, List<File> xmls)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+
+			digest.update(Integer.toString(VERSION).getBytes("UTF-8"));
+			for (File xml : xmls)
+			{
+				digest.update(xml.getName().getBytes("UTF-8"));
+				digest(digest, new FileInputStream(xml));
+			}
+
+			File[] jars = new File(new File(dir, "WEB-INF"), "lib").listFiles();
+			if (jars != null)
+			{
+				Arrays.sort(jars);
+				for (File jar : jars)
+				{
+					digest.update((jar.getName() + ":" + jar.length() + ":" + jar.lastModified()).getBytes("UTF-8"));
+				}
+			}
+
+			digestTree(digest, new File(new File(dir, "WEB-INF"), "classes"), "");
+
+			return hex(digest);
+		}
+		catch (Throwable t)
+		{
+			M_log.warn("key: " + dir + " : " + t);
+			return null;
+		}
+	}
+
+	/**
+	 * Read the cached definitions for this package, if there is a current cache entry for it.
+	 *
+	 * @param dir
+	 *        The package's root directory.
+	 * @param key
+	 *        The package's current key.
+	 * @param loader
+	 *        The package's class loader, to resolve bean classes with.
+	 * @return The cached registrations, or null if there is no current entry.
+	 */
+	public StagingBeanDefinitionRegistry read(File dir, String key, ClassLoader loader)
+	{
+		File file = cacheFile(dir);
+		if ((key == null) || (!file.isFile())) return null;
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION) || (!key.equals(in.readUTF())))
+				{
+					if (M_log.isDebugEnabled()) M_log.debug("read: stale entry for: " + dir);
+					return null;
+				}
+
+				// each resource the definitions were read from must be unchanged
+				int resources = in.readInt();
+				for (int i = 0; i < resources; i++)
+				{
+					String url = in.readUTF();
+					String hash = in.readUTF();
+					if (!hash.equals(hash(new URL(url))))
+					{
+						if (M_log.isDebugEnabled()) M_log.debug("read: stale entry for: " + dir + " : changed: " + url);
+						return null;
+					}
+				}
+
+				StagingBeanDefinitionRegistry rv = new StagingBeanDefinitionRegistry();
+				int count = in.readInt();
+				for (int i = 0; i < count; i++)
+				{
+					String name = in.readUTF();
+					if (in.readBoolean())
+					{
+						rv.registerAlias(name, in.readUTF());
+					}
+					else
+					{
+						boolean generated = in.readBoolean();
+						rv.registerCached(name, readDefinition(in, loader), generated);
+					}
+				}
+
+				return rv;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (Throwable t)
+		{
+			M_log.info("read: ignoring unreadable entry for: " + dir + " : " + t);
+			return null;
+		}
+	}
+
+	/**
+	 * Write the definitions parsed for this package to its cache entry.
+	 *
+	 * @param dir
+	 *        The package's root directory.
+	 * @param key
+	 *        The package's current key.
+	 * @param resources
+	 *        The resources the definitions were read from, as recorded by a RecordingReader.
+	 * @param registry
+	 *        The registrations parsed from the package.
+	 */
+	public void write(File dir, String key, List<Resource> resources, StagingBeanDefinitionRegistry registry)
+	{
+		if (key == null) return;
+
+		File file = cacheFile(dir);
+		File temp = new File(m_dir, file.getName() + ".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+
+				out.writeInt(resources.size());
+				for (Resource resource : resources)
+				{
+					URL url = null;
+					try
+					{
+						url = resource.getURL();
+					}
+					catch (IOException e)
+					{
+						throw new NotCacheableException("resource without a URL: " + resource.getDescription());
+					}
+					out.writeUTF(url.toString());
+					out.writeUTF(hash(url));
+				}
+
+				List<StagingBeanDefinitionRegistry.Registration> registrations = registry.getRegistrations();
+				out.writeInt(registrations.size());
+				for (StagingBeanDefinitionRegistry.Registration registration : registrations)
+				{
+					out.writeUTF(registration.name);
+					out.writeBoolean(registration.alias != null);
+					if (registration.alias != null)
+					{
+						out.writeUTF(registration.alias);
+					}
+					else
+					{
+						out.writeBoolean(registration.generated);
+						writeDefinition(out, registration.definition);
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+
+			// replace the old entry
+			file.delete();
+			if (!temp.renameTo(file))
+			{
+				M_log.warn("write: cannot rename: " + temp + " to: " + file);
+			}
+		}
+		catch (NotCacheableException e)
+		{
+			M_log.info("write: not caching: " + dir + " : " + e.getMessage());
+			temp.delete();
+			file.delete();
+		}
+		catch (Throwable t)
+		{
+			M_log.warn("write: " + dir + " : " + t);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Add the path, size and modification time of every file under a directory to a digest, in a fixed order.
+	 */
+	protected void digestTree(MessageDigest digest, File dir, String path) throws IOException
+	{
+		File[] files = dir.listFiles();
+		if (files == null) return;
+
+		Arrays.sort(files);
+		for (File file : files)
+		{
+			if (file.isDirectory())
+			{
+				digestTree(digest, file, path + file.getName() + "/");
+			}
+			else
+			{
+				digest.update((path + file.getName() + ":" + file.length() + ":" + file.lastModified()).getBytes("UTF-8"));
+			}
+		}
+	}
+
+	/**
+	 * @return The SHA-1 of the content at this URL, as hex.
+	 */
+	protected String hash(URL url) throws IOException
+	{
+		try
+		{
+			// don't let the JDK keep a jar open on our account
+			URLConnection connection = url.openConnection();
+			connection.setUseCaches(false);
+
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest(digest, connection.getInputStream());
+			return hex(digest);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IOException(e.toString());
+		}
+	}
+
+	/**
+	 * Add the stream's content to a digest, and close it.
+	 */
+	protected void digest(MessageDigest digest, InputStream in) throws IOException
+	{
+		try
+		{
+			byte[] buffer = new byte[8192];
+			int count = 0;
+			while ((count = in.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * @return The digest, as hex.
+	 */
+	protected String hex(MessageDigest digest)
+	{
+		StringBuilder rv = new StringBuilder();
+		for (byte b : digest.digest())
+		{
+			rv.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return rv.toString();
+	}
+
+	/**
+	 * @return The cache file for this package.
+	 */
+	protected File cacheFile(File dir)
+	{
+		return new File(m_dir, dir.getName() + ".bin");
+	}
+
+	protected void writeDefinition(DataOutputStream out, BeanDefinition definition) throws IOException
+	{
+		if (!((definition instanceof RootBeanDefinition) || (definition instanceof ChildBeanDefinition)))
+		{
+			throw new NotCacheableException("bean definition type: " + definition.getClass().getName());
+		}
+		AbstractBeanDefinition bd = (AbstractBeanDefinition) definition;
+		if (bd.attributeNames().length > 0)
+		{
+			throw new NotCacheableException("bean definition attributes: " + Arrays.asList(bd.attributeNames()));
+		}
+
+		// child or root
+		out.writeBoolean(bd instanceof ChildBeanDefinition);
+		if (bd instanceof ChildBeanDefinition)
+		{
+			out.writeUTF(((ChildBeanDefinition) bd).getParentName());
+		}
+
+		// the class - and if it was resolved at parse time
+		writeString(out, bd.getBeanClassName());
+		out.writeBoolean(bd.hasBeanClass());
+
+		writeString(out, bd.getScope());
+		out.writeBoolean(bd.isAbstract());
+		out.writeBoolean(bd.isLazyInit());
+		out.writeBoolean(bd.isAutowireCandidate());
+		out.writeInt(bd.getAutowireMode());
+		out.writeInt(bd.getDependencyCheck());
+		writeStrings(out, bd.getDependsOn());
+		writeString(out, bd.getFactoryBeanName());
+		writeString(out, bd.getFactoryMethodName());
+		writeString(out, bd.getInitMethodName());
+		out.writeBoolean(bd.isEnforceInitMethod());
+		writeString(out, bd.getDestroyMethodName());
+		out.writeBoolean(bd.isEnforceDestroyMethod());
+		out.writeBoolean(bd.isSynthetic());
+		writeString(out, bd.getResourceDescription());
+		out.writeInt(bd.getRole());
+
+		// constructor args
+		ConstructorArgumentValues args = bd.getConstructorArgumentValues();
+		Map indexed = args.getIndexedArgumentValues();
+		out.writeInt(indexed.size());
+		for (Iterator i = indexed.entrySet().iterator(); i.hasNext();)
+		{
+			Map.Entry entry = (Map.Entry) i.next();
+			out.writeInt(((Integer) entry.getKey()).intValue());
+			writeValueHolder(out, (ConstructorArgumentValues.ValueHolder) entry.getValue());
+		}
+		List generic = args.getGenericArgumentValues();
+		out.writeInt(generic.size());
+		for (Iterator i = generic.iterator(); i.hasNext();)
+		{
+			writeValueHolder(out, (ConstructorArgumentValues.ValueHolder) i.next());
+		}
+
+		// properties
+		PropertyValue[] pvs = bd.getPropertyValues().getPropertyValues();
+		out.writeInt(pvs.length);
+		for (PropertyValue pv : pvs)
+		{
+			if (pv.attributeNames().length > 0)
+			{
+				throw new NotCacheableException("property value attributes: " + pv.getName());
+			}
+			out.writeUTF(pv.getName());
+			writeValue(out, pv.getValue());
+		}
+
+		// lookup methods
+		Set overrides = bd.getMethodOverrides().getOverrides();
+		out.writeInt(overrides.size());
+		for (Iterator i = overrides.iterator(); i.hasNext();)
+		{
+			MethodOverride override = (MethodOverride) i.next();
+			if (!(override instanceof LookupOverride))
+			{
+				throw new NotCacheableException("method override: " + override);
+			}
+			out.writeUTF(override.getMethodName());
+			out.writeUTF(((LookupOverride) override).getBeanName());
+		}
+	}
+
+	protected AbstractBeanDefinition readDefinition(DataInputStream in, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		AbstractBeanDefinition bd = null;
+		if (in.readBoolean())
+		{
+			bd = new ChildBeanDefinition(in.readUTF());
+		}
+		else
+		{
+			bd = new RootBeanDefinition();
+		}
+
+		String className = readString(in);
+		if (in.readBoolean())
+		{
+			bd.setBeanClass(ClassUtils.forName(className, loader));
+		}
+		else
+		{
+			bd.setBeanClassName(className);
+		}
+
+		String scope = readString(in);
+		if (scope != null) bd.setScope(scope);
+		bd.setAbstract(in.readBoolean());
+		bd.setLazyInit(in.readBoolean());
+		bd.setAutowireCandidate(in.readBoolean());
+		bd.setAutowireMode(in.readInt());
+		bd.setDependencyCheck(in.readInt());
+		bd.setDependsOn(readStrings(in));
+		bd.setFactoryBeanName(readString(in));
+		bd.setFactoryMethodName(readString(in));
+		bd.setInitMethodName(readString(in));
+		bd.setEnforceInitMethod(in.readBoolean());
+		bd.setDestroyMethodName(readString(in));
+		bd.setEnforceDestroyMethod(in.readBoolean());
+		bd.setSynthetic(in.readBoolean());
+		bd.setResourceDescription(readString(in));
+		bd.setRole(in.readInt());
+
+		ConstructorArgumentValues args = new ConstructorArgumentValues();
+		int count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			int index = in.readInt();
+			args.addIndexedArgumentValue(index, readValueHolder(in, loader));
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			args.addGenericArgumentValue(readValueHolder(in, loader));
+		}
+		bd.setConstructorArgumentValues(args);
+
+		MutablePropertyValues pvs = new MutablePropertyValues();
+		count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			String name = in.readUTF();
+			pvs.addPropertyValue(new PropertyValue(name, readValue(in, loader)));
+		}
+		bd.setPropertyValues(pvs);
+
+		MethodOverrides overrides = new MethodOverrides();
+		count = in.readInt();
+		for (int i = 0; i < count; i++)
+		{
+			String methodName = in.readUTF();
+			overrides.addOverride(new LookupOverride(methodName, in.readUTF()));
+		}
+		bd.setMethodOverrides(overrides);
+
+		return bd;
+	}
+
+	protected void writeValueHolder(DataOutputStream out, ConstructorArgumentValues.ValueHolder holder) throws IOException
+	{
+		writeString(out, holder.getType());
+		writeValue(out, holder.getValue());
+	}
+
+	protected ConstructorArgumentValues.ValueHolder readValueHolder(DataInputStream in, ClassLoader loader) throws IOException,
+			ClassNotFoundException
+	{
+		String type = readString(in);
+		return new ConstructorArgumentValues.ValueHolder(readValue(in, loader), type);
+	}
+
+	protected void writeValue(DataOutputStream out, Object value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeByte(NULL);
+		}
+		else if (value instanceof String)
+		{
+			out.writeByte(STRING);
+			writeLongString(out, (String) value);
+		}
+		else if (value instanceof TypedStringValue)
+		{
+			TypedStringValue typed = (TypedStringValue) value;
+			out.writeByte(TYPED_STRING);
+			writeLongString(out, typed.getValue());
+			out.writeBoolean(typed.hasTargetType());
+			writeString(out, typed.getTargetTypeName());
+		}
+		else if (value instanceof RuntimeBeanReference)
+		{
+			RuntimeBeanReference ref = (RuntimeBeanReference) value;
+			out.writeByte(BEAN_REFERENCE);
+			out.writeUTF(ref.getBeanName());
+			out.writeBoolean(ref.isToParent());
+		}
+		else if (value instanceof RuntimeBeanNameReference)
+		{
+			out.writeByte(BEAN_NAME_REFERENCE);
+			out.writeUTF(((RuntimeBeanNameReference) value).getBeanName());
+		}
+		else if (value instanceof BeanDefinitionHolder)
+		{
+			BeanDefinitionHolder holder = (BeanDefinitionHolder) value;
+			out.writeByte(INNER_BEAN);
+			out.writeUTF(holder.getBeanName());
+			writeStrings(out, holder.getAliases());
+			writeDefinition(out, holder.getBeanDefinition());
+		}
+		else if (value instanceof ManagedList)
+		{
+			ManagedList list = (ManagedList) value;
+			out.writeByte(LIST);
+			out.writeBoolean(list.isMergeEnabled());
+			out.writeInt(list.size());
+			for (Iterator i = list.iterator(); i.hasNext();)
+			{
+				writeValue(out, i.next());
+			}
+		}
+		else if (value instanceof ManagedSet)
+		{
+			ManagedSet set = (ManagedSet) value;
+			out.writeByte(SET);
+			out.writeBoolean(set.isMergeEnabled());
+			out.writeInt(set.size());
+			for (Iterator i = set.iterator(); i.hasNext();)
+			{
+				writeValue(out, i.next());
+			}
+		}
+		else if (value instanceof ManagedMap)
+		{
+			ManagedMap map = (ManagedMap) value;
+			out.writeByte(MAP);
+			out.writeBoolean(map.isMergeEnabled());
+			out.writeInt(map.size());
+			for (Iterator i = map.entrySet().iterator(); i.hasNext();)
+			{
+				Map.Entry entry = (Map.Entry) i.next();
+				writeValue(out, entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+		}
+		else if (value instanceof ManagedProperties)
+		{
+			ManagedProperties props = (ManagedProperties) value;
+			out.writeByte(PROPERTIES);
+			out.writeBoolean(props.isMergeEnabled());
+			out.writeInt(props.size());
+			for (Iterator i = props.entrySet().iterator(); i.hasNext();)
+			{
+				Map.Entry entry = (Map.Entry) i.next();
+				writeValue(out, entry.getKey());
+				writeValue(out, entry.getValue());
+			}
+		}
+		else
+		{
+			throw new NotCacheableException("value type: " + value.getClass().getName());
+		}
+	}
+
+	protected Object readValue(DataInputStream in, ClassLoader loader) throws IOException, ClassNotFoundException
+	{
+		byte tag = in.readByte();
+		switch (tag)
+		{
+			case NULL:
+				return null;
+
+			case STRING:
+				return readLongString(in);
+
+			case TYPED_STRING:
+			{
+				String value = readLongString(in);
+				boolean resolved = in.readBoolean();
+				String type = readString(in);
+				if (type == null) return new TypedStringValue(value);
+				if (resolved) return new TypedStringValue(value, ClassUtils.forName(type, loader));
+				return new TypedStringValue(value, type);
+			}
+
+			case BEAN_REFERENCE:
+			{
+				String name = in.readUTF();
+				return new RuntimeBeanReference(name, in.readBoolean());
+			}
+
+			case BEAN_NAME_REFERENCE:
+				return new RuntimeBeanNameReference(in.readUTF());
+
+			case INNER_BEAN:
+			{
+				String name = in.readUTF();
+				String[] aliases = readStrings(in);
+				return new BeanDefinitionHolder(readDefinition(in, loader), name, aliases);
+			}
+
+			case LIST:
+			{
+				boolean merge = in.readBoolean();
+				int count = in.readInt();
+				ManagedList list = new ManagedList(count);
+				list.setMergeEnabled(merge);
+				for (int i = 0; i < count; i++)
+				{
+					list.add(readValue(in, loader));
+				}
+				return list;
+			}
+
+			case SET:
+			{
+				boolean merge = in.readBoolean();
+				int count = in.readInt();
+				ManagedSet set = new ManagedSet(count);
+				set.setMergeEnabled(merge);
+				for (int i = 0; i < count; i++)
+				{
+					set.add(readValue(in, loader));
+				}
+				return set;
+			}
+
+			case MAP:
+			{
+				boolean merge = in.readBoolean();
+				int count = in.readInt();
+				ManagedMap map = new ManagedMap(count);
+				map.setMergeEnabled(merge);
+				for (int i = 0; i < count; i++)
+				{
+					Object key = readValue(in, loader);
+					map.put(key, readValue(in, loader));
+				}
+				return map;
+			}
+
+			case PROPERTIES:
+			{
+				boolean merge = in.readBoolean();
+				int count = in.readInt();
+				Properties props = new ManagedProperties();
+				((ManagedProperties) props).setMergeEnabled(merge);
+				for (int i = 0; i < count; i++)
+				{
+					Object key = readValue(in, loader);
+					props.put(key, readValue(in, loader));
+				}
+				return props;
+			}
+
+			default:
+				throw new IOException("unknown value tag: " + tag);
+		}
+	}
+
+	protected void writeString(DataOutputStream out, String value) throws IOException
+	{
+		out.writeBoolean(value != null);
+		if (value != null) out.writeUTF(value);
+	}
+
+	protected String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * Write a string that may be longer than writeUTF allows (property values can hold whole scripts).
+	 */
+	protected void writeLongString(DataOutputStream out, String value) throws IOException
+	{
+		if (value == null)
+		{
+			out.writeInt(-1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	protected String readLongString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if (length < 0) return null;
+
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	protected void writeStrings(DataOutputStream out, String[] values) throws IOException
+	{
+		out.writeInt(values == null ? -1 : values.length);
+		if (values != null)
+		{
+			for (String value : values)
+			{
+				out.writeUTF(value);
+			}
+		}
+	}
+
+	protected String[] readStrings(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		if (count < 0) return null;
+
+		String[] rv = new String[count];
+		for (int i = 0; i < count; i++)
+		{
+			rv[i] = in.readUTF();
+		}
+		return rv;
+	}
+
+	/**
+	 * An XML bean definition reader that records each resource it loads: those it is given, and any they import.
+	 */
+	public static class RecordingReader extends XmlBeanDefinitionReader
+	{
+		protected List<Resource> m_resources = new ArrayList<Resource>();
+
+		public RecordingReader(BeanDefinitionRegistry registry)
+		{
+			super(registry);
+		}
+
+		public int loadBeanDefinitions(EncodedResource resource) throws BeanDefinitionStoreException
+		{
+			m_resources.add(resource.getResource());
+			return super.loadBeanDefinitions(resource);
+		}
+
+		/**
+		 * @return The resources loaded, in order.
+		 */
+		public List<Resource> getResources()
+		{
+			return m_resources;
+		}
+	}
+
+	/**
+	 * Thrown when a package's definitions hold something this cache cannot write.
+	 */
+	protected static class NotCacheableException extends IOException
+	{
+		public NotCacheableException(String message)
+		{
+			super(message);
+		}
+	}
+}
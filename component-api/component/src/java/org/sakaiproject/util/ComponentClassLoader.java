@@ -0,0 +1,709 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * ComponentClassLoader is the class loader for a component package: WEB-INF/classes and the jars in WEB-INF/lib.
+ * </p>
+ * <p>
+ * When created, it indexes the directories (packages) found in each jar, so a class or resource lookup goes straight to the jars that can hold
+ * it, and a miss costs one map lookup rather than a search of every jar. The index can be kept in a file, and each jar is only scanned again if
+ * its size or modification time has changed. The jars named in a jar's manifest Class-Path are searched after it, as URLClassLoader would.
+ * </p>
+ * <p>
+ * Each jar is opened once, when first needed, and only by this loader (the jars are not handed to URLClassLoader to open again), and the opened
+ * jars are read without locking. {@link #close()} closes them.
+ * </p>
+ * <p>
+ * The loader registers as parallel capable when the JVM supports it (Java 7 and later), so that threads loading different classes do not
+ * queue on a single lock.
+ * </p>
+ */
+public class ComponentClassLoader extends URLClassLoader
+{
+	/** Our logger */
+	private static Log M_log = LogFactory.getLog(ComponentClassLoader.class);
+
+	/** Marks an index file, and its format version. */
+	protected final static int MAGIC = 0x53434c49;
+
+	protected final static int VERSION = 2;
+
+	static
+	{
+		try
+		{
+			Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+			register.setAccessible(true);
+			register.invoke(null);
+		}
+		catch (Throwable t)
+		{
+			// not supported by this JVM - we load classes under the loader's lock
+		}
+	}
+
+	/** The classes directory, or null if there is none. */
+	protected File m_classes = null;
+
+	/** The jar files, in search order - with those named in their manifests' Class-Path. */
+	protected File[] m_jars = null;
+
+	/** The jar files' URLs. */
+	protected URL[] m_jarUrls = null;
+
+	/** The opened jar files, opened as needed. */
+	protected AtomicReferenceArray<JarFile> m_jarFiles = null;
+
+	/** Set once closed - no more jars are opened. */
+	protected volatile boolean m_closed = false;
+
+	/** Count of classes defined from each jar. */
+	protected AtomicIntegerArray m_definedClasses = null;
+
+	/** Total size of the class files defined from each jar. */
+	protected AtomicLongArray m_definedBytes = null;
+
+	/** Directory name (e.g. "org/sakaiproject/util/", "" for the root) to the (ordered) indexes of the jars holding entries in it. */
+	protected Map<String, int[]> m_index = new HashMap<String, int[]>();
+
+	/**
+	 * Construct.
+	 *
+	 * @param classes
+	 *        The classes directory, or null if there is none.
+	 * @param jars
+	 *        The jar files, in search order.
+	 * @param parent
+	 *        The parent class loader.
+	 * @param indexFile
+	 *        The file to keep the jar index in, or null to index the jars each time.
+	 */
+	public ComponentClassLoader(File classes, File[] jars, ClassLoader parent, File indexFile)
+	{
+		super(new URL[0], parent);
+
+		m_classes = classes;
+		m_jars = buildIndex(jars, indexFile);
+		m_jarUrls = new URL[m_jars.length];
+		m_jarFiles = new AtomicReferenceArray<JarFile>(m_jars.length);
+		m_definedClasses = new AtomicIntegerArray(m_jars.length);
+		m_definedBytes = new AtomicLongArray(m_jars.length);
+
+		try
+		{
+			for (int i = 0; i < m_jars.length; i++)
+			{
+				m_jarUrls[i] = m_jars[i].toURI().toURL();
+			}
+		}
+		catch (MalformedURLException e)
+		{
+			M_log.warn("ComponentClassLoader: " + e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public URL[] getURLs()
+	{
+		List<URL> rv = new ArrayList<URL>(m_jarUrls.length + 1);
+		try
+		{
+			if (m_classes != null) rv.add(m_classes.toURI().toURL());
+		}
+		catch (MalformedURLException e)
+		{
+			M_log.warn("getURLs: " + e);
+		}
+		rv.addAll(Arrays.asList(m_jarUrls));
+
+		return rv.toArray(new URL[rv.size()]);
+	}
+
+	/**
+	 * Close the jar files opened. Classes and resources are not found in the jars after this.
+	 */
+	public void close()
+	{
+		m_closed = true;
+		for (int j = 0; j < m_jarFiles.length(); j++)
+		{
+			JarFile jar = m_jarFiles.getAndSet(j, null);
+			if (jar == null) continue;
+
+			try
+			{
+				jar.close();
+			}
+			catch (IOException e)
+			{
+				M_log.warn("close: " + m_jars[j] + " : " + e);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	protected Class<?> findClass(String name) throws ClassNotFoundException
+	{
+		long start = StartupTrace.start();
+		try
+		{
+			return findIndexedClass(name);
+		}
+		finally
+		{
+			StartupTrace.end(StartupTrace.CLASSLOADING, name, start);
+		}
+	}
+
+	/**
+	 * Find and define a class from classes/ or the jars, using the index.
+	 *
+	 * @param name
+	 *        The class name.
+	 * @return The class.
+	 * @throws ClassNotFoundException
+	 *         if not found.
+	 */
+	protected Class<?> findIndexedClass(String name) throws ClassNotFoundException
+	{
+		String path = name.replace('.', '/') + ".class";
+
+		try
+		{
+			// classes/ first
+			if (m_classes != null)
+			{
+				File file = new File(m_classes, path);
+				if (file.isFile())
+				{
+					InputStream in = new FileInputStream(file);
+					byte[] bytes = null;
+					try
+					{
+						bytes = readFully(in);
+					}
+					finally
+					{
+						in.close();
+					}
+
+					definePackageFor(name, null, null);
+					return defineClass(name, bytes, 0, bytes.length, new CodeSource(m_classes.toURI().toURL(), (CodeSigner[]) null));
+				}
+			}
+
+			// then just the jars that have this package
+			int[] jars = m_index.get(directoryOf(path));
+			if (jars != null)
+			{
+				for (int j : jars)
+				{
+					JarFile jar = jarFile(j);
+					JarEntry entry = jar.getJarEntry(path);
+					if (entry == null) continue;
+
+					InputStream in = jar.getInputStream(entry);
+					byte[] bytes = null;
+					try
+					{
+						bytes = readFully(in);
+					}
+					finally
+					{
+						in.close();
+					}
+
+					definePackageFor(name, jar.getManifest(), m_jarUrls[j]);
+					m_definedClasses.incrementAndGet(j);
+					m_definedBytes.addAndGet(j, bytes.length);
+					return defineClass(name, bytes, 0, bytes.length, new CodeSource(m_jarUrls[j], entry.getCodeSigners()));
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			throw new ClassNotFoundException(name, e);
+		}
+
+		throw new ClassNotFoundException(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public URL findResource(String name)
+	{
+		List<URL> found = find(name, true);
+		return found.isEmpty() ? null : found.get(0);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Enumeration<URL> findResources(String name) throws IOException
+	{
+		return Collections.enumeration(find(name, false));
+	}
+
+	/**
+	 * Find the URLs of a resource, searching classes/ and then just the jars that have entries in the resource's directory. A directory (a name
+	 * ending in "/") is found in the jars that have an entry for it.
+	 *
+	 * @param name
+	 *        The resource name.
+	 * @param first
+	 *        if true, stop at the first found.
+	 * @return The URLs found, in search order.
+	 */
+	protected List<URL> find(String name, boolean first)
+	{
+		List<URL> rv = new ArrayList<URL>();
+		try
+		{
+			if (m_classes != null)
+			{
+				File file = new File(m_classes, name);
+				if (name.endsWith("/") ? file.isDirectory() : file.isFile())
+				{
+					rv.add(file.toURI().toURL());
+					if (first) return rv;
+				}
+			}
+
+			int[] jars = m_index.get(directoryOf(name));
+			if ((jars != null) && (!m_closed))
+			{
+				for (int j : jars)
+				{
+					if (jarFile(j).getJarEntry(name) != null)
+					{
+						rv.add(new URL("jar:" + m_jarUrls[j].toExternalForm() + "!/" + name));
+						if (first) return rv;
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			M_log.warn("find: " + name + " : " + e);
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The jar files, in search order.
+	 */
+	public File[] getJars()
+	{
+		return m_jars.clone();
+	}
+
+	/**
+	 * @param j
+	 *        The jar's position in {@link #getJars()}.
+	 * @return The number of classes this loader has defined from that jar.
+	 */
+	public int getDefinedClassCount(int j)
+	{
+		return m_definedClasses.get(j);
+	}
+
+	/**
+	 * @param j
+	 *        The jar's position in {@link #getJars()}.
+	 * @return The total size of the class files this loader has defined from that jar.
+	 */
+	public long getDefinedClassBytes(int j)
+	{
+		return m_definedBytes.get(j);
+	}
+
+	/**
+	 * Access an opened jar file, opening it if needed. Two threads may both open it; the first to publish it wins, and the other's is closed.
+	 *
+	 * @param j
+	 *        The jar index.
+	 * @return The opened jar file.
+	 * @throws IOException
+	 *         if the jar cannot be opened, or this loader is closed.
+	 */
+	protected JarFile jarFile(int j) throws IOException
+	{
+		JarFile rv = m_jarFiles.get(j);
+		if (rv != null) return rv;
+
+		if (m_closed) throw new IOException("closed: " + m_jars[j]);
+		rv = new JarFile(m_jars[j]);
+		if (!m_jarFiles.compareAndSet(j, null, rv))
+		{
+			rv.close();
+			rv = jarFile(j);
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Define the package of this class, if not yet defined.
+	 */
+	protected void definePackageFor(String className, Manifest manifest, URL url)
+	{
+		int pos = className.lastIndexOf('.');
+		if (pos == -1) return;
+
+		String pkg = className.substring(0, pos);
+		if (getPackage(pkg) != null) return;
+
+		try
+		{
+			if (manifest != null)
+			{
+				definePackage(pkg, manifest, url);
+			}
+			else
+			{
+				definePackage(pkg, null, null, null, null, null, null, null);
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			// defined by another thread since we checked
+		}
+	}
+
+	/**
+	 * Build the directory index, reusing the entries from the index file for jars that have not changed, and rewriting the file if any have.
+	 * The jars named in each jar's manifest Class-Path are indexed too, to be searched right after it.
+	 *
+	 * @param listed
+	 *        The jar files, in search order.
+	 * @param indexFile
+	 *        The index file, or null if not keeping one.
+	 * @return The jar files indexed, in search order.
+	 */
+	protected File[] buildIndex(File[] listed, File indexFile)
+	{
+		Map<String, IndexEntry> cached = readIndex(indexFile);
+		boolean changed = false;
+
+		Map<String, List<Integer>> index = new HashMap<String, List<Integer>>();
+		List<IndexEntry> entries = new ArrayList<IndexEntry>();
+		List<File> indexed = new ArrayList<File>();
+		Set<File> seen = new HashSet<File>();
+		LinkedList<File> pending = new LinkedList<File>(Arrays.asList(listed));
+		while (!pending.isEmpty())
+		{
+			File jar = pending.removeFirst();
+			if (!seen.add(jar)) continue;
+
+			IndexEntry entry = cached.get(jar.getPath());
+			if ((entry == null) || (entry.length != jar.length()) || (entry.modified != jar.lastModified()))
+			{
+				entry = scan(jar);
+				changed = true;
+			}
+			entries.add(entry);
+			int j = indexed.size();
+			indexed.add(jar);
+
+			// the jars it names go next
+			pending.addAll(0, classPath(jar, entry.classPath));
+
+			for (String dir : entry.directories)
+			{
+				List<Integer> jars = index.get(dir);
+				if (jars == null)
+				{
+					jars = new ArrayList<Integer>(1);
+					index.put(dir, jars);
+				}
+				jars.add(j);
+			}
+		}
+
+		for (Map.Entry<String, List<Integer>> e : index.entrySet())
+		{
+			int[] jars = new int[e.getValue().size()];
+			for (int i = 0; i < jars.length; i++)
+			{
+				jars[i] = e.getValue().get(i);
+			}
+			m_index.put(e.getKey(), jars);
+		}
+
+		if ((changed || (cached.size() != entries.size())) && (indexFile != null))
+		{
+			writeIndex(indexFile, entries);
+		}
+
+		return indexed.toArray(new File[indexed.size()]);
+	}
+
+	/**
+	 * Find the jar files named in a manifest Class-Path.
+	 *
+	 * @param jar
+	 *        The jar file with the manifest.
+	 * @param classPath
+	 *        The Class-Path - space separated URLs, relative to the jar's directory - or null if none.
+	 * @return The jar files named that exist.
+	 */
+	protected static List<File> classPath(File jar, String classPath)
+	{
+		List<File> rv = new ArrayList<File>();
+		if (classPath == null) return rv;
+
+		URI base = jar.getParentFile().toURI();
+		for (String name : classPath.trim().split("\\s+"))
+		{
+			if (name.length() == 0) continue;
+			try
+			{
+				URI uri = base.resolve(name);
+				if (!"file".equals(uri.getScheme())) continue;
+
+				File file = new File(uri).getCanonicalFile();
+				if (file.isFile())
+				{
+					rv.add(file);
+				}
+				else
+				{
+					M_log.debug("classPath: " + jar + " : no jar: " + name);
+				}
+			}
+			catch (Exception e)
+			{
+				M_log.warn("classPath: " + jar + " : " + name + " : " + e);
+			}
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Scan a jar for the directories it has entries in (a directory's own entry is in it), and its manifest Class-Path.
+	 */
+	protected IndexEntry scan(File jar)
+	{
+		IndexEntry rv = new IndexEntry(jar.getPath(), jar.length(), jar.lastModified());
+		try
+		{
+			JarFile jarFile = new JarFile(jar);
+			try
+			{
+				for (Enumeration<JarEntry> e = jarFile.entries(); e.hasMoreElements();)
+				{
+					rv.directories.add(directoryOf(e.nextElement().getName()));
+				}
+
+				Manifest manifest = jarFile.getManifest();
+				if (manifest != null)
+				{
+					rv.classPath = manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+				}
+			}
+			finally
+			{
+				jarFile.close();
+			}
+		}
+		catch (IOException e)
+		{
+			M_log.warn("scan: " + jar + " : " + e);
+		}
+
+		return rv;
+	}
+
+	protected Map<String, IndexEntry> readIndex(File indexFile)
+	{
+		Map<String, IndexEntry> rv = new HashMap<String, IndexEntry>();
+		if ((indexFile == null) || (!indexFile.isFile())) return rv;
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			try
+			{
+				if ((in.readInt() != MAGIC) || (in.readInt() != VERSION)) return rv;
+
+				int count = in.readInt();
+				for (int i = 0; i < count; i++)
+				{
+					IndexEntry entry = new IndexEntry(in.readUTF(), in.readLong(), in.readLong());
+					if (in.readBoolean()) entry.classPath = in.readUTF();
+					int dirs = in.readInt();
+					for (int d = 0; d < dirs; d++)
+					{
+						entry.directories.add(in.readUTF());
+					}
+					rv.put(entry.path, entry);
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			M_log.info("readIndex: ignoring unreadable index: " + indexFile + " : " + e);
+			rv.clear();
+		}
+
+		return rv;
+	}
+
+	protected void writeIndex(File indexFile, List<IndexEntry> entries)
+	{
+		File temp = new File(indexFile.getPath() + ".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(entries.size());
+				for (IndexEntry entry : entries)
+				{
+					out.writeUTF(entry.path);
+					out.writeLong(entry.length);
+					out.writeLong(entry.modified);
+					out.writeBoolean(entry.classPath != null);
+					if (entry.classPath != null) out.writeUTF(entry.classPath);
+					out.writeInt(entry.directories.size());
+					for (String dir : entry.directories)
+					{
+						out.writeUTF(dir);
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+
+			indexFile.delete();
+			if (!temp.renameTo(indexFile))
+			{
+				M_log.warn("writeIndex: cannot rename: " + temp + " to: " + indexFile);
+			}
+		}
+		catch (IOException e)
+		{
+			M_log.warn("writeIndex: " + indexFile + " : " + e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * @return The directory part of an entry or resource name, with the trailing "/" - "" if at the root.
+	 */
+	protected static String directoryOf(String name)
+	{
+		int pos = name.lastIndexOf('/');
+		return (pos == -1) ? "" : name.substring(0, pos + 1);
+	}
+
+	protected static byte[] readFully(InputStream in) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int count = 0;
+		while ((count = in.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * One jar's entry in the index.
+	 */
+	protected static class IndexEntry
+	{
+		protected final String path;
+
+		protected final long length;
+
+		protected final long modified;
+
+		protected final Set<String> directories = new HashSet<String>();
+
+		/** The manifest Class-Path, or null if none. */
+		protected String classPath = null;
+
+		protected IndexEntry(String path, long length, long modified)
+		{
+			this.path = path;
+			this.length = length;
+			this.modified = modified;
+		}
+	}
+}
@@ -23,14 +23,18 @@ package org.sakaiproject.util;
 
 import java.io.File;
 import java.io.FileFilter;
-import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -51,9 +55,45 @@ public class ComponentsLoader
 {
 	/** Our logger */
 	private static Log M_log = LogFactory.getLog(ComponentsLoader.class);
+
+	/**
+	 * System property to parse component packages in parallel (if set). The value is the number of parsing threads; if not a number, one per
+	 * available processor is used.
+	 */
+	protected final static String PARALLEL_LOAD = "sakai.components.parallel.load";
+
+	/** System property to cache parsed component package definitions under sakai.home (if set). */
+	protected final static String CACHE = "sakai.components.cache";
+
+	/** Directory within sakai.home for the cached definitions. */
+	protected final static String CACHE_DIRECTORY = "components-cache";
+
+	/**
+	 * System property to load jars that are identical across component packages once, in a shared class loader (if set). The value is the
+	 * allow-list of jars that may be shared: comma separated jar names, or name prefixes ending in "*", each naming one library. An entry whose
+	 * jars are not the same in every package that has them is not shared.
+	 */
+	protected final static String SHARED_JARS = "sakai.components.shared.jars";
+
+	/** The cache directory, or null if not caching. */
+	protected File m_cacheDirectory = null;
+
+	/** The parsed definitions cache, or null if not caching. */
+	protected BeanDefinitionCache m_cache = null;
+
+	/** The jars shared across packages, or null if not sharing. */
+	protected SharedJars m_sharedJars = null;
+
+	/** The package class loaders made, to close. */
+	protected List<ComponentClassLoader> m_loaders = Collections.synchronizedList(new ArrayList<ComponentClassLoader>());
 	
 	public ComponentsLoader()
 	{
+		if (System.getProperty(CACHE) != null)
+		{
+			m_cacheDirectory = new File(System.getProperty("sakai.home"), CACHE_DIRECTORY);
+			m_cache = new BeanDefinitionCache(m_cacheDirectory);
+		}
 	}
 
 	/**
@@ -101,6 +141,21 @@ public class ComponentsLoader
 			
 			M_log.info("load: loading components from: " + componentsRoot);
 
+			// if configured, find the jars to share across packages
+			String sharedJars = System.getProperty(SHARED_JARS);
+			if ((sharedJars != null) && (sharedJars.trim().length() > 0))
+			{
+				m_sharedJars = new SharedJars(packages, sharedJars.trim().split("\\s*,\\s*"), getClass().getClassLoader());
+			}
+
+			// if configured, parse the packages in parallel
+			int threads = getParallelLoadThreads();
+			if (threads > 1)
+			{
+				loadComponentPackages(packages, ac, threads);
+				return;
+			}
+
 			// process the packages
 			for (File packageDir : packages)
 			{
@@ -121,6 +176,116 @@ public class ComponentsLoader
 		}
 	}
 
+	/**
+	 * Log what sharing jars across packages has saved, if sharing.
+	 */
+	public void reportSharedJars()
+	{
+		if (m_sharedJars != null)
+		{
+			M_log.info("reportSharedJars: " + m_sharedJars.report());
+		}
+	}
+
+	/**
+	 * Close the jars opened by the package class loaders, and the shared class loaders, once the components are done with.
+	 */
+	public void close()
+	{
+		synchronized (m_loaders)
+		{
+			for (ComponentClassLoader loader : m_loaders)
+			{
+				loader.close();
+			}
+			m_loaders.clear();
+		}
+
+		if (m_sharedJars != null)
+		{
+			m_sharedJars.close();
+		}
+	}
+
+	/**
+	 * Load the component packages into the AC, parsing them on a bounded pool of threads, each into its own staging registry. The staging registries
+	 * are then registered with the AC's bean factory one at a time, in the same order the packages would have been loaded serially, so that bean
+	 * definition overriding works out the same.
+	 * 
+	 * @param packages
+	 *        The component package directories, in load order.
+	 * @param ac
+	 *        The ApplicationContext to load into
+	 * @param threads
+	 *        The most packages to parse at once.
+	 */
+	protected void loadComponentPackages(List<File> packages, ConfigurableApplicationContext ac, int threads)
+	{
+		M_log.info("loadComponentPackages: parsing with " + threads + " threads");
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+		{
+			private AtomicInteger m_count = new AtomicInteger();
+
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "sakai-components-loader-" + m_count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try
+		{
+			// start parsing all the packages
+			List<File> dirs = new ArrayList<File>();
+			List<Future<StagingBeanDefinitionRegistry>> staged = new ArrayList<Future<StagingBeanDefinitionRegistry>>();
+			for (final File packageDir : packages)
+			{
+				// if a valid components directory
+				if (validComponentsPackage(packageDir))
+				{
+					dirs.add(packageDir);
+					staged.add(executor.submit(new Callable<StagingBeanDefinitionRegistry>()
+					{
+						public StagingBeanDefinitionRegistry call()
+						{
+							StagingBeanDefinitionRegistry registry = new StagingBeanDefinitionRegistry();
+							loadComponentPackage(packageDir, registry);
+							return registry;
+						}
+					}));
+				}
+				else
+				{
+					M_log.warn("load: skipping non-package entry: " + packageDir);
+				}
+			}
+
+			// register each package's definitions in order, as soon as that package is parsed
+			BeanDefinitionRegistry registry = (BeanDefinitionRegistry) ac.getBeanFactory();
+			for (int i = 0; i < staged.size(); i++)
+			{
+				try
+				{
+					staged.get(i).get().registerWith(registry);
+				}
+				catch (ExecutionException e)
+				{
+					M_log.warn("loadComponentPackages: exception loading: " + dirs.get(i) + " : " + e.getCause(), e.getCause());
+				}
+				catch (Throwable t)
+				{
+					M_log.warn("loadComponentPackages: exception registering: " + dirs.get(i) + " : " + t, t);
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * Load one component package into the AC
 	 * 
@@ -131,9 +296,26 @@ public class ComponentsLoader
 	 */
 	protected void loadComponentPackage(File dir, ConfigurableApplicationContext ac)
 	{
+		loadComponentPackage(dir, (BeanDefinitionRegistry) ac.getBeanFactory());
+	}
+
+	/**
+	 * Load one component package into a bean definition registry
+	 * 
+	 * @param packageRoot
+	 *        The file path to the component package
+	 * @param registry
+	 *        The registry to load into
+	 */
+	protected void loadComponentPackage(File dir, BeanDefinitionRegistry registry)
+	{
+		long packageStart = StartupTrace.start();
+
 		// setup the classloader onto the thread
 		ClassLoader current = Thread.currentThread().getContextClassLoader();
+		long loaderStart = StartupTrace.start();
 		ClassLoader loader = newPackageClassLoader(dir);
+		StartupTrace.end(StartupTrace.CLASSLOADING, "class loader: " + dir.getName(), loaderStart);
 
 		M_log.info("loadComponentPackage: " + dir);
 
@@ -147,15 +329,8 @@ public class ComponentsLoader
 			File webinf = new File(dir, "WEB-INF");
 			xml = new File(webinf, "components.xml");
 
-			// make a reader
-			XmlBeanDefinitionReader reader = new XmlBeanDefinitionReader((BeanDefinitionRegistry) ac.getBeanFactory());
-			
-			// In Spring 2, classes aren't loaded during bean parsing unless this
-			// classloader property is set.
-			reader.setBeanClassLoader(loader);
-			
-			List<Resource> beanDefList = new ArrayList<Resource>();
-			beanDefList.add(new FileSystemResource(xml.getCanonicalPath()));
+			List<File> xmlList = new ArrayList<File>();
+			xmlList.add(xml);
 			
 			// Load the demo components, if necessary
 			File demoXml = new File(webinf, "components-demo.xml");
@@ -165,7 +340,7 @@ public class ComponentsLoader
 				if(demoXml.exists())
 				{
 					if(M_log.isInfoEnabled()) M_log.info("Loading demo components from " + dir);
-					beanDefList.add(new FileSystemResource(demoXml.getCanonicalPath()));
+					xmlList.add(demoXml);
 				}
 			}
 			else
@@ -176,8 +351,53 @@ public class ComponentsLoader
 					if(M_log.isInfoEnabled()) M_log.info("Skipping demo components from " + dir);
 				}
 			}
-						
-			reader.loadBeanDefinitions(beanDefList.toArray(new Resource[0]));
+
+			// if we have a current cached copy of this package's definitions, use it rather than parsing the xml
+			String key = null;
+			StagingBeanDefinitionRegistry staging = null;
+			if (m_cache != null)
+			{
+				long cacheStart = StartupTrace.start();
+				key = m_cache.key(dir, xmlList);
+				StagingBeanDefinitionRegistry cached = m_cache.read(dir, key, loader);
+				StartupTrace.end(StartupTrace.XML, "cached definitions: " + dir.getName(), cacheStart);
+				if (cached != null)
+				{
+					if (M_log.isDebugEnabled()) M_log.debug("loadComponentPackage: using cached definitions for: " + dir);
+					cached.registerWith(registry);
+					return;
+				}
+
+				// parse into a staging registry, so the definitions can be cached
+				staging = new StagingBeanDefinitionRegistry();
+			}
+
+			// make a reader - one that records what it reads, if caching
+			XmlBeanDefinitionReader reader = (staging != null) ? new BeanDefinitionCache.RecordingReader(staging) : new XmlBeanDefinitionReader(
+					registry);
+			
+			// In Spring 2, classes aren't loaded during bean parsing unless this
+			// classloader property is set.
+			reader.setBeanClassLoader(loader);
+			
+			List<Resource> beanDefList = new ArrayList<Resource>();
+			for (File file : xmlList)
+			{
+				beanDefList.add(new FileSystemResource(file.getCanonicalPath()));
+			}
+
+			long xmlStart = StartupTrace.start();
+			try
+			{
+				reader.loadBeanDefinitions(beanDefList.toArray(new Resource[0]));
+				StartupTrace.end(StartupTrace.XML, "parse: " + dir.getName(), xmlStart);
+				if (staging != null) m_cache.write(dir, key, ((BeanDefinitionCache.RecordingReader) reader).getResources(), staging);
+			}
+			finally
+			{
+				// register whatever was parsed, even if not all of it could be
+				if (staging != null) staging.registerWith(registry);
+			}
 		}
 		catch (Throwable t)
 		{
@@ -187,6 +407,8 @@ public class ComponentsLoader
 		{
 			// restore the context loader
 			Thread.currentThread().setContextClassLoader(current);
+
+			StartupTrace.end(StartupTrace.PACKAGE, dir.getName(), packageStart);
 		}
 	}
 
@@ -216,6 +438,26 @@ public class ComponentsLoader
 		return false;
 	}
 
+	/**
+	 * Check the PARALLEL_LOAD system property for how many threads to parse component packages with.
+	 * 
+	 * @return The number of threads, or 1 if packages are to be loaded serially.
+	 */
+	protected int getParallelLoadThreads()
+	{
+		String value = System.getProperty(PARALLEL_LOAD);
+		if (value == null) return 1;
+
+		try
+		{
+			return Integer.parseInt(value.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+
 	/**
 	 * Create the class loader for this component package
 	 * 
@@ -225,26 +467,27 @@ public class ComponentsLoader
 	 */
 	protected ClassLoader newPackageClassLoader(File dir)
 	{
-		// collect as a List, turn into an array after
-		List urls = new Vector();
-
 		File webinf = new File(dir, "WEB-INF");
 
 		// put classes/ on the classpath
 		File classes = new File(webinf, "classes");
-		if ((classes != null) && (classes.isDirectory()))
+		if (classes.isDirectory())
 		{
 			try
 			{
-				URL url = new URL("file:" + classes.getCanonicalPath() + "/");
-				urls.add(url);
+				classes = classes.getCanonicalFile();
 			}
 			catch (Throwable t)
 			{
 			}
 		}
+		else
+		{
+			classes = null;
+		}
 
 		// put each .jar file onto the classpath
+		List<File> jarList = new ArrayList<File>();
 		File lib = new File(webinf, "lib");
 		if ((lib != null) && (lib.isDirectory()))
 		{
@@ -262,8 +505,13 @@ public class ComponentsLoader
 				{
 					try
 					{
-						URL url = new URL("file:" + jars[j].getCanonicalPath());
-						urls.add(url);
+						File jar = jars[j].getCanonicalFile();
+
+						// leave out the jars loaded by the shared class loader
+						if ((m_sharedJars == null) || (!m_sharedJars.isShared(jar)))
+						{
+							jarList.add(jar);
+						}
 					}
 					catch (Throwable t)
 					{
@@ -272,11 +520,14 @@ public class ComponentsLoader
 			}
 		}
 
-		// make the array from the list
-		URL[] urlArray = (URL[]) urls.toArray(new URL[urls.size()]);
+		// keep the jar index with the cached definitions, if caching
+		File indexFile = (m_cacheDirectory != null) ? new File(m_cacheDirectory, dir.getName() + ".jars") : null;
 
-		// make the classloader - my loader is parent
-		URLClassLoader loader = new URLClassLoader(urlArray, getClass().getClassLoader());
+		// make the classloader - the loader of the shared jars left out of this package, if any, or my loader is parent
+		ClassLoader parent = (m_sharedJars != null) ? m_sharedJars.getClassLoader(dir) : null;
+		if (parent == null) parent = getClass().getClassLoader();
+		ComponentClassLoader loader = new ComponentClassLoader(classes, jarList.toArray(new File[jarList.size()]), parent, indexFile);
+		m_loaders.add(loader);
 
 		return loader;
 	}
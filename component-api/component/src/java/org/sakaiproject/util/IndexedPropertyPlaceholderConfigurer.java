@@ -0,0 +1,99 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionVisitor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
+
+/**
+ * A PropertyPlaceholderConfigurer that, in a Sakai bean factory, resolves placeholders
+ * only in the bean definitions the factory found "${" in when they were registered
+ * (or that property overrides have changed since), rather than walking every value of
+ * every definition.
+ *
+ * With any other bean factory, or a placeholder prefix other than "${", it walks
+ * them all, as usual.
+ */
+public class IndexedPropertyPlaceholderConfigurer extends PropertyPlaceholderConfigurer {
+	private static Log log = LogFactory.getLog(IndexedPropertyPlaceholderConfigurer.class);
+	private String placeholderPrefix = DEFAULT_PLACEHOLDER_PREFIX;	// Private in the superclass, so we need to stash our own copy.
+	private String beanName;	// Likewise.
+	private BeanFactory beanFactory;	// Likewise.
+
+	protected void processProperties(ConfigurableListableBeanFactory beanFactoryToProcess, final Properties props) throws BeansException {
+		if (!(beanFactoryToProcess instanceof NoisierDefaultListableBeanFactory)
+				|| !NoisierDefaultListableBeanFactory.PLACEHOLDER_PREFIX.equals(this.placeholderPrefix)) {
+			super.processProperties(beanFactoryToProcess, props);
+			return;
+		}
+
+		NoisierDefaultListableBeanFactory factory = (NoisierDefaultListableBeanFactory) beanFactoryToProcess;
+		BeanDefinitionVisitor visitor = new BeanDefinitionVisitor() {
+			protected String resolveStringValue(String strVal) throws BeansException {
+				return parseStringValue(strVal, props, new HashSet());
+			}
+		};
+
+		String[] beanNames = factory.getBeanDefinitionNames();
+		int visited = 0;
+		for (int i = 0; i < beanNames.length; i++) {
+			// Don't resolve our own definition, nor any without placeholders.
+			if ((beanNames[i].equals(this.beanName) && factory.equals(this.beanFactory)) || !factory.mayContainPlaceholders(beanNames[i])) {
+				continue;
+			}
+			BeanDefinition bd = factory.getBeanDefinition(beanNames[i]);
+			try {
+				visitor.visitBeanDefinition(bd);
+				visited++;
+			} catch (BeanDefinitionStoreException ex) {
+				throw new BeanDefinitionStoreException(bd.getResourceDescription(), beanNames[i], ex.getMessage());
+			}
+		}
+
+		if (log.isDebugEnabled()) log.debug("Resolved placeholders in " + visited + " of " + beanNames.length + " bean definitions");
+	}
+
+	public void setPlaceholderPrefix(String placeholderPrefix) {
+		this.placeholderPrefix = placeholderPrefix;
+		super.setPlaceholderPrefix(placeholderPrefix);
+	}
+
+	public void setBeanName(String beanName) {
+		this.beanName = beanName;
+		super.setBeanName(beanName);
+	}
+
+	public void setBeanFactory(BeanFactory beanFactory) {
+		this.beanFactory = beanFactory;
+		super.setBeanFactory(beanFactory);
+	}
+}
@@ -0,0 +1,277 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.util.DefaultPropertiesPersister;
+import org.springframework.util.PropertiesPersister;
+
+/**
+ * Merges the Sakai properties sources - the properties objects (such as
+ * DynamicDefaultSakaiProperties, or a DB-backed source) and the properties files (the
+ * classpath defaults, then those in sakai.home and the security directory) - in the same
+ * order, and with the same precedence, as Spring's PropertiesFactoryBean: the
+ * properties objects first and the files over them, or the other way around if
+ * localOverride is set. Each is a layer over those before it.
+ *
+ * Unlike PropertiesFactoryBean, it keeps track of which layer, and for a file which
+ * line, set each value in effect, and gives the result as a PropertyIndex.
+ */
+public class LayeredProperties {
+	private static Log log = LogFactory.getLog(LayeredProperties.class);
+	private static final String XML_FILE_EXTENSION = ".xml";
+
+	private Properties[] localProperties = new Properties[0];
+	private Resource[] locations = new Resource[0];
+	private boolean localOverride = false;
+	private boolean ignoreResourceNotFound = false;
+	private String fileEncoding;
+	private PropertiesPersister propertiesPersister = new DefaultPropertiesPersister();
+
+	public void setLocalProperties(Properties[] localProperties) {
+		this.localProperties = localProperties.clone();
+	}
+	public void setLocations(Resource[] locations) {
+		this.locations = locations.clone();
+	}
+	public void setLocalOverride(boolean localOverride) {
+		this.localOverride = localOverride;
+	}
+	public void setIgnoreResourceNotFound(boolean ignoreResourceNotFound) {
+		this.ignoreResourceNotFound = ignoreResourceNotFound;
+	}
+	public void setFileEncoding(String fileEncoding) {
+		this.fileEncoding = fileEncoding;
+	}
+
+	/**
+	 * Read all the layers, and merge them.
+	 * @return The merged values, with their sources.
+	 * @throws IOException if a file cannot be read (and not found files are not ignored).
+	 */
+	public PropertyIndex resolve() throws IOException {
+		PropertyIndex index = new PropertyIndex();
+		if (localOverride) {
+			addLocations(index);
+		}
+		for (int i = 0; i < localProperties.length; i++) {
+			addLocalProperties(index, localProperties[i], i);
+		}
+		if (!localOverride) {
+			addLocations(index);
+		}
+		return index;
+	}
+
+	private void addLocalProperties(PropertyIndex index, Properties properties, int i) {
+		if (properties == null) {
+			return;
+		}
+		String description = (properties.getClass() == Properties.class) ? "properties[" + i + "]" : properties.getClass().getName();
+		int layer = index.addLayer(description);
+
+		// As Spring merges them, defaults and all.
+		for (Enumeration<?> names = properties.propertyNames(); names.hasMoreElements(); ) {
+			String key = (String)names.nextElement();
+			index.put(key, properties.getProperty(key), layer, PropertyIndex.NO_LINE);
+		}
+	}
+
+	private void addLocations(PropertyIndex index) throws IOException {
+		for (int i = 0; i < locations.length; i++) {
+			Resource location = locations[i];
+			if (log.isInfoEnabled()) log.info("Loading properties file from " + location);
+			// The values as Spring would read them, and the lines by a second pass: as Spring does, a file that cannot be read or parsed is
+			// skipped if ignoring those not found.
+			Properties properties = new Properties();
+			Map<String, Integer> lines;
+			try {
+				byte[] content = read(location);
+				if (location.getFilename().endsWith(XML_FILE_EXTENSION)) {
+					propertiesPersister.loadFromXml(properties, new ByteArrayInputStream(content));
+					lines = new HashMap<String, Integer>();
+				} else if (fileEncoding != null) {
+					propertiesPersister.load(properties, new InputStreamReader(new ByteArrayInputStream(content), fileEncoding));
+					lines = findLines(new String(content, fileEncoding));
+				} else {
+					propertiesPersister.load(properties, new ByteArrayInputStream(content));
+					lines = findLines(new String(content, "ISO-8859-1"));
+				}
+			} catch (IOException e) {
+				if (ignoreResourceNotFound) {
+					if (log.isWarnEnabled()) log.warn("Could not load properties from " + location + ": " + e.getMessage());
+					continue;
+				}
+				throw e;
+			}
+
+			int layer = index.addLayer(location.getDescription());
+			for (Enumeration<?> names = properties.propertyNames(); names.hasMoreElements(); ) {
+				String key = (String)names.nextElement();
+				Integer line = lines.get(key);
+				index.put(key, properties.getProperty(key), layer, (line == null) ? PropertyIndex.NO_LINE : line.intValue());
+			}
+		}
+	}
+
+	private static byte[] read(Resource location) throws IOException {
+		InputStream in = location.getInputStream();
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Find the line (from 1) each key is set on, reading the text as Properties.load()
+	 * does: logical lines joined by a trailing backslash, comment and blank lines
+	 * skipped, the key ending at the first unescaped '=', ':' or white space. If a key
+	 * is set more than once, the last (the one in effect) is kept.
+	 */
+	static Map<String, Integer> findLines(String text) {
+		Map<String, Integer> rv = new HashMap<String, Integer>();
+		int pos = 0;
+		int lineNumber = 0;
+		int length = text.length();
+		while (pos < length) {
+			// Gather a logical line, from the physical line it starts on.
+			lineNumber++;
+			int startLine = lineNumber;
+			StringBuilder logical = new StringBuilder();
+			boolean first = true;
+			while (true) {
+				int end = pos;
+				while ((end < length) && (text.charAt(end) != '\n') && (text.charAt(end) != '\r')) {
+					end++;
+				}
+				int start = pos;
+				if (!first) {
+					// Continuation lines lose their leading white space.
+					while ((start < end) && isWhite(text.charAt(start))) {
+						start++;
+					}
+				}
+				String physical = text.substring(start, end);
+
+				// Move past the line end.
+				pos = end;
+				if ((pos < length) && (text.charAt(pos) == '\r')) {
+					pos++;
+				}
+				if ((pos < length) && (text.charAt(pos) == '\n')) {
+					pos++;
+				}
+
+				if (first) {
+					String trimmed = trimLeading(physical);
+					if ((trimmed.length() == 0) || (trimmed.charAt(0) == '#') || (trimmed.charAt(0) == '!')) {
+						// A comment never continues.
+						break;
+					}
+					physical = trimmed;
+				}
+
+				int backslashes = 0;
+				for (int i = physical.length() - 1; (i >= 0) && (physical.charAt(i) == '\\'); i--) {
+					backslashes++;
+				}
+				if ((backslashes % 2 == 1) && (pos < length)) {
+					logical.append(physical, 0, physical.length() - 1);
+					lineNumber++;
+					first = false;
+					continue;
+				}
+				logical.append(physical);
+				break;
+			}
+
+			if (logical.length() > 0) {
+				rv.put(key(logical), Integer.valueOf(startLine));
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The key of a logical line, unescaped.
+	 */
+	private static String key(CharSequence line) {
+		StringBuilder key = new StringBuilder();
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if ((c == '=') || (c == ':') || isWhite(c)) {
+				break;
+			}
+			if ((c == '\\') && (i + 1 < line.length())) {
+				c = line.charAt(++i);
+				if ((c == 'u') && (i + 4 < line.length())) {
+					try {
+						key.append((char)Integer.parseInt(line.subSequence(i + 1, i + 5).toString(), 16));
+						i += 4;
+						continue;
+					} catch (NumberFormatException e) {
+						// Not a valid escape - Properties.load() would refuse the file, so the line does not matter.
+					}
+				}
+				switch (c) {
+					case 't': c = '\t'; break;
+					case 'n': c = '\n'; break;
+					case 'r': c = '\r'; break;
+					case 'f': c = '\f'; break;
+				}
+			}
+			key.append(c);
+		}
+		return key.toString();
+	}
+
+	private static boolean isWhite(char c) {
+		return (c == ' ') || (c == '\t') || (c == '\f');
+	}
+
+	private static String trimLeading(String s) {
+		int i = 0;
+		while ((i < s.length()) && isWhite(s.charAt(i))) {
+			i++;
+		}
+		return s.substring(i);
+	}
+}
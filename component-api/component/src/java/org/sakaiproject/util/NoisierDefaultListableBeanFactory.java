@@ -22,8 +22,49 @@
 
 package org.sakaiproject.util;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.sakaiproject.component.cover.ComponentManager;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.PropertyValue;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.BeanFactoryUtils;
+import org.springframework.beans.factory.BeanCreationNotAllowedException;
+import org.springframework.beans.factory.BeanCurrentlyInCreationException;
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanDefinitionHolder;
+import org.springframework.beans.factory.config.ConstructorArgumentValues;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
 import org.springframework.beans.factory.support.DefaultListableBeanFactory;
 import org.springframework.beans.factory.support.RootBeanDefinition;
 
@@ -32,17 +73,208 @@ import org.springframework.beans.factory.support.RootBeanDefinition;
  * bean, all existing singleton beans are immediately destroyed. Unfortunately for
  * developers, this destruction occurs without any explanation: neither the
  * problematic bean's name nor the error stack is logged.
- * 
+ *
  * This subclasses the default bean factory to log the failing bean's name
  * and a stack trace of the exception.
+ *
+ * If the system property "sakai.components.parallel.init" is set, the singletons
+ * are instead created in layers worked out from their definitions (depends-on,
+ * and bean references in properties and constructor arguments): each layer only
+ * depends on earlier layers, and its beans are created concurrently on a bounded
+ * pool of threads. The value is the number of threads; if not a number, one per
+ * available processor is used. Beans in a dependency cycle, autowired beans,
+ * FactoryBeans, and the beans depending on them are created afterwards, one at a
+ * time, in the usual order.
+ *
+ * Dependencies the definitions don't show (a bean's init() fetching another
+ * component through a cover, for instance) still work: a thread asking for a bean
+ * being created on another thread waits for it. If that wait would deadlock, the
+ * thread gets the partly created bean, just as a circular reference would in a
+ * serial start-up, or fails if there is none yet.
+ *
+ * Spring holds its singleton lock while a FactoryBean makes its object, and while
+ * a FactoryBean is made for a type check. A FactoryBean reached while creating in
+ * parallel, and any bean reached while the thread holds that lock, is therefore
+ * created the serial way, under the lock. The lock is also what threads wait on
+ * for each other's beans, so a thread waiting for a bean never keeps the lock from
+ * the thread creating it.
+ *
+ * If the system property "sakai.components.parallel.destroy" is set, the
+ * singletons are destroyed in layers too: each bean after the beans that depend
+ * on it, each layer's beans concurrently on a bounded pool of threads (the value
+ * is the number). Beans whose destroy takes longer than the timeouts are left to
+ * finish on their own, and the rest carry on. Beans in a dependency cycle, and
+ * those they depend on, are destroyed afterwards, one at a time. Either way, the
+ * slowest destroy methods are reported.
+ *
+ * As bean definitions are registered, those containing "${" placeholders are
+ * noted, so a placeholder configurer need only visit those.
  */
 public class NoisierDefaultListableBeanFactory extends DefaultListableBeanFactory {
-	
+	/** System property to create the singletons in parallel (if set). */
+	public static final String PARALLEL_INIT = "sakai.components.parallel.init";
+
+	/** System property to destroy the singletons in parallel (if set). */
+	public static final String PARALLEL_DESTROY = "sakai.components.parallel.destroy";
+
+	/** System property: how long (ms) to wait for each bean to be destroyed, when destroying in parallel. */
+	public static final String DESTROY_TIMEOUT = "sakai.components.destroy.timeout";
+
+	/** System property: how long (ms) to wait for each layer of beans to be destroyed, when destroying in parallel. */
+	public static final String DESTROY_LAYER_TIMEOUT = "sakai.components.destroy.layer.timeout";
+
+	/** How many of the slowest destroy methods to report. */
+	private static final int DESTROY_REPORT_SIZE = 10;
+
+	/** The placeholder prefix looked for in bean definitions as they are registered. */
+	public static final String PLACEHOLDER_PREFIX = "${";
+
+	/**
+	 * How long (ms) a thread waits for a bean being created on another thread before
+	 * checking again for a deadlock through some lock other than ours. A wait that
+	 * closes a cycle of threads waiting for each other's beans is found at once.
+	 */
+	private static final long DEADLOCK_CHECK_INTERVAL = 1000;
+
+	/** While creating singletons in parallel, the thread creating each bean, by bean name; null otherwise. */
+	private volatile Map<String, Thread> creatingThreads = null;
+
+	/** While creating singletons in parallel, the bean each waiting thread is waiting for, by thread id. */
+	private final Map<Long, String> waitingThreads = new HashMap<Long, String>();
+
+	/**
+	 * Guards creatingThreads and waitingThreads, and is notified as each bean is
+	 * created: Spring's singleton lock, so waiting releases it.
+	 */
+	private final Object creationMonitor = getSingletonMutex();
+
+	/** Counts bean definition, singleton and alias registrations. */
+	private final AtomicLong registrations = new AtomicLong();
+
+	/** The names of the beans with destroy methods, in registration order. */
+	private final Set<String> disposableBeanNames = new LinkedHashSet<String>();
+
+	/** How long (ns) each bean's destroy method took, by bean name. */
+	private final Map<String, Long> destroyTimes = new ConcurrentHashMap<String, Long>();
+
+	/** Set while destroying in parallel, so no singleton is created meanwhile. */
+	private volatile boolean destroying = false;
+
+	/** The names of the beans whose definitions may contain placeholders. */
+	private final Set<String> placeholderBeanNames = Collections.synchronizedSet(new HashSet<String>());
+
+	/**
+	 * @return The number of bean definitions, singletons and aliases registered
+	 * so far - if unchanged, a name not found before is still not there.
+	 */
+	public long getRegistrationCount() {
+		return registrations.get();
+	}
+
+	public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException {
+		super.registerBeanDefinition(beanName, beanDefinition);
+		registrations.incrementAndGet();
+
+		if (containsPlaceholder(beanDefinition)) {
+			placeholderBeanNames.add(beanName);
+		} else {
+			placeholderBeanNames.remove(beanName);
+		}
+	}
+
+	/**
+	 * Note that a bean's definition has been changed since it was registered
+	 * (by a property override, say) so that it may now contain placeholders.
+	 */
+	public void markPlaceholders(String beanName) {
+		placeholderBeanNames.add(beanName);
+	}
+
+	/**
+	 * @return true if the bean's definition may contain "${" placeholders - if it
+	 * did when registered, or has been marked since; false if it cannot.
+	 */
+	public boolean mayContainPlaceholders(String beanName) {
+		return placeholderBeanNames.contains(beanName);
+	}
+
+	/**
+	 * Check a definition for placeholders, as a placeholder configurer would find
+	 * them: in the class name, scope, property values and constructor arguments,
+	 * looking through inner beans, bean references and collections.
+	 */
+	protected boolean containsPlaceholder(BeanDefinition bd) {
+		if (containsPlaceholder(bd.getBeanClassName()) || containsPlaceholder(bd.getScope())) {
+			return true;
+		}
+
+		PropertyValue[] pvs = bd.getPropertyValues().getPropertyValues();
+		for (int i = 0; i < pvs.length; i++) {
+			if (containsPlaceholder(pvs[i].getValue())) return true;
+		}
+
+		ConstructorArgumentValues cas = bd.getConstructorArgumentValues();
+		for (Iterator i = cas.getIndexedArgumentValues().values().iterator(); i.hasNext();) {
+			if (containsPlaceholder(((ConstructorArgumentValues.ValueHolder) i.next()).getValue())) return true;
+		}
+		for (Iterator i = cas.getGenericArgumentValues().iterator(); i.hasNext();) {
+			if (containsPlaceholder(((ConstructorArgumentValues.ValueHolder) i.next()).getValue())) return true;
+		}
+
+		return false;
+	}
+
+	protected boolean containsPlaceholder(Object value) {
+		if (value instanceof String) {
+			return (((String) value).indexOf(PLACEHOLDER_PREFIX) != -1);
+		}
+		else if (value instanceof TypedStringValue) {
+			return containsPlaceholder(((TypedStringValue) value).getValue());
+		}
+		else if (value instanceof RuntimeBeanReference) {
+			return containsPlaceholder(((RuntimeBeanReference) value).getBeanName());
+		}
+		else if (value instanceof BeanDefinitionHolder) {
+			return containsPlaceholder(((BeanDefinitionHolder) value).getBeanDefinition());
+		}
+		else if (value instanceof BeanDefinition) {
+			return containsPlaceholder((BeanDefinition) value);
+		}
+		else if (value instanceof Collection) {
+			for (Iterator i = ((Collection) value).iterator(); i.hasNext();) {
+				if (containsPlaceholder(i.next())) return true;
+			}
+		}
+		else if (value instanceof Map) {
+			for (Iterator i = ((Map) value).entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				if (containsPlaceholder(entry.getKey()) || containsPlaceholder(entry.getValue())) return true;
+			}
+		}
+		return false;
+	}
+
+	public void registerSingleton(String beanName, Object singletonObject) throws IllegalStateException {
+		super.registerSingleton(beanName, singletonObject);
+		registrations.incrementAndGet();
+	}
+
+	public void registerAlias(String beanName, String alias) throws BeanDefinitionStoreException {
+		super.registerAlias(beanName, alias);
+		registrations.incrementAndGet();
+	}
+
 	public void preInstantiateSingletons() throws BeansException {
+		int threads = getParallelInitThreads();
+		if (threads > 1) {
+			preInstantiateSingletonsInParallel(threads);
+			return;
+		}
+
 		if (logger.isDebugEnabled()) {
 			logger.debug("Pre-instantiating singletons in factory [" + this + "]");
 		}
-		
+
 		// The superclass's variable by this name is declared private.
 		String[] beanDefinitionNames = getBeanDefinitionNames();
 		String beanName = null;	// Remember in case of an exception
@@ -50,33 +282,704 @@ public class NoisierDefaultListableBeanFactory extends DefaultListableBeanFactor
 //			for (Iterator it = this.beanDefinitionNames.iterator(); it.hasNext();) {
 			for (int i = 0; i < beanDefinitionNames.length; i++) {
 				beanName = beanDefinitionNames[i];
-				if (!containsSingleton(beanName) && containsBeanDefinition(beanName)) {
-					RootBeanDefinition bd = getMergedBeanDefinition(beanName, false);
-					if (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit()) {
-						if (bd.hasBeanClass() && FactoryBean.class.isAssignableFrom(bd.getBeanClass())) {
-							FactoryBean factory = (FactoryBean) getBean(FACTORY_BEAN_PREFIX + beanName);
-							if (factory.isSingleton()) {
-								getBean(beanName);
-							}
+				if (isPreInstantiable(beanName)) {
+					preInstantiateSingleton(beanName);
+				}
+			}
+		}
+		catch (BeansException ex) {
+			destroyAfterFailure(beanName, ex);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Create the singletons layer by layer, each layer's beans concurrently,
+	 * then any beans that could not be layered one at a time.
+	 */
+	protected void preInstantiateSingletonsInParallel(int threads) throws BeansException {
+		if (logger.isInfoEnabled()) {
+			logger.info("Pre-instantiating singletons in parallel with " + threads + " threads in factory [" + this + "]");
+		}
+
+		// the beans to create, in definition order
+		List<String> beanNames = new ArrayList<String>();
+		String[] beanDefinitionNames = getBeanDefinitionNames();
+		for (int i = 0; i < beanDefinitionNames.length; i++) {
+			if (isPreInstantiable(beanDefinitionNames[i])) {
+				beanNames.add(beanDefinitionNames[i]);
+			}
+		}
+
+		List<List<String>> layers = new ArrayList<List<String>>();
+		List<String> serial = new ArrayList<String>();
+		buildLayers(beanNames, layers, serial);
+		if (logger.isInfoEnabled()) {
+			logger.info("Pre-instantiating " + (beanNames.size() - serial.size()) + " singletons in " + layers.size() +
+					" layers, then " + serial.size() + " one at a time");
+		}
+
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				// let the beans created on this thread use the covers, as they could on the initializing thread
+				Thread thread = new Thread(ComponentManager.initializationTask(r), "sakai-components-init-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setContextClassLoader(contextClassLoader);
+				return thread;
+			}
+		});
+
+		creatingThreads = new HashMap<String, Thread>();
+		String beanName = null;	// Remember in case of an exception
+		try {
+			for (List<String> layer : layers) {
+				List<Future<Object>> created = new ArrayList<Future<Object>>();
+				for (final String name : layer) {
+					created.add(executor.submit(new Callable<Object>() {
+						public Object call() {
+							preInstantiateSingleton(name);
+							return null;
 						}
-						else {
-							getBean(beanName);
+					}));
+				}
+
+				// wait for the whole layer, then report the first failure, in definition order
+				Throwable failure = null;
+				for (int i = 0; i < created.size(); i++) {
+					try {
+						created.get(i).get();
+					}
+					catch (ExecutionException e) {
+						if (failure == null) {
+							failure = e.getCause();
+							beanName = layer.get(i);
+						}
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						if (failure == null) {
+							failure = new BeanCreationException(layer.get(i), "Interrupted waiting for the singleton to be created");
+							beanName = layer.get(i);
 						}
 					}
 				}
+
+				if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+				if (failure instanceof Error) throw (Error) failure;
+			}
+
+			creatingThreads = null;
+			for (String name : serial) {
+				beanName = name;
+				preInstantiateSingleton(name);
 			}
 		}
 		catch (BeansException ex) {
-			// Destroy already created singletons to avoid dangling resources.
-			logger.error("Failed to preinstantiate the singleton named " + beanName + ". Destroying all Spring beans.", ex);
+			creatingThreads = null;
+			destroyAfterFailure(beanName, ex);
+			throw ex;
+		}
+		finally {
+			creatingThreads = null;
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return true if this bean is a non-lazy singleton that still needs to be created.
+	 */
+	protected boolean isPreInstantiable(String beanName) {
+		if (containsSingleton(beanName) || !containsBeanDefinition(beanName)) return false;
+		RootBeanDefinition bd = getMergedBeanDefinition(beanName, false);
+		return (!bd.isAbstract() && bd.isSingleton() && !bd.isLazyInit());
+	}
+
+	/**
+	 * Create one singleton, and if it's a FactoryBean for a singleton, its object.
+	 */
+	protected void preInstantiateSingleton(String beanName) throws BeansException {
+		RootBeanDefinition bd = getMergedBeanDefinition(beanName, false);
+		if (bd.hasBeanClass() && FactoryBean.class.isAssignableFrom(bd.getBeanClass())) {
+			FactoryBean factory = (FactoryBean) getBean(FACTORY_BEAN_PREFIX + beanName);
+			if (factory.isSingleton()) {
+				getBean(beanName);
+			}
+		}
+		else {
+			getBean(beanName);
+		}
+	}
+
+	/**
+	 * Log the failing bean, and destroy the singletons already created.
+	 */
+	protected void destroyAfterFailure(String beanName, BeansException ex) {
+		// Destroy already created singletons to avoid dangling resources.
+		logger.error("Failed to preinstantiate the singleton named " + beanName + ". Destroying all Spring beans.", ex);
+		try {
+			destroySingletons();
+		}
+		catch (Throwable ex2) {
+			logger.error("Pre-instantiating singletons failed, " +
+					"and couldn't destroy already created singletons", ex2);
+		}
+	}
+
+	/**
+	 * Sort the beans into layers, each depending only on beans in earlier layers
+	 * (or beans already created). Beans which can't be layered go, in their
+	 * original order, into serial.
+	 */
+	protected void buildLayers(List<String> beanNames, List<List<String>> layers, List<String> serial) {
+		Set<String> candidates = new HashSet<String>(beanNames);
+
+		// each bean's dependencies among the beans to create
+		Map<String, Set<String>> dependencies = new LinkedHashMap<String, Set<String>>();
+		for (String beanName : beanNames) {
+			RootBeanDefinition bd = getMergedBeanDefinition(beanName, false);
+			if (bd.getAutowireMode() != AbstractBeanDefinition.AUTOWIRE_NO) {
+				// we can't tell what it will be wired with
+				dependencies.put(beanName, null);
+				continue;
+			}
+			if (isFactoryBeanDefinition(beanName)) {
+				// Spring makes its object holding the singleton lock
+				dependencies.put(beanName, null);
+				continue;
+			}
+
+			Set<String> found = new LinkedHashSet<String>();
+			collectDependencies(bd, candidates, found, new HashSet<String>());
+			found.remove(beanName);
+			dependencies.put(beanName, found);
+		}
+
+		// peel off the beans whose dependencies are all in earlier layers
+		Set<String> placed = new HashSet<String>();
+		while (true) {
+			List<String> layer = new ArrayList<String>();
+			for (Map.Entry<String, Set<String>> entry : dependencies.entrySet()) {
+				if ((entry.getValue() != null) && !placed.contains(entry.getKey()) && placed.containsAll(entry.getValue())) {
+					layer.add(entry.getKey());
+				}
+			}
+			if (layer.isEmpty()) break;
+
+			placed.addAll(layer);
+			layers.add(layer);
+		}
+
+		for (String beanName : beanNames) {
+			if (!placed.contains(beanName)) {
+				serial.add(beanName);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the bean is (or may be) a FactoryBean.
+	 */
+	protected boolean isFactoryBeanDefinition(String beanName) {
+		try {
+			return isFactoryBean(beanName);
+		}
+		catch (BeansException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Collect the beans (among the candidates) this definition needs created first:
+	 * its depends-on beans, factory bean, and the beans referenced in its properties
+	 * and constructor arguments - looking through inner beans, and through any
+	 * non-candidate beans (prototypes, lazy beans) it refers to.
+	 */
+	protected void collectDependencies(BeanDefinition bd, Set<String> candidates, Set<String> found, Set<String> visited) {
+		if (bd instanceof AbstractBeanDefinition) {
+			AbstractBeanDefinition abd = (AbstractBeanDefinition) bd;
+			String[] dependsOn = abd.getDependsOn();
+			if (dependsOn != null) {
+				for (int i = 0; i < dependsOn.length; i++) {
+					collectDependency(dependsOn[i], candidates, found, visited);
+				}
+			}
+
+			if (abd.getFactoryBeanName() != null) {
+				collectDependency(abd.getFactoryBeanName(), candidates, found, visited);
+			}
+		}
+
+		PropertyValue[] pvs = bd.getPropertyValues().getPropertyValues();
+		for (int i = 0; i < pvs.length; i++) {
+			collectValueDependencies(pvs[i].getValue(), candidates, found, visited);
+		}
+
+		ConstructorArgumentValues cas = bd.getConstructorArgumentValues();
+		for (Iterator i = cas.getIndexedArgumentValues().values().iterator(); i.hasNext();) {
+			collectValueDependencies(((ConstructorArgumentValues.ValueHolder) i.next()).getValue(), candidates, found, visited);
+		}
+		for (Iterator i = cas.getGenericArgumentValues().iterator(); i.hasNext();) {
+			collectValueDependencies(((ConstructorArgumentValues.ValueHolder) i.next()).getValue(), candidates, found, visited);
+		}
+	}
+
+	protected void collectDependency(String name, Set<String> candidates, Set<String> found, Set<String> visited) {
+		String beanName = transformedBeanName(name);
+		if (candidates.contains(beanName)) {
+			found.add(beanName);
+		}
+		else if (containsBeanDefinition(beanName) && visited.add(beanName)) {
+			// created along with the bean that refers to it - its own references count
+			collectDependencies(getMergedBeanDefinition(beanName, false), candidates, found, visited);
+		}
+	}
+
+	protected void collectValueDependencies(Object value, Set<String> candidates, Set<String> found, Set<String> visited) {
+		if (value instanceof RuntimeBeanReference) {
+			RuntimeBeanReference ref = (RuntimeBeanReference) value;
+			if (!ref.isToParent()) {
+				collectDependency(ref.getBeanName(), candidates, found, visited);
+			}
+		}
+		else if (value instanceof BeanDefinitionHolder) {
+			collectDependencies(((BeanDefinitionHolder) value).getBeanDefinition(), candidates, found, visited);
+		}
+		else if (value instanceof BeanDefinition) {
+			collectDependencies((BeanDefinition) value, candidates, found, visited);
+		}
+		else if (value instanceof Collection) {
+			for (Iterator i = ((Collection) value).iterator(); i.hasNext();) {
+				collectValueDependencies(i.next(), candidates, found, visited);
+			}
+		}
+		else if (value instanceof Map) {
+			for (Iterator i = ((Map) value).entrySet().iterator(); i.hasNext();) {
+				Map.Entry entry = (Map.Entry) i.next();
+				collectValueDependencies(entry.getKey(), candidates, found, visited);
+				collectValueDependencies(entry.getValue(), candidates, found, visited);
+			}
+		}
+	}
+
+	/**
+	 * While creating in parallel, wait for a bean being created on another
+	 * thread, so no-one else sees it partly created.
+	 */
+	public Object getSingleton(String beanName) {
+		Map<String, Thread> creating = creatingThreads;
+		if (creating != null) {
+			awaitCreation(creating, beanName, false);
+		}
+		return super.getSingleton(beanName);
+	}
+
+	/**
+	 * Spring creates each singleton holding one lock for the whole factory.
+	 * While creating in parallel, hold a lock for just this bean instead.
+	 */
+	public Object getSingleton(String beanName, ObjectFactory singletonFactory) {
+		if (destroying && !containsSingleton(beanName)) {
+			throw new BeanCreationNotAllowedException(beanName, "Singleton bean creation not allowed while the singletons of this factory are in destruction");
+		}
+
+		Map<String, Thread> creating = creatingThreads;
+		if (creating == null) {
+			return super.getSingleton(beanName, singletonFactory);
+		}
+
+		boolean claimed = awaitCreation(creating, beanName, true);
+		try {
+			if (containsSingleton(beanName)) {
+				return super.getSingleton(beanName);
+			}
+
+			// the serial way, holding the singleton lock throughout, for FactoryBeans
+			// and for beans reached while this thread already holds it
+			if (Thread.holdsLock(getSingletonMutex()) || isFactoryBeanDefinition(beanName)) {
+				return super.getSingleton(beanName, singletonFactory);
+			}
+
+			if (logger.isDebugEnabled()) {
+				logger.debug("Creating shared instance of singleton bean '" + beanName + "'");
+			}
+
+			// type checks mark FactoryBeans in creation while holding the factory lock
+			synchronized (getSingletonMutex()) {
+				beforeSingletonCreation(beanName);
+			}
+			Object singletonObject = null;
 			try {
-				destroySingletons();
+				singletonObject = singletonFactory.getObject();
 			}
-			catch (Throwable ex2) {
-				logger.error("Pre-instantiating singletons failed, " +
-						"and couldn't destroy already created singletons", ex2);
+			finally {
+				afterSingletonCreation(beanName);
 			}
-			throw ex;
+			addSingleton(beanName, singletonObject);
+			return singletonObject;
+		}
+		finally {
+			if (claimed) {
+				synchronized (creationMonitor) {
+					creating.remove(beanName);
+					creationMonitor.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * While creating in parallel, let only one thread make a singleton FactoryBean's
+	 * object. Spring holds the singleton lock while it does, but a wait for a bean on
+	 * another thread releases that lock, so it alone cannot keep a second thread out.
+	 */
+	protected Object getObjectForBeanInstance(Object beanInstance, String name, RootBeanDefinition mbd) {
+		Map<String, Thread> creating = creatingThreads;
+		if ((creating == null) || !(beanInstance instanceof FactoryBean) || BeanFactoryUtils.isFactoryDereference(name)
+				|| ((mbd != null) && !mbd.isSingleton()) || !((FactoryBean) beanInstance).isSingleton()) {
+			return super.getObjectForBeanInstance(beanInstance, name, mbd);
+		}
+
+		String objectName = FACTORY_BEAN_PREFIX + transformedBeanName(name);
+		boolean claimed = awaitCreation(creating, objectName, true);
+		try {
+			return super.getObjectForBeanInstance(beanInstance, name, mbd);
+		}
+		finally {
+			if (claimed) {
+				synchronized (creationMonitor) {
+					creating.remove(objectName);
+					creationMonitor.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait while another thread creates this bean, then (if claiming) record
+	 * this thread as its creator.
+	 *
+	 * @return true if claimed, false if not claiming, if this thread is already
+	 * creating the bean, or if waiting would deadlock.
+	 * @throws BeanCurrentlyInCreationException if claiming and waiting would deadlock.
+	 */
+	private boolean awaitCreation(Map<String, Thread> creating, String beanName, boolean claim) {
+		Thread current = Thread.currentThread();
+		synchronized (creationMonitor) {
+			while (true) {
+				Thread creator = creating.get(beanName);
+				if (creator == null) {
+					if (claim) creating.put(beanName, current);
+					return claim;
+				}
+				if (creator == current) {
+					return false;
+				}
+				if (waitsFor(creating, creator, current)) {
+					if (!claim) return false;
+					throw new BeanCurrentlyInCreationException(beanName, "Requested while being created on thread " + creator.getName() +
+							", which is waiting for this thread");
+				}
+
+				waitingThreads.put(current.getId(), beanName);
+				try {
+					creationMonitor.wait(DEADLOCK_CHECK_INTERVAL);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new BeanCreationException(beanName, "Interrupted waiting for the bean to be created on thread " + creator.getName());
+				}
+				finally {
+					waitingThreads.remove(current.getId());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Check if this thread is waiting, directly or through other threads, for
+	 * the current thread - either for a bean it's creating, or for a lock it holds.
+	 * A thread blocked on the singleton lock is not counted: whoever holds it is
+	 * either working, or waiting for a bean, which releases it.
+	 */
+	private boolean waitsFor(Map<String, Thread> creating, Thread thread, Thread current) {
+		String creationMonitorName = creationMonitor.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(creationMonitor));
+
+		Set<Long> seen = new HashSet<Long>();
+		Long id = thread.getId();
+		while ((id != null) && seen.add(id)) {
+			if (id.longValue() == current.getId()) return true;
+
+			String waitingFor = waitingThreads.get(id);
+			if (waitingFor != null) {
+				Thread creator = creating.get(waitingFor);
+				id = (creator == null) ? null : creator.getId();
+			}
+			else {
+				// blocked on some other lock? (about to check in with us doesn't count)
+				ThreadInfo info = ManagementFactory.getThreadMXBean().getThreadInfo(id.longValue());
+				id = null;
+				if ((info != null) && (info.getLockOwnerId() != -1) && !creationMonitorName.equals(info.getLockName())) {
+					id = info.getLockOwnerId();
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Trace each bean's creation.
+	 */
+	protected Object createBean(String beanName, RootBeanDefinition mbd, Object[] args) throws BeanCreationException {
+		long start = StartupTrace.start();
+		try {
+			return super.createBean(beanName, mbd, args);
+		}
+		finally {
+			StartupTrace.end(StartupTrace.BEAN, beanName, start);
+		}
+	}
+
+	/**
+	 * Trace each bean's afterPropertiesSet() and init-method.
+	 */
+	protected void invokeInitMethods(String beanName, Object bean, RootBeanDefinition mbd) throws Throwable {
+		long start = StartupTrace.start();
+		try {
+			super.invokeInitMethods(beanName, bean, mbd);
+		}
+		finally {
+			StartupTrace.end(StartupTrace.INIT, beanName, start);
+		}
+	}
+
+	/**
+	 * @return The number of threads to create singletons with - 1 unless configured.
+	 */
+	protected int getParallelInitThreads() {
+		String threads = System.getProperty(PARALLEL_INIT);
+		if (threads == null) return 1;
+
+		try {
+			return Integer.parseInt(threads.trim());
+		}
+		catch (NumberFormatException e) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+
+	/**
+	 * Time each bean's destroy methods.
+	 */
+	public void registerDisposableBean(final String beanName, final DisposableBean bean) {
+		super.registerDisposableBean(beanName, new DisposableBean() {
+			public void destroy() throws Exception {
+				long start = System.nanoTime();
+				try {
+					bean.destroy();
+				}
+				finally {
+					destroyTimes.put(beanName, System.nanoTime() - start);
+				}
+			}
+		});
+		synchronized (disposableBeanNames) {
+			disposableBeanNames.add(beanName);
+		}
+	}
+
+	public void destroySingletons() {
+		int threads = getParallelDestroyThreads();
+		if (threads > 1) {
+			destroySingletonsInParallel(threads);
+		}
+
+		// all, or the rest, one at a time
+		super.destroySingletons();
+		destroying = false;
+
+		reportDestroyTimes();
+		synchronized (disposableBeanNames) {
+			disposableBeanNames.clear();
+		}
+	}
+
+	/**
+	 * Destroy the singletons with destroy methods layer by layer, each layer's beans
+	 * concurrently, leaving any that cannot be layered.
+	 */
+	protected void destroySingletonsInParallel(int threads) {
+		List<String> beanNames = null;
+		synchronized (disposableBeanNames) {
+			beanNames = new ArrayList<String>(disposableBeanNames);
+		}
+
+		// each bean's layer: after all the beans that depend on it; -1 if in (or depended on by) a cycle
+		Map<String, Integer> levels = new HashMap<String, Integer>();
+		int top = -1;
+		for (String name : beanNames) {
+			top = Math.max(top, destroyLevel(name, levels, new HashSet<String>()));
+		}
+
+		List<List<String>> layers = new ArrayList<List<String>>();
+		for (int i = 0; i <= top; i++) {
+			layers.add(new ArrayList<String>());
+		}
+		int serial = 0;
+		for (String name : beanNames) {
+			int level = levels.get(name);
+			if (level == -1) {
+				serial++;
+			} else {
+				layers.get(level).add(name);
+			}
+		}
+
+		long beanTimeout = getLongProperty(DESTROY_TIMEOUT, 30000);
+		long layerTimeout = getLongProperty(DESTROY_LAYER_TIMEOUT, 120000);
+		if (logger.isInfoEnabled()) {
+			logger.info("Destroying " + (beanNames.size() - serial) + " singletons in " + layers.size() + " layers with " + threads +
+					" threads, then " + serial + " one at a time, in factory [" + this + "]");
+		}
+
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sakai-components-destroy-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setContextClassLoader(contextClassLoader);
+				return thread;
+			}
+		});
+
+		destroying = true;
+		try {
+			for (List<String> layer : layers) {
+				List<Future<?>> destroyed = new ArrayList<Future<?>>();
+				for (final String name : layer) {
+					destroyed.add(executor.submit(new Runnable() {
+						public void run() {
+							destroySingleton(name);
+						}
+					}));
+				}
+
+				long layerEnd = System.currentTimeMillis() + layerTimeout;
+				for (int i = 0; i < destroyed.size(); i++) {
+					long wait = Math.min(beanTimeout, layerEnd - System.currentTimeMillis());
+					try {
+						destroyed.get(i).get(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+					}
+					catch (TimeoutException e) {
+						logger.warn("Gave up waiting for the destruction of singleton bean '" + layer.get(i) + "'");
+						destroyed.get(i).cancel(true);
+					}
+					catch (ExecutionException e) {
+						logger.error("Destruction of singleton bean '" + layer.get(i) + "' failed", e.getCause());
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Work out a bean's destroy layer: 0 if nothing depends on it, else one more
+	 * than the highest layer of the beans that do; -1 if it is in, or depended on
+	 * by, a cycle.
+	 */
+	protected int destroyLevel(String beanName, Map<String, Integer> levels, Set<String> visiting) {
+		Integer known = levels.get(beanName);
+		if (known != null) return known;
+		if (!visiting.add(beanName)) return -1;
+
+		int rv = 0;
+		if (hasDependentBean(beanName)) {
+			List<String> dependents = new ArrayList<String>(getDependentBeans(beanName));
+			for (String dependent : dependents) {
+				int level = destroyLevel(dependent, levels, visiting);
+				if (level == -1) {
+					rv = -1;
+					break;
+				}
+				rv = Math.max(rv, level + 1);
+			}
+		}
+
+		visiting.remove(beanName);
+		levels.put(beanName, rv);
+		return rv;
+	}
+
+	/**
+	 * Log the slowest destroy methods, and forget the times.
+	 */
+	protected void reportDestroyTimes() {
+		if (destroyTimes.isEmpty()) return;
+
+		List<Map.Entry<String, Long>> times = new ArrayList<Map.Entry<String, Long>>(destroyTimes.entrySet());
+		Collections.sort(times, new Comparator<Map.Entry<String, Long>>() {
+			public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+
+		long total = 0;
+		for (Map.Entry<String, Long> time : times) {
+			total += time.getValue();
+		}
+
+		if (logger.isInfoEnabled()) {
+			StringBuilder buf = new StringBuilder();
+			buf.append("Destroyed ").append(times.size()).append(" beans, ").append(total / 1000000).append(" ms in destroy methods; slowest:");
+			for (int i = 0; (i < times.size()) && (i < DESTROY_REPORT_SIZE); i++) {
+				buf.append("\n  ").append(times.get(i).getKey()).append(": ").append(times.get(i).getValue() / 1000000).append(" ms");
+			}
+			logger.info(buf.toString());
+		}
+
+		destroyTimes.clear();
+	}
+
+	/**
+	 * @return The number of threads to destroy singletons with - 1 unless configured.
+	 */
+	protected int getParallelDestroyThreads() {
+		String threads = System.getProperty(PARALLEL_DESTROY);
+		if (threads == null) return 1;
+
+		try {
+			return Integer.parseInt(threads.trim());
+		}
+		catch (NumberFormatException e) {
+			return Runtime.getRuntime().availableProcessors();
+		}
+	}
+
+	/**
+	 * @return The system property as a long, or the default if not set or not a number.
+	 */
+	protected long getLongProperty(String name, long dflt) {
+		String value = System.getProperty(name);
+		if (value == null) return dflt;
+
+		try {
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e) {
+			logger.warn("Not a number: " + name + "=" + value);
+			return dflt;
 		}
 	}
 }
@@ -0,0 +1,186 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The merged Sakai properties, each with where it came from: the layer (properties
+ * file or properties object) that set the value in effect, and for a file, the line.
+ * Built once by LayeredProperties, then only read.
+ *
+ * The values are kept in a flat, open-addressed hash table (parallel arrays, linear
+ * probing), so a lookup is a hash and a probe or two, with no entry objects.
+ */
+public class PropertyIndex {
+	/** The line of a value with no line: one set in a properties object, or an XML file. */
+	public static final int NO_LINE = -1;
+
+	private final List<String> layers = new ArrayList<String>();
+	private String[] keys = new String[16];
+	private String[] values = new String[16];
+	private int[] valueLayers = new int[16];
+	private int[] lines = new int[16];
+	private int size = 0;
+
+	/**
+	 * Add a layer, above those already added.
+	 * @return The layer's number.
+	 */
+	int addLayer(String description) {
+		layers.add(description);
+		return layers.size() - 1;
+	}
+
+	/**
+	 * Set a value, replacing any set by a lower layer.
+	 */
+	void put(String key, String value, int layer, int line) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		int slot = slot(key);
+		if (keys[slot] == null) {
+			keys[slot] = key;
+			size++;
+		}
+		values[slot] = value;
+		valueLayers[slot] = layer;
+		lines[slot] = line;
+	}
+
+	private void grow() {
+		String[] oldKeys = keys;
+		String[] oldValues = values;
+		int[] oldLayers = valueLayers;
+		int[] oldLines = lines;
+		keys = new String[oldKeys.length * 2];
+		values = new String[keys.length];
+		valueLayers = new int[keys.length];
+		lines = new int[keys.length];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int slot = slot(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+				valueLayers[slot] = oldLayers[i];
+				lines[slot] = oldLines[i];
+			}
+		}
+	}
+
+	/**
+	 * @return The slot holding the key, or the empty slot where it would go.
+	 */
+	private int slot(String key) {
+		int h = key.hashCode();
+		h ^= (h >>> 16);
+		int mask = keys.length - 1;
+		int slot = h & mask;
+		while ((keys[slot] != null) && !keys[slot].equals(key)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * @return The value, or null if not set.
+	 */
+	public String get(String key) {
+		int slot = slot(key);
+		return (keys[slot] == null) ? null : values[slot];
+	}
+
+	/**
+	 * @return The description of the layer that set the value in effect, or null if not set.
+	 */
+	public String getLayer(String key) {
+		int slot = slot(key);
+		return (keys[slot] == null) ? null : layers.get(valueLayers[slot]);
+	}
+
+	/**
+	 * @return The line of its file the value in effect was set on, or NO_LINE if not
+	 * known or not set.
+	 */
+	public int getLine(String key) {
+		int slot = slot(key);
+		return (keys[slot] == null) ? NO_LINE : lines[slot];
+	}
+
+	/**
+	 * @return Where the value in effect was set - the layer, and the line if known - or
+	 * null if not set.
+	 */
+	public String getSource(String key) {
+		int slot = slot(key);
+		if (keys[slot] == null) {
+			return null;
+		}
+		String layer = layers.get(valueLayers[slot]);
+		return (lines[slot] == NO_LINE) ? layer : layer + " line " + lines[slot];
+	}
+
+	/**
+	 * @return The layers' descriptions, lowest first.
+	 */
+	public List<String> getLayers() {
+		return Collections.unmodifiableList(layers);
+	}
+
+	/**
+	 * @return The keys set by a layer (that are still in effect), by its description.
+	 */
+	public List<String> getKeysFromLayer(String description) {
+		List<String> rv = new ArrayList<String>();
+		for (int i = 0; i < keys.length; i++) {
+			if ((keys[i] != null) && layers.get(valueLayers[i]).equals(description)) {
+				rv.add(keys[i]);
+			}
+		}
+		Collections.sort(rv);
+		return rv;
+	}
+
+	/**
+	 * @return The number of values.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return The values, as a new Properties.
+	 */
+	public Properties toProperties() {
+		Properties rv = new Properties();
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				rv.put(keys[i], values[i]);
+			}
+		}
+		return rv;
+	}
+}
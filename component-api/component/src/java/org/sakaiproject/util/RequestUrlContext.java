@@ -0,0 +1,159 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+/**
+ * <p>
+ * RequestUrlContext carries the server URL and portal path worked out for the current request, so the configuration service can read them
+ * without a ThreadLocalManager lookup. The request entry point binds a context once, and must unbind it (or restore the one it replaced) when the
+ * request is done, or use run(), which does both:
+ * </p>
+ *
+ * <pre>
+ * RequestUrlContext.run(serverUrl, portalPath, new Runnable()
+ * {
+ * 	public void run()
+ * 	{
+ * 		...
+ * 	}
+ * });
+ * </pre>
+ *
+ * <p>
+ * A context is immutable, and there is one thread local slot for it, so binding costs one set and reading one get. With no context bound, the
+ * configuration service falls back to the values in the ThreadLocalManager.
+ * </p>
+ */
+public class RequestUrlContext
+{
+	/** The context bound to the current thread, if any. */
+	private static final ThreadLocal<RequestUrlContext> m_current = new ThreadLocal<RequestUrlContext>();
+
+	/** The server URL for the request, or null to use the configured one. */
+	private final String m_serverUrl;
+
+	/** The portal path for the request, or null to use the configured one. */
+	private final String m_portalPath;
+
+	/**
+	 * Construct.
+	 *
+	 * @param serverUrl
+	 *        The server URL for the request, or null to use the configured one.
+	 * @param portalPath
+	 *        The portal path for the request, or null to use the configured one.
+	 */
+	public RequestUrlContext(String serverUrl, String portalPath)
+	{
+		m_serverUrl = serverUrl;
+		m_portalPath = portalPath;
+	}
+
+	/**
+	 * @return The context bound to the current thread, or null if there is none.
+	 */
+	public static RequestUrlContext current()
+	{
+		return m_current.get();
+	}
+
+	/**
+	 * Bind a context to the current thread.
+	 *
+	 * @param serverUrl
+	 *        The server URL for the request, or null to use the configured one.
+	 * @param portalPath
+	 *        The portal path for the request, or null to use the configured one.
+	 * @return The context this replaces, or null if there was none - to give to restore() when done.
+	 */
+	public static RequestUrlContext bind(String serverUrl, String portalPath)
+	{
+		RequestUrlContext rv = m_current.get();
+		m_current.set(new RequestUrlContext(serverUrl, portalPath));
+		return rv;
+	}
+
+	/**
+	 * Put back the context that bind() replaced.
+	 *
+	 * @param previous
+	 *        The context bind() returned, or null to leave the thread with none.
+	 */
+	public static void restore(RequestUrlContext previous)
+	{
+		if (previous == null)
+		{
+			m_current.remove();
+		}
+		else
+		{
+			m_current.set(previous);
+		}
+	}
+
+	/**
+	 * Remove any context from the current thread.
+	 */
+	public static void unbind()
+	{
+		m_current.remove();
+	}
+
+	/**
+	 * Run a task with a context bound, putting back the one it replaced when done.
+	 *
+	 * @param serverUrl
+	 *        The server URL for the request, or null to use the configured one.
+	 * @param portalPath
+	 *        The portal path for the request, or null to use the configured one.
+	 * @param task
+	 *        The task.
+	 */
+	public static void run(String serverUrl, String portalPath, Runnable task)
+	{
+		RequestUrlContext previous = bind(serverUrl, portalPath);
+		try
+		{
+			task.run();
+		}
+		finally
+		{
+			restore(previous);
+		}
+	}
+
+	/**
+	 * @return The server URL for the request, or null to use the configured one.
+	 */
+	public String getServerUrl()
+	{
+		return m_serverUrl;
+	}
+
+	/**
+	 * @return The portal path for the request, or null to use the configured one.
+	 */
+	public String getPortalPath()
+	{
+		return m_portalPath;
+	}
+}
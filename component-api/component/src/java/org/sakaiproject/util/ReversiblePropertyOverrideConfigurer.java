@@ -22,7 +22,20 @@
 
 package org.sakaiproject.util;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
 import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.beans.factory.config.PropertyOverrideConfigurer;
 
@@ -30,10 +43,81 @@ import org.springframework.beans.factory.config.PropertyOverrideConfigurer;
  * This is just a version of Spring's PropertyOverrideConfigurer that lets the
  * bean name be specified Sakai-style before the property name instead of after.
  * (For example "myBean@the.property" instead of "the.property@myBean".)
+ * 
+ * The keys are grouped by bean name before any are applied, so each bean's
+ * definition is looked up once, keys without a bean name are passed over
+ * without building an exception for each, and overrides of beans that do not
+ * exist are reported together.
  */
 public class ReversiblePropertyOverrideConfigurer extends PropertyOverrideConfigurer {
+	private static Log log = LogFactory.getLog(ReversiblePropertyOverrideConfigurer.class);
 	private boolean beanNameAtEnd = true;
 	private String beanNameSeparator;	// Private in the superclass, so we need to stash our own copy.
+	private boolean ignoreInvalidKeys = false;	// Likewise.
+	private Set<String> overriddenBeanNames = Collections.synchronizedSet(new HashSet<String>());
+	private Map<String, List<String>> unknownBeanOverrides = Collections.emptyMap();
+
+	protected void processProperties(ConfigurableListableBeanFactory factory, Properties props)
+	throws BeansException {
+		if (!this.beanNameAtEnd) {
+			// Matches processKey(), which has nothing to do in this case.
+			return;
+		}
+
+		// Plan: the property/value pairs to set, grouped by bean name.
+		Map<String, List<String[]>> plan = new LinkedHashMap<String, List<String[]>>();
+		for (Enumeration<?> names = props.propertyNames(); names.hasMoreElements(); ) {
+			String key = (String)names.nextElement();
+			int separatorIndex = key.indexOf(this.beanNameSeparator);
+			if (separatorIndex < 0) {
+				if (!this.ignoreInvalidKeys) {
+					throw new BeanInitializationException("Invalid key '" + key + "': expected 'property" + this.beanNameSeparator + "beanName'");
+				}
+				continue;
+			}
+			String beanName = key.substring(separatorIndex+1);
+			List<String[]> overrides = plan.get(beanName);
+			if (overrides == null) {
+				overrides = new ArrayList<String[]>();
+				plan.put(beanName, overrides);
+			}
+			overrides.add(new String[] {key.substring(0, separatorIndex), props.getProperty(key)});
+		}
+
+		Map<String, List<String>> unknown = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String[]>> entry : plan.entrySet()) {
+			String beanName = entry.getKey();
+			if (!factory.containsBeanDefinition(beanName)) {
+				List<String> keys = new ArrayList<String>();
+				for (String[] override : entry.getValue()) {
+					keys.add(override[0] + this.beanNameSeparator + beanName);
+				}
+				unknown.put(beanName, keys);
+				continue;
+			}
+			this.overriddenBeanNames.add(beanName);
+			for (String[] override : entry.getValue()) {
+				try {
+					applyPropertyValue(factory, beanName, override[0], override[1]);
+					if (log.isDebugEnabled()) log.debug("Property '" + override[0] + this.beanNameSeparator + beanName + "' set to value [" + override[1] + "]");
+				} catch (BeansException e) {
+					String msg = "Could not process key '" + override[0] + this.beanNameSeparator + beanName + "' in PropertyOverrideConfigurer";
+					if (!this.ignoreInvalidKeys) {
+						throw new BeanInitializationException(msg, e);
+					}
+					if (log.isDebugEnabled()) log.debug(msg, e);
+				}
+			}
+		}
+
+		this.unknownBeanOverrides = Collections.unmodifiableMap(unknown);
+		if (!unknown.isEmpty()) {
+			if (!this.ignoreInvalidKeys) {
+				throw new BeanInitializationException("Overrides for unknown beans: " + unknown);
+			}
+			if (log.isInfoEnabled()) log.info("Ignoring overrides for " + unknown.size() + " beans that are not defined: " + unknown);
+		}
+	}
 
 	protected void processKey(ConfigurableListableBeanFactory factory, String key, String value)
 	throws BeansException {
@@ -48,6 +132,32 @@ public class ReversiblePropertyOverrideConfigurer extends PropertyOverrideConfig
 		}
 	}
 
+	protected void applyPropertyValue(ConfigurableListableBeanFactory factory, String beanName, String property, String value) {
+		super.applyPropertyValue(factory, beanName, property, value);
+		// A placeholder configurer that runs after us must now look at this bean.
+		if ((value != null) && (value.indexOf(NoisierDefaultListableBeanFactory.PLACEHOLDER_PREFIX) != -1)
+				&& (factory instanceof NoisierDefaultListableBeanFactory)) {
+			((NoisierDefaultListableBeanFactory) factory).markPlaceholders(beanName);
+		}
+	}
+
+	public boolean hasPropertyOverridesFor(String beanName) {
+		return this.overriddenBeanNames.contains(beanName) || super.hasPropertyOverridesFor(beanName);
+	}
+
+	/**
+	 * @return The override keys, by bean name, of the beans that were not defined
+	 * when the overrides were applied.
+	 */
+	public Map<String, List<String>> getUnknownBeanOverrides() {
+		return this.unknownBeanOverrides;
+	}
+
+	public void setIgnoreInvalidKeys(boolean ignoreInvalidKeys) {
+		this.ignoreInvalidKeys = ignoreInvalidKeys;
+		super.setIgnoreInvalidKeys(ignoreInvalidKeys);
+	}
+
 	public void setBeanNameSeparator(String beanNameSeparator) {
 		this.beanNameSeparator = beanNameSeparator;
 		super.setBeanNameSeparator(beanNameSeparator);
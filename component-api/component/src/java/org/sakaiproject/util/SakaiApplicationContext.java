@@ -77,7 +77,9 @@ public class SakaiApplicationContext extends GenericApplicationContext {
 	 * dynamically.
 	 */
 	protected void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+		long start = StartupTrace.start();
 		invokePostProcessorCreators(beanFactory);
+		StartupTrace.end(StartupTrace.CONTEXT, "post-processor creators", start);
 		super.postProcessBeanFactory(beanFactory);
 	}
 	
@@ -86,9 +88,11 @@ public class SakaiApplicationContext extends GenericApplicationContext {
 	 */
 	protected void onRefresh() throws BeansException {
 		if (initialSingletonNames != null) {
+			long start = StartupTrace.start();
 			for (int i = 0; i < initialSingletonNames.length; i++)	{
 				getBean(initialSingletonNames[i]);
 			}
+			StartupTrace.end(StartupTrace.CONTEXT, "initial singletons", start);
 		}
 		super.onRefresh();
 	}
@@ -25,6 +25,9 @@ package org.sakaiproject.util;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
@@ -32,7 +35,6 @@ import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
 import org.springframework.beans.factory.config.PropertiesFactoryBean;
-import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
 import org.springframework.core.io.Resource;
 
 /**
@@ -49,25 +51,55 @@ import org.springframework.core.io.Resource;
  */
 public class SakaiProperties implements BeanFactoryPostProcessorCreator, InitializingBean {
 	private static Log log = LogFactory.getLog(SakaiProperties.class);
-	private PropertiesFactoryBean propertiesFactoryBean = new PropertiesFactoryBean();
+	private ReloadablePropertiesFactoryBean propertiesFactoryBean = new ReloadablePropertiesFactoryBean();
+	private Resource[] locations = new Resource[0];
+	private LayeredProperties layers = new LayeredProperties();
+	private volatile PropertyIndex propertyIndex = new PropertyIndex();
+	private String beanNameSeparator;
 	private ReversiblePropertyOverrideConfigurer propertyOverrideConfigurer = new ReversiblePropertyOverrideConfigurer();
-	private PropertyPlaceholderConfigurer propertyPlaceholderConfigurer = new PropertyPlaceholderConfigurer();
+	private IndexedPropertyPlaceholderConfigurer propertyPlaceholderConfigurer = new IndexedPropertyPlaceholderConfigurer();
 	
 	public SakaiProperties() {
 		// Set defaults.
-		propertiesFactoryBean.setIgnoreResourceNotFound(true);
+		setIgnoreResourceNotFound(true);
 		propertyPlaceholderConfigurer.setIgnoreUnresolvablePlaceholders(true);
 		propertyPlaceholderConfigurer.setOrder(0);
 		propertyOverrideConfigurer.setBeanNameAtEnd(true);
-		propertyOverrideConfigurer.setBeanNameSeparator("@");
+		setBeanNameSeparator("@");
 		propertyOverrideConfigurer.setIgnoreInvalidKeys(true);
 	}
 
 	public void afterPropertiesSet() throws Exception {
 		// Connect properties to configurers.
 		propertiesFactoryBean.afterPropertiesSet();
-		propertyPlaceholderConfigurer.setProperties((Properties)propertiesFactoryBean.getObject());
-		propertyOverrideConfigurer.setProperties((Properties)propertiesFactoryBean.getObject());
+		Properties properties = (Properties)propertiesFactoryBean.getObject();
+		propertyPlaceholderConfigurer.setProperties(properties);
+		propertyOverrideConfigurer.setProperties(getOverrideProperties(properties));
+	}
+
+	/**
+	 * Only the keys with a bean name are of use to the override configurer; giving it
+	 * just those saves it copying and passing over the (many more) plain values.
+	 * The placeholder configurer still gets them all, since with a separator of "."
+	 * most plain keys would look like bean overrides.
+	 */
+	private Properties getOverrideProperties(Properties properties) {
+		Properties overrides = new Properties();
+		for (Enumeration<?> names = properties.propertyNames(); names.hasMoreElements(); ) {
+			String key = (String)names.nextElement();
+			if (key.indexOf(beanNameSeparator) >= 0) {
+				overrides.setProperty(key, properties.getProperty(key));
+			}
+		}
+		return overrides;
+	}
+
+	/**
+	 * @return The override keys, by bean name, of the beans that were not defined
+	 * when the overrides were applied.
+	 */
+	public Map<String, List<String>> getUnknownBeanOverrides() {
+		return propertyOverrideConfigurer.getUnknownBeanOverrides();
 	}
 
 	/* (non-Javadoc)
@@ -86,27 +118,56 @@ public class SakaiProperties implements BeanFactoryPostProcessorCreator, Initial
 		}
 	}
 	
+	/**
+	 * Read the properties again from their locations, as they are now. The bean overrides
+	 * and placeholders already applied are not changed; the caller decides what to do with
+	 * the new values.
+	 * 
+	 * @return The newly merged properties.
+	 * @throws IOException if a location cannot be read.
+	 */
+	public Properties reload() throws IOException {
+		return propertiesFactoryBean.reload();
+	}
+
+	/**
+	 * @return The merged properties (as last loaded or reloaded), with the layer and line
+	 * each value in effect came from.
+	 */
+	public PropertyIndex getPropertyIndex() {
+		return propertyIndex;
+	}
+
+	/**
+	 * @return The locations the properties are read from, in order.
+	 */
+	public Resource[] getLocations() {
+		return locations.clone();
+	}
+
 	// Delegate properties loading.
+	// The merging is done by our layers, which keep track of the sources, rather than the factory bean.
 	public void setProperties(Properties properties) {
-		propertiesFactoryBean.setProperties(properties);
+		layers.setLocalProperties(new Properties[] {properties});
 	}
 	public void setPropertiesArray(Properties[] propertiesArray) {
-		propertiesFactoryBean.setPropertiesArray(propertiesArray);
+		layers.setLocalProperties(propertiesArray);
 	}
 	public void setLocation(Resource location) {
-		propertiesFactoryBean.setLocation(location);
+		setLocations(new Resource[] {location});
 	}
 	public void setLocations(Resource[] locations) {
-		propertiesFactoryBean.setLocations(locations);
+		this.locations = locations.clone();
+		layers.setLocations(locations);
 	}
 	public void setFileEncoding(String encoding) {
-		propertiesFactoryBean.setFileEncoding(encoding);
+		layers.setFileEncoding(encoding);
 	}
 	public void setIgnoreResourceNotFound(boolean ignoreResourceNotFound) {
-		propertiesFactoryBean.setIgnoreResourceNotFound(ignoreResourceNotFound);
+		layers.setIgnoreResourceNotFound(ignoreResourceNotFound);
 	}
 	public void setLocalOverride(boolean localOverride) {
-		propertiesFactoryBean.setLocalOverride(localOverride);
+		layers.setLocalOverride(localOverride);
 	}
 
 	// Delegate PropertyPlaceholderConfigurer.
@@ -137,9 +198,27 @@ public class SakaiProperties implements BeanFactoryPostProcessorCreator, Initial
 		propertyOverrideConfigurer.setBeanNameAtEnd(beanNameAtEnd);
 	}
 	public void setBeanNameSeparator(String beanNameSeparator) {
+		this.beanNameSeparator = beanNameSeparator;
 		propertyOverrideConfigurer.setBeanNameSeparator(beanNameSeparator);
 	}
 	public void setIgnoreInvalidKeys(boolean ignoreInvalidKeys) {
 		propertyOverrideConfigurer.setIgnoreInvalidKeys(ignoreInvalidKeys);
 	}
+
+	/**
+	 * The singleton properties object is built once, at start-up; this lets us merge
+	 * a fresh copy, with the same settings, whenever a reload is wanted. Each merge is
+	 * done by the layers, and its sources kept.
+	 */
+	private class ReloadablePropertiesFactoryBean extends PropertiesFactoryBean {
+		public Properties reload() throws IOException {
+			return (Properties)createInstance();
+		}
+
+		protected Properties mergeProperties() throws IOException {
+			PropertyIndex index = layers.resolve();
+			propertyIndex = index;
+			return index.toProperties();
+		}
+	}
 }
@@ -0,0 +1,351 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * SharedJars finds the jars that are byte-for-byte identical across component packages, and loads one copy of each through a shared class
+ * loader that the packages' own class loaders use as their parent. The classes in those jars are then defined once, rather than once per package.
+ * </p>
+ * <p>
+ * Only jars on the allow-list are considered. A shared jar's classes cannot see the classes of any one package, so the list should only name
+ * self-contained libraries (commons-*, jdom and the like), never jars with package-specific code or configuration.
+ * </p>
+ * <p>
+ * The jars are grouped by the allow-list entry they match, and an entry is shared only if every package's copy of every jar it matches is the
+ * same: if any package ships a different version, no package shares it, so each keeps loading its own. A prefix entry should therefore name one
+ * library ("commons-lang-*", not "commons-*").
+ * </p>
+ * <p>
+ * A package gets a shared parent only if some of its jars were left out for it, and that parent loads exactly those jars - packages that leave
+ * out the same jars share one loader. A package with no copy of a shared jar keeps the usual parent, and never sees the shared copy.
+ * </p>
+ */
+public class SharedJars
+{
+	/** Our logger */
+	private static Log M_log = LogFactory.getLog(SharedJars.class);
+
+	/** The allow-list: exact jar names, or name prefixes ending in "*". */
+	protected String[] m_allowed = null;
+
+	/** The copy loaded for every package's copy of a shared jar, by the package copy's canonical path. */
+	protected Map<String, File> m_sharedPaths = new HashMap<String, File>();
+
+	/** The shared class loader for each package that left out shared jars, by the package's directory. */
+	protected Map<File, ComponentClassLoader> m_packageLoaders = new HashMap<File, ComponentClassLoader>();
+
+	/** The shared class loaders made, and how many packages use each. */
+	protected Map<ComponentClassLoader, Integer> m_loaderUses = new LinkedHashMap<ComponentClassLoader, Integer>();
+
+	/**
+	 * Construct, finding the shared jars in these packages.
+	 *
+	 * @param packages
+	 *        The component package directories, in load order.
+	 * @param allowed
+	 *        The allow-list: exact jar names, or name prefixes ending in "*".
+	 * @param parent
+	 *        The parent for the shared class loaders.
+	 */
+	public SharedJars(List<File> packages, String[] allowed, ClassLoader parent)
+	{
+		m_allowed = allowed;
+
+		// group the allowed jars by the allow-list entry they match
+		Map<String, List<File>> byEntry = new LinkedHashMap<String, List<File>>();
+		Map<File, List<File>> packageJars = new LinkedHashMap<File, List<File>>();
+		for (File dir : packages)
+		{
+			List<File> jars = allowedJars(dir);
+			packageJars.put(dir, jars);
+			for (File jar : jars)
+			{
+				String entry = allowedBy(jar.getName());
+				List<File> same = byEntry.get(entry);
+				if (same == null)
+				{
+					same = new ArrayList<File>();
+					byEntry.put(entry, same);
+				}
+				same.add(jar);
+			}
+		}
+
+		// share an entry's jars only if they are all the same, loading the first copy found
+		int shared = 0;
+		for (Map.Entry<String, List<File>> entry : byEntry.entrySet())
+		{
+			List<File> jars = entry.getValue();
+			if (jars.size() < 2) continue;
+
+			if (!identical(jars))
+			{
+				M_log.info("SharedJars: not sharing " + entry.getKey() + " : the packages' copies differ");
+				continue;
+			}
+
+			shared++;
+			for (File jar : jars)
+			{
+				m_sharedPaths.put(jar.getPath(), jars.get(0));
+			}
+		}
+
+		// make a shared loader for each set of jars left out of a package, reusing one for packages that leave out the same set
+		Map<List<File>, ComponentClassLoader> loaders = new HashMap<List<File>, ComponentClassLoader>();
+		for (Map.Entry<File, List<File>> entry : packageJars.entrySet())
+		{
+			List<File> copies = new ArrayList<File>();
+			for (File jar : entry.getValue())
+			{
+				File copy = m_sharedPaths.get(jar.getPath());
+				if ((copy != null) && (!copies.contains(copy))) copies.add(copy);
+			}
+			if (copies.isEmpty()) continue;
+
+			ComponentClassLoader loader = loaders.get(copies);
+			if (loader == null)
+			{
+				loader = new ComponentClassLoader(null, copies.toArray(new File[copies.size()]), parent, null);
+				loaders.put(copies, loader);
+				m_loaderUses.put(loader, 0);
+			}
+			m_loaderUses.put(loader, m_loaderUses.get(loader) + 1);
+			m_packageLoaders.put(entry.getKey(), loader);
+		}
+
+		M_log.info("SharedJars: sharing " + shared + " jars, replacing " + m_sharedPaths.size() + " package copies, in " + loaders.size()
+				+ " shared class loaders");
+	}
+
+	/**
+	 * Access the shared class loader for a package: the one that loads the jars left out of it.
+	 *
+	 * @param dir
+	 *        The package directory, as given when constructed.
+	 * @return The shared class loader for the package, or null if none of its jars are shared.
+	 */
+	public ClassLoader getClassLoader(File dir)
+	{
+		return m_packageLoaders.get(dir);
+	}
+
+	/**
+	 * Check if this jar is loaded by the shared class loader, and so should be left out of its package's class loader.
+	 *
+	 * @param jar
+	 *        The jar file (canonical).
+	 * @return true if the jar is shared, false if not.
+	 */
+	public boolean isShared(File jar)
+	{
+		return m_sharedPaths.containsKey(jar.getPath());
+	}
+
+	/**
+	 * Report the sharing so far: for each shared class loader's jars, the number of packages using it and the classes defined from each, and the
+	 * totals saved, counting each shared class as one the other packages would otherwise have defined again. The class file size understates the
+	 * metaspace each definition takes, so the real saving is larger.
+	 *
+	 * @return The report.
+	 */
+	public String report()
+	{
+		StringBuilder buf = new StringBuilder();
+		buf.append("shared jars:\n");
+
+		long classesSaved = 0;
+		long bytesSaved = 0;
+		for (Map.Entry<ComponentClassLoader, Integer> entry : m_loaderUses.entrySet())
+		{
+			ComponentClassLoader loader = entry.getKey();
+			int copies = entry.getValue();
+			File[] jars = loader.getJars();
+			for (int j = 0; j < jars.length; j++)
+			{
+				int classes = loader.getDefinedClassCount(j);
+				long bytes = loader.getDefinedClassBytes(j);
+				buf.append("  ").append(jars[j].getName()).append(": ").append(copies).append(" copies, ").append(classes).append(" classes, ")
+						.append(bytes / 1024).append(" KB\n");
+
+				classesSaved += (long) classes * (copies - 1);
+				bytesSaved += bytes * (copies - 1);
+			}
+		}
+
+		buf.append("  saved up to ").append(classesSaved).append(" class definitions, ").append(bytesSaved / 1024).append(
+				" KB of class file data");
+		return buf.toString();
+	}
+
+	/**
+	 * Close the jars opened by the shared class loaders.
+	 */
+	public void close()
+	{
+		for (ComponentClassLoader loader : m_loaderUses.keySet())
+		{
+			loader.close();
+		}
+	}
+
+	/**
+	 * @return true if these jars all have the same content, false if not (or if one cannot be read).
+	 */
+	protected boolean identical(List<File> jars)
+	{
+		long length = jars.get(0).length();
+		for (File jar : jars)
+		{
+			if (jar.length() != length) return false;
+		}
+
+		String first = hash(jars.get(0));
+		if (first == null) return false;
+		for (int i = 1; i < jars.size(); i++)
+		{
+			if (!first.equals(hash(jars.get(i)))) return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return The jars in this package's WEB-INF/lib that are on the allow-list, canonical.
+	 */
+	protected List<File> allowedJars(File dir)
+	{
+		List<File> rv = new ArrayList<File>();
+
+		File[] jars = new File(new File(dir, "WEB-INF"), "lib").listFiles(new FileFilter()
+		{
+			public boolean accept(File file)
+			{
+				return (file.isFile() && file.getName().endsWith(".jar") && isAllowed(file.getName()));
+			}
+		});
+
+		if (jars != null)
+		{
+			for (File jar : jars)
+			{
+				try
+				{
+					rv.add(jar.getCanonicalFile());
+				}
+				catch (IOException e)
+				{
+					M_log.warn("allowedJars: " + jar + " : " + e);
+				}
+			}
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return true if this jar name is on the allow-list, false if not.
+	 */
+	protected boolean isAllowed(String name)
+	{
+		return allowedBy(name) != null;
+	}
+
+	/**
+	 * @return The first allow-list entry that matches this jar name, or null if none does.
+	 */
+	protected String allowedBy(String name)
+	{
+		for (String allowed : m_allowed)
+		{
+			if (allowed.endsWith("*"))
+			{
+				if (name.startsWith(allowed.substring(0, allowed.length() - 1))) return allowed;
+			}
+			else if (name.equals(allowed))
+			{
+				return allowed;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return The SHA-1 of the jar's content, as hex, or null if it cannot be read.
+	 */
+	protected String hash(File jar)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			InputStream in = new FileInputStream(jar);
+			try
+			{
+				byte[] buffer = new byte[8192];
+				int count = 0;
+				while ((count = in.read(buffer)) != -1)
+				{
+					digest.update(buffer, 0, count);
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+
+			StringBuilder rv = new StringBuilder();
+			for (byte b : digest.digest())
+			{
+				rv.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			}
+			return rv.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			M_log.warn("hash: " + e);
+		}
+		catch (IOException e)
+		{
+			M_log.warn("hash: " + jar + " : " + e);
+		}
+
+		return null;
+	}
+}
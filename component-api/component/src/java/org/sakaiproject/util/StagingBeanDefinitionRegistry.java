@@ -0,0 +1,240 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.BeanDefinitionStoreException;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionReaderUtils;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.ChildBeanDefinition;
+
+/**
+ * <p>
+ * A private, single-threaded BeanDefinitionRegistry that one component package can be parsed into while other packages are being parsed on other
+ * threads. Bean definitions and aliases are recorded in the order the reader registered them, and are later replayed into the shared registry by
+ * {@link #registerWith(BeanDefinitionRegistry)}, so the shared registry sees exactly the same sequence of registrations as a serial load.
+ * </p>
+ * <p>
+ * Bean names generated by the reader for anonymous beans are not final: they are generated again against the shared registry at replay time, so
+ * that the "#1", "#2" counters come out as they would have if the packages had been loaded one at a time.
+ * </p>
+ */
+public class StagingBeanDefinitionRegistry implements BeanDefinitionRegistry
+{
+	/** The bean definitions, by name, in registration order. */
+	protected Map<String, BeanDefinition> m_definitions = new LinkedHashMap<String, BeanDefinition>();
+
+	/** Aliases registered, alias to bean name. */
+	protected Map<String, String> m_aliases = new LinkedHashMap<String, String>();
+
+	/** Registrations (bean definitions and aliases) in the order they were made. */
+	protected List<Registration> m_registrations = new ArrayList<Registration>();
+
+	/** The last name the reader probed for (with containsBeanDefinition) since the last registration - used to spot generated names. */
+	protected String m_lastProbe = null;
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void registerBeanDefinition(String beanName, BeanDefinition beanDefinition) throws BeanDefinitionStoreException
+	{
+		boolean generated = isGeneratedName(beanName, beanDefinition);
+		m_lastProbe = null;
+
+		m_definitions.put(beanName, beanDefinition);
+		m_registrations.add(new Registration(beanName, beanDefinition, null, generated));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public BeanDefinition getBeanDefinition(String beanName) throws NoSuchBeanDefinitionException
+	{
+		BeanDefinition rv = m_definitions.get(beanName);
+		if (rv == null)
+		{
+			throw new NoSuchBeanDefinitionException(beanName);
+		}
+
+		return rv;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean containsBeanDefinition(String beanName)
+	{
+		if (m_lastProbe == null) m_lastProbe = beanName;
+
+		return m_definitions.containsKey(beanName);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String[] getBeanDefinitionNames()
+	{
+		return m_definitions.keySet().toArray(new String[m_definitions.size()]);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getBeanDefinitionCount()
+	{
+		return m_definitions.size();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void registerAlias(String beanName, String alias) throws BeanDefinitionStoreException
+	{
+		m_aliases.put(alias, beanName);
+		m_registrations.add(new Registration(beanName, null, alias, false));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String[] getAliases(String beanName)
+	{
+		List<String> rv = new ArrayList<String>();
+		for (Map.Entry<String, String> entry : m_aliases.entrySet())
+		{
+			if (entry.getValue().equals(beanName))
+			{
+				rv.add(entry.getKey());
+			}
+		}
+
+		return rv.toArray(new String[rv.size()]);
+	}
+
+	/**
+	 * Register a bean definition read back from a cache, keeping the generated-name marking it was cached with.
+	 *
+	 * @param beanName
+	 *        The bean name.
+	 * @param beanDefinition
+	 *        The bean definition.
+	 * @param generated
+	 *        true if the name was generated by the reader, false if it was given in the XML.
+	 */
+	public void registerCached(String beanName, BeanDefinition beanDefinition, boolean generated)
+	{
+		m_definitions.put(beanName, beanDefinition);
+		m_registrations.add(new Registration(beanName, beanDefinition, null, generated));
+	}
+
+	/**
+	 * @return The registrations made here, in order.
+	 */
+	public List<Registration> getRegistrations()
+	{
+		return m_registrations;
+	}
+
+	/**
+	 * Replay everything registered here, in order, into another registry.
+	 *
+	 * @param registry
+	 *        The registry to register with.
+	 * @throws BeanDefinitionStoreException
+	 *         if the target registry rejects a registration; registrations before it will have been made.
+	 */
+	public void registerWith(BeanDefinitionRegistry registry) throws BeanDefinitionStoreException
+	{
+		// generated names, as they came out here, mapped to the names generated against the target registry
+		Map<String, String> renamed = new LinkedHashMap<String, String>();
+
+		for (Registration registration : m_registrations)
+		{
+			if (registration.alias == null)
+			{
+				String name = registration.name;
+				if (registration.generated)
+				{
+					name = BeanDefinitionReaderUtils.generateBeanName((AbstractBeanDefinition) registration.definition, registry, false);
+					renamed.put(registration.name, name);
+				}
+				registry.registerBeanDefinition(name, registration.definition);
+			}
+			else
+			{
+				String name = renamed.containsKey(registration.name) ? renamed.get(registration.name) : registration.name;
+				registry.registerAlias(name, registration.alias);
+			}
+		}
+	}
+
+	/**
+	 * Check if this name was generated by the reader for an anonymous bean, rather than given in the XML. The reader probes the registry for the
+	 * bare generated id before it settles on a name, and the name settled on is that id or that id with a "#n" counter.
+	 *
+	 * @param beanName
+	 *        The name being registered.
+	 * @param beanDefinition
+	 *        The definition being registered.
+	 * @return true if the name looks generated, false if not.
+	 */
+	protected boolean isGeneratedName(String beanName, BeanDefinition beanDefinition)
+	{
+		if ((m_lastProbe == null) || (!(beanDefinition instanceof AbstractBeanDefinition))) return false;
+		if (!beanName.equals(m_lastProbe) && !beanName.startsWith(m_lastProbe + BeanDefinitionReaderUtils.GENERATED_BEAN_NAME_SEPARATOR)) return false;
+
+		// the probe must have been for the id the reader would generate for this definition
+		AbstractBeanDefinition bd = (AbstractBeanDefinition) beanDefinition;
+		if (m_lastProbe.equals(bd.getBeanClassName())) return true;
+		if ((bd instanceof ChildBeanDefinition) && m_lastProbe.equals(((ChildBeanDefinition) bd).getParentName() + "$child")) return true;
+		return m_lastProbe.equals(bd.getFactoryBeanName() + "$created");
+	}
+
+	/**
+	 * One recorded registration - either a bean definition (alias is null) or an alias for a bean name.
+	 */
+	protected static class Registration
+	{
+		protected final String name;
+
+		protected final BeanDefinition definition;
+
+		protected final String alias;
+
+		protected final boolean generated;
+
+		protected Registration(String name, BeanDefinition definition, String alias, boolean generated)
+		{
+			this.name = name;
+			this.definition = definition;
+			this.alias = alias;
+			this.generated = generated;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * StartupTrace records timed spans of the component manager's start-up - packages loaded, XML parsed, classes loaded, beans created and
+ * initialized - and writes them as a Chrome trace-event JSON file, which chrome://tracing or Perfetto (ui.perfetto.dev) show as a timeline per
+ * thread.
+ * </p>
+ * <p>
+ * Tracing is on only if the system property "sakai.components.trace" is set, and only until the trace is written, at the end of start-up;
+ * otherwise each call costs a check of two flags. Record a span with:
+ * </p>
+ *
+ * <pre>
+ * long start = StartupTrace.start();
+ * try
+ * {
+ * 	...
+ * }
+ * finally
+ * {
+ * 	StartupTrace.end(StartupTrace.BEAN, beanName, start);
+ * }
+ * </pre>
+ */
+public class StartupTrace
+{
+	/** Our logger */
+	private static Log M_log = LogFactory.getLog(StartupTrace.class);
+
+	/** System property to record the start-up trace (if set). */
+	public final static String TRACE = "sakai.components.trace";
+
+	/** The trace file name, in sakai.home. */
+	public final static String TRACE_FILE = "startup-trace.json";
+
+	/** Span categories. */
+	public final static String COMPONENT_MANAGER = "component manager";
+
+	public final static String PACKAGE = "package";
+
+	public final static String XML = "xml";
+
+	public final static String CLASSLOADING = "classloading";
+
+	public final static String CONTEXT = "context";
+
+	public final static String BEAN = "bean";
+
+	public final static String INIT = "init";
+
+	/** If we are tracing. */
+	protected final static boolean m_enabled = (System.getProperty(TRACE) != null);
+
+	/** Set once the trace is written: spans after that (classes and beans loaded later) are not recorded. */
+	protected static volatile boolean m_closed = false;
+
+	/** Time zero for the trace. */
+	protected final static long m_origin = System.nanoTime();
+
+	/** The spans recorded. */
+	protected final static Queue<Span> m_spans = new ConcurrentLinkedQueue<Span>();
+
+	/** The names of the threads that recorded spans, by id. */
+	protected final static Map<Long, String> m_threads = new ConcurrentHashMap<Long, String>();
+
+	/**
+	 * @return true if tracing, false if not, or no longer.
+	 */
+	public static boolean isEnabled()
+	{
+		return m_enabled && !m_closed;
+	}
+
+	/**
+	 * Start timing a span.
+	 *
+	 * @return The start time, to give to end().
+	 */
+	public static long start()
+	{
+		return (m_enabled && !m_closed) ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record a span, from its start until now, on the current thread.
+	 *
+	 * @param category
+	 *        The span category.
+	 * @param name
+	 *        The span name.
+	 * @param start
+	 *        The start time from start().
+	 */
+	public static void end(String category, String name, long start)
+	{
+		if (!m_enabled || m_closed) return;
+
+		long end = System.nanoTime();
+		Thread thread = Thread.currentThread();
+		if (!m_threads.containsKey(thread.getId()))
+		{
+			m_threads.put(thread.getId(), thread.getName());
+		}
+
+		m_spans.add(new Span(category, name, thread.getId(), (start - m_origin) / 1000, (end - start) / 1000));
+	}
+
+	/**
+	 * Write the spans recorded to a trace file, forget them, and stop recording.
+	 *
+	 * @param file
+	 *        The file to write.
+	 */
+	public static void write(File file)
+	{
+		if (!m_enabled || m_closed) return;
+		m_closed = true;
+
+		try
+		{
+			Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+			try
+			{
+				out.write("{\"traceEvents\":[\n");
+
+				boolean first = true;
+				for (Map.Entry<Long, String> thread : m_threads.entrySet())
+				{
+					if (!first) out.write(",\n");
+					first = false;
+					out.write("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":" + thread.getKey() + ",\"args\":{\"name\":\""
+							+ escape(thread.getValue()) + "\"}}");
+				}
+
+				int count = 0;
+				Span span = null;
+				while ((span = m_spans.poll()) != null)
+				{
+					if (!first) out.write(",\n");
+					first = false;
+					out.write("{\"ph\":\"X\",\"cat\":\"" + escape(span.category) + "\",\"name\":\"" + escape(span.name) + "\",\"pid\":1,\"tid\":"
+							+ span.thread + ",\"ts\":" + span.start + ",\"dur\":" + span.duration + "}");
+					count++;
+				}
+
+				out.write("\n]}\n");
+
+				M_log.info("write: " + count + " spans to: " + file);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			M_log.warn("write: " + file + " : " + e);
+		}
+
+		// written or not, hold on to nothing more
+		m_spans.clear();
+		m_threads.clear();
+	}
+
+	/**
+	 * @return The string, escaped for a JSON string value.
+	 */
+	protected static String escape(String value)
+	{
+		if (value == null) return "";
+
+		StringBuilder rv = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if ((c == '"') || (c == '\\'))
+			{
+				rv.append('\\').append(c);
+			}
+			else if (c < 0x20)
+			{
+				rv.append(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				rv.append(c);
+			}
+		}
+
+		return rv.toString();
+	}
+
+	/**
+	 * One recorded span, times in microseconds.
+	 */
+	protected static class Span
+	{
+		protected final String category;
+
+		protected final String name;
+
+		protected final long thread;
+
+		protected final long start;
+
+		protected final long duration;
+
+		protected Span(String category, String name, long thread, long start, long duration)
+		{
+			this.category = category;
+			this.name = name;
+			this.thread = thread;
+			this.start = start;
+			this.duration = duration;
+		}
+	}
+}
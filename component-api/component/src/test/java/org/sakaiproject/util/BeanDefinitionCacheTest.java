@@ -0,0 +1,153 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.TypedStringValue;
+import org.springframework.beans.factory.config.ConstructorArgumentValues.ValueHolder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Tests that BeanDefinitionCache entries go stale when any file the definitions were read from changes, imported files included.
+ */
+public class BeanDefinitionCacheTest extends TestCase
+{
+	private File root;
+
+	private File dir;
+
+	private BeanDefinitionCache cache;
+
+	protected void setUp() throws Exception
+	{
+		root = File.createTempFile("beandefinitioncache", "");
+		root.delete();
+		dir = new File(root, "package");
+		new File(dir, "WEB-INF/classes").mkdirs();
+		cache = new BeanDefinitionCache(new File(root, "cache"));
+
+		write("WEB-INF/components.xml", beans("<import resource=\"imported.xml\"/>"
+				+ "<bean id=\"top\" class=\"java.lang.String\"><constructor-arg value=\"top\"/></bean>"));
+		write("WEB-INF/imported.xml", beans("<bean id=\"imported\" class=\"java.lang.String\"><constructor-arg value=\"one\"/></bean>"));
+	}
+
+	protected void tearDown() throws Exception
+	{
+		delete(root);
+	}
+
+	public void testReadsBackWhatWasWritten() throws Exception
+	{
+		String key = parseAndWrite();
+
+		StagingBeanDefinitionRegistry cached = cache.read(dir, key, getClass().getClassLoader());
+		assertNotNull(cached);
+		assertEquals(2, cached.getBeanDefinitionCount());
+		assertEquals("one", argument(cached.getBeanDefinition("imported")));
+	}
+
+	public void testStaleWhenAnImportedFileChanges() throws Exception
+	{
+		String key = parseAndWrite();
+
+		write("WEB-INF/imported.xml", beans("<bean id=\"imported\" class=\"java.lang.String\"><constructor-arg value=\"two\"/></bean>"));
+
+		// the components.xml is unchanged, and so is the key - the imported file's digest makes the entry stale
+		assertEquals(key, cache.key(dir, xmls()));
+		assertNull(cache.read(dir, key, getClass().getClassLoader()));
+	}
+
+	public void testKeyChangesWithTheClasses() throws Exception
+	{
+		String key = cache.key(dir, xmls());
+		write("WEB-INF/classes/org/example/beans.xml", beans(""));
+		assertFalse(key.equals(cache.key(dir, xmls())));
+	}
+
+	private String parseAndWrite() throws Exception
+	{
+		String key = cache.key(dir, xmls());
+		StagingBeanDefinitionRegistry staging = new StagingBeanDefinitionRegistry();
+		BeanDefinitionCache.RecordingReader reader = new BeanDefinitionCache.RecordingReader(staging);
+		reader.loadBeanDefinitions(new FileSystemResource(xmls().get(0).getCanonicalPath()));
+		assertEquals(2, reader.getResources().size());
+
+		cache.write(dir, key, reader.getResources(), staging);
+		return key;
+	}
+
+	private List<File> xmls()
+	{
+		return Collections.singletonList(new File(dir, "WEB-INF/components.xml"));
+	}
+
+	private String argument(BeanDefinition definition)
+	{
+		ValueHolder holder = (ValueHolder) definition.getConstructorArgumentValues().getGenericArgumentValues().get(0);
+		Object arg = holder.getValue();
+		return (arg instanceof String) ? (String) arg : ((TypedStringValue) arg).getValue();
+	}
+
+	private String beans(String body)
+	{
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+				+ "<!DOCTYPE beans PUBLIC \"-//SPRING//DTD BEAN//EN\" \"http://www.springframework.org/dtd/spring-beans.dtd\">\n" + "<beans>" + body
+				+ "</beans>\n";
+	}
+
+	private void write(String path, String content) throws Exception
+	{
+		File file = new File(dir, path);
+		file.getParentFile().mkdirs();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try
+		{
+			out.write(content);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+		{
+			for (File child : files)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,129 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that ComponentClassLoader finds resources and directories through its index, follows manifest Class-Path entries, and closes its jars.
+ */
+public class ComponentClassLoaderTest extends TestCase
+{
+	private File root;
+
+	private File app;
+
+	private File helper;
+
+	protected void setUp() throws Exception
+	{
+		root = File.createTempFile("componentclassloader", "");
+		root.delete();
+		root.mkdirs();
+
+		File lib = new File(root, "lib");
+		File ext = new File(root, "ext");
+		lib.mkdirs();
+		ext.mkdirs();
+
+		app = new File(lib, "app.jar").getCanonicalFile();
+		helper = new File(ext, "helper.jar").getCanonicalFile();
+		writeJar(app, "../ext/helper.jar missing.jar", new String[] {"org/app/", "org/app/app.txt"});
+		writeJar(helper, null, new String[] {"org/helper/helper.txt"});
+	}
+
+	protected void tearDown() throws Exception
+	{
+		delete(root);
+	}
+
+	public void testFollowsManifestClassPath() throws Exception
+	{
+		File index = new File(root, "index");
+		for (int i = 0; i < 2; i++)
+		{
+			// the second time, from the index file
+			ComponentClassLoader loader = new ComponentClassLoader(null, new File[] {app}, null, index);
+			assertTrue(index.isFile());
+			assertEquals(2, loader.getJars().length);
+			assertEquals(helper, loader.getJars()[1]);
+			assertEquals(2, loader.getURLs().length);
+			assertNotNull(loader.getResource("org/app/app.txt"));
+			assertNotNull(loader.getResource("org/helper/helper.txt"));
+			assertNull(loader.getResource("org/helper/missing.txt"));
+			loader.close();
+		}
+	}
+
+	public void testFindsDirectories() throws Exception
+	{
+		ComponentClassLoader loader = new ComponentClassLoader(null, new File[] {app}, null, null);
+		assertNotNull(loader.getResource("org/app/"));
+		assertNull(loader.getResource("org/other/"));
+		loader.close();
+	}
+
+	public void testClose() throws Exception
+	{
+		ComponentClassLoader loader = new ComponentClassLoader(null, new File[] {app}, null, null);
+		assertNotNull(loader.getResource("org/app/app.txt"));
+
+		loader.close();
+		assertNull(loader.getResource("org/app/app.txt"));
+	}
+
+	private void writeJar(File jar, String classPath, String[] entries) throws Exception
+	{
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		if (classPath != null) manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, classPath);
+
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest);
+		for (String name : entries)
+		{
+			out.putNextEntry(new ZipEntry(name));
+			if (!name.endsWith("/")) out.write(name.getBytes("UTF-8"));
+			out.closeEntry();
+		}
+		out.close();
+	}
+
+	private void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+		{
+			for (File child : files)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,168 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+/**
+ * Tests that LayeredProperties merges the properties objects and files as PropertiesFactoryBean would, and finds the line each value is set on.
+ */
+public class LayeredPropertiesTest extends TestCase {
+	private File defaults;
+	private File local;
+
+	protected void setUp() throws Exception {
+		defaults = write("defaults", "a=defaults\nb=defaults\n");
+		local = write("local", "# local\nb=local\nc=local\n");
+	}
+
+	protected void tearDown() throws Exception {
+		defaults.delete();
+		local.delete();
+	}
+
+	public void testFilesOverObjects() throws Exception {
+		PropertyIndex index = resolve(false);
+		assertEquals("local", index.get("b"));
+		assertEquals(new FileSystemResource(local).getDescription() + " line 2", index.getSource("b"));
+		assertEquals("local", index.get("c"));
+		assertEquals(3, index.getLine("c"));
+		assertEquals("defaults", index.get("a"));
+		assertEquals(1, index.getLine("a"));
+		assertEquals("object", index.get("d"));
+		assertEquals("properties[0]", index.getSource("d"));
+		assertEquals(PropertyIndex.NO_LINE, index.getLine("d"));
+		assertEquals(4, index.size());
+	}
+
+	public void testObjectsOverFilesWithLocalOverride() throws Exception {
+		PropertyIndex index = resolve(true);
+		assertEquals("object", index.get("b"));
+		assertEquals("properties[0]", index.getSource("b"));
+		assertEquals("object2", index.get("c"));
+		assertEquals("properties[1]", index.getSource("c"));
+		assertEquals("defaults", index.get("a"));
+		assertEquals(new FileSystemResource(defaults).getDescription() + " line 1", index.getSource("a"));
+		assertEquals(4, index.size());
+	}
+
+	public void testLines() {
+		Map<String, Integer> lines = LayeredProperties.findLines(
+			"# comment \\\n" +
+			"a=1\n" +
+			"  ! another\n" +
+			"\n" +
+			"b = one, \\\n" +
+			"    two, \\\\\n" +
+			"c:3\r\n" +
+			"escaped\\ key\\=x=4\r\n" +
+			"\\u0075nicode\\tkey 5\r" +
+			"a=6\n" +
+			"  d\\\n" +
+			"  e=7\n" +
+			"last=\\");
+		assertEquals(Integer.valueOf(10), lines.get("a"));
+		assertEquals(Integer.valueOf(5), lines.get("b"));
+		assertEquals(Integer.valueOf(7), lines.get("c"));
+		assertEquals(Integer.valueOf(8), lines.get("escaped key=x"));
+		assertEquals(Integer.valueOf(9), lines.get("unicode\tkey"));
+		assertEquals(Integer.valueOf(11), lines.get("de"));
+		assertEquals(Integer.valueOf(13), lines.get("last"));
+		assertEquals(7, lines.size());
+	}
+
+	public void testMissingFile() throws Exception {
+		LayeredProperties layers = new LayeredProperties();
+		layers.setLocations(new Resource[] {new FileSystemResource(new File(local.getPath() + ".missing")), new FileSystemResource(local)});
+		try {
+			layers.resolve();
+			fail("read a missing file");
+		} catch (java.io.IOException e) {
+		}
+
+		layers.setIgnoreResourceNotFound(true);
+		assertEquals("local", layers.resolve().get("b"));
+	}
+
+	public void testMalformedFile() throws Exception {
+		File xml = File.createTempFile("malformed", ".xml");
+		try {
+			OutputStream out = new FileOutputStream(xml);
+			try {
+				out.write("<properties><entry key=\"a\">".getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+
+			LayeredProperties layers = new LayeredProperties();
+			layers.setLocations(new Resource[] {new FileSystemResource(xml), new FileSystemResource(local)});
+			try {
+				layers.resolve();
+				fail("read a malformed file");
+			} catch (java.io.IOException e) {
+			}
+
+			// as Spring does, skipped with those not found
+			layers.setIgnoreResourceNotFound(true);
+			PropertyIndex index = layers.resolve();
+			assertEquals("local", index.get("b"));
+			assertEquals(2, index.size());
+		} finally {
+			xml.delete();
+		}
+	}
+
+	private PropertyIndex resolve(boolean localOverride) throws Exception {
+		Properties object = new Properties();
+		object.setProperty("b", "object");
+		object.setProperty("c", "object");
+		object.setProperty("d", "object");
+		Properties object2 = new Properties();
+		object2.setProperty("c", "object2");
+
+		LayeredProperties layers = new LayeredProperties();
+		layers.setLocalProperties(new Properties[] {object, object2});
+		layers.setLocations(new Resource[] {new FileSystemResource(defaults), new FileSystemResource(local)});
+		layers.setLocalOverride(localOverride);
+		return layers.resolve();
+	}
+
+	private File write(String name, String text) throws Exception {
+		File file = File.createTempFile(name, ".properties");
+		OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("ISO-8859-1"));
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,218 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.RuntimeBeanReference;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Tests creating the singletons in parallel against creating them serially, with a FactoryBean whose object needs a bean another thread is
+ * creating, reached both through a bean reference and, from another layer, through an init method.
+ */
+public class NoisierDefaultListableBeanFactoryTest extends TestCase
+{
+	/** How many times each bean was made, by name. */
+	static Map<String, AtomicInteger> made = new ConcurrentHashMap<String, AtomicInteger>();
+
+	private String oldParallelInit;
+
+	protected void setUp() throws Exception
+	{
+		oldParallelInit = System.getProperty(NoisierDefaultListableBeanFactory.PARALLEL_INIT);
+		made.clear();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		if (oldParallelInit == null)
+		{
+			System.getProperties().remove(NoisierDefaultListableBeanFactory.PARALLEL_INIT);
+		}
+		else
+		{
+			System.setProperty(NoisierDefaultListableBeanFactory.PARALLEL_INIT, oldParallelInit);
+		}
+	}
+
+	public void testSerial() throws Exception
+	{
+		System.getProperties().remove(NoisierDefaultListableBeanFactory.PARALLEL_INIT);
+		check(createAll());
+	}
+
+	public void testParallel() throws Exception
+	{
+		System.setProperty(NoisierDefaultListableBeanFactory.PARALLEL_INIT, "4");
+		check(createAll());
+	}
+
+	private NoisierDefaultListableBeanFactory createAll()
+	{
+		NoisierDefaultListableBeanFactory factory = new NoisierDefaultListableBeanFactory();
+
+		// layer 0: a slow bean, and a bean whose init fetches the FactoryBean's object, which needs the slow bean
+		factory.registerBeanDefinition("slow", bean(Slow.class, null, null));
+		factory.registerBeanDefinition("fetcher", bean(Fetcher.class, null, null));
+
+		// the FactoryBean, and a bean referring to its object
+		factory.registerBeanDefinition("product", bean(ProductFactory.class, null, null));
+		factory.registerBeanDefinition("consumer", bean(Consumer.class, "product", "product"));
+
+		// layer 1
+		factory.registerBeanDefinition("later", bean(Consumer.class, "product", "slow"));
+
+		factory.preInstantiateSingletons();
+		return factory;
+	}
+
+	private void check(NoisierDefaultListableBeanFactory factory)
+	{
+		Product product = (Product) factory.getBean("product");
+		assertSame(factory.getBean("slow"), product.slow);
+		assertSame(product, ((Fetcher) factory.getBean("fetcher")).product);
+		assertSame(product, ((Consumer) factory.getBean("consumer")).product);
+		assertSame(factory.getBean("slow"), ((Consumer) factory.getBean("later")).product);
+
+		for (String name : new String[] {"slow", "fetcher", "product", "product.object", "consumer", "later"})
+		{
+			assertEquals(name, 1, made.get(name).get());
+		}
+	}
+
+	private RootBeanDefinition bean(Class<?> type, String property, String ref)
+	{
+		RootBeanDefinition bd = new RootBeanDefinition(type);
+		if (property != null)
+		{
+			MutablePropertyValues pvs = new MutablePropertyValues();
+			pvs.addPropertyValue(property, new RuntimeBeanReference(ref));
+			bd.setPropertyValues(pvs);
+		}
+		return bd;
+	}
+
+	static void made(String name)
+	{
+		AtomicInteger count = new AtomicInteger();
+		AtomicInteger old = ((ConcurrentHashMap<String, AtomicInteger>) made).putIfAbsent(name, count);
+		((old == null) ? count : old).incrementAndGet();
+	}
+
+	public static class Slow
+	{
+		public Slow() throws InterruptedException
+		{
+			made("slow");
+			Thread.sleep(300);
+		}
+	}
+
+	public static class Fetcher implements BeanFactoryAware
+	{
+		Object product;
+
+		public Fetcher()
+		{
+			made("fetcher");
+		}
+
+		public void setBeanFactory(BeanFactory beanFactory)
+		{
+			try
+			{
+				// let the slow bean start on another thread
+				Thread.sleep(50);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			product = beanFactory.getBean("product");
+		}
+	}
+
+	public static class Product
+	{
+		final Object slow;
+
+		Product(Object slow)
+		{
+			this.slow = slow;
+		}
+	}
+
+	public static class ProductFactory implements FactoryBean, BeanFactoryAware
+	{
+		private BeanFactory beanFactory;
+
+		public ProductFactory()
+		{
+			made("product");
+		}
+
+		public void setBeanFactory(BeanFactory beanFactory)
+		{
+			this.beanFactory = beanFactory;
+		}
+
+		public Object getObject()
+		{
+			made("product.object");
+			return new Product(beanFactory.getBean("slow"));
+		}
+
+		public Class getObjectType()
+		{
+			return Product.class;
+		}
+
+		public boolean isSingleton()
+		{
+			return true;
+		}
+	}
+
+	public static class Consumer
+	{
+		Object product;
+
+		public Consumer()
+		{
+			made(made.containsKey("consumer") ? "later" : "consumer");
+		}
+
+		public void setProduct(Object product)
+		{
+			this.product = product;
+		}
+	}
+}
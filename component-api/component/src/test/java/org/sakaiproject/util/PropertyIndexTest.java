@@ -0,0 +1,71 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that PropertyIndex keeps each value with the layer and line that set it, as it grows.
+ */
+public class PropertyIndexTest extends TestCase {
+	public void testLayers() {
+		PropertyIndex index = new PropertyIndex();
+		int file = index.addLayer("file");
+		int object = index.addLayer("object");
+
+		// enough to grow the table a few times
+		for (int i = 0; i < 1000; i++) {
+			index.put("key" + i, "file" + i, file, i + 1);
+		}
+		for (int i = 0; i < 1000; i += 100) {
+			index.put("key" + i, "object" + i, object, PropertyIndex.NO_LINE);
+		}
+
+		assertEquals(1000, index.size());
+		assertEquals("file1", index.get("key1"));
+		assertEquals(2, index.getLine("key1"));
+		assertEquals("file", index.getLayer("key1"));
+		assertEquals("file line 2", index.getSource("key1"));
+
+		assertEquals("object100", index.get("key100"));
+		assertEquals(PropertyIndex.NO_LINE, index.getLine("key100"));
+		assertEquals("object", index.getSource("key100"));
+
+		assertNull(index.get("missing"));
+		assertNull(index.getLayer("missing"));
+		assertNull(index.getSource("missing"));
+		assertEquals(PropertyIndex.NO_LINE, index.getLine("missing"));
+
+		assertEquals(Arrays.asList(new String[] {"file", "object"}), index.getLayers());
+		assertEquals(10, index.getKeysFromLayer("object").size());
+		assertEquals("key0", index.getKeysFromLayer("object").get(0));
+		assertEquals(990, index.getKeysFromLayer("file").size());
+
+		Properties properties = index.toProperties();
+		assertEquals(1000, properties.size());
+		assertEquals("object900", properties.getProperty("key900"));
+		assertEquals("file999", properties.getProperty("key999"));
+	}
+}
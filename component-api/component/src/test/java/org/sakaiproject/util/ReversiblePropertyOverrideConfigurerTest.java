@@ -0,0 +1,146 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+/**
+ * Tests that ReversiblePropertyOverrideConfigurer applies "bean@property" overrides bean by bean, and reports those for beans not defined.
+ */
+public class ReversiblePropertyOverrideConfigurerTest extends TestCase {
+	private DefaultListableBeanFactory factory;
+	private Properties props;
+
+	protected void setUp() throws Exception {
+		factory = new DefaultListableBeanFactory();
+		factory.registerBeanDefinition("first", new RootBeanDefinition(Named.class));
+		factory.registerBeanDefinition("second", new RootBeanDefinition(Named.class));
+		factory.registerBeanDefinition("untouched", new RootBeanDefinition(Named.class));
+
+		props = new Properties();
+		props.setProperty("name@first", "one");
+		props.setProperty("count@first", "1");
+		props.setProperty("name@second", "two");
+	}
+
+	public void testPlan() {
+		props.setProperty("plain.value", "not a bean override");
+		configurer(true).postProcessBeanFactory(factory);
+
+		Named first = (Named)factory.getBean("first");
+		assertEquals("one", first.getName());
+		assertEquals(1, first.getCount());
+		assertEquals("two", ((Named)factory.getBean("second")).getName());
+		assertNull(((Named)factory.getBean("untouched")).getName());
+	}
+
+	public void testOverriddenBeans() {
+		ReversiblePropertyOverrideConfigurer configurer = configurer(true);
+		configurer.postProcessBeanFactory(factory);
+
+		assertTrue(configurer.hasPropertyOverridesFor("first"));
+		assertTrue(configurer.hasPropertyOverridesFor("second"));
+		assertFalse(configurer.hasPropertyOverridesFor("untouched"));
+		assertTrue(configurer.getUnknownBeanOverrides().isEmpty());
+	}
+
+	public void testUnknownBeansReported() {
+		props.setProperty("name@missing", "three");
+		props.setProperty("count@missing", "3");
+		props.setProperty("name@gone", "four");
+		ReversiblePropertyOverrideConfigurer configurer = configurer(true);
+		configurer.postProcessBeanFactory(factory);
+
+		Map<String, List<String>> unknown = configurer.getUnknownBeanOverrides();
+		assertEquals(new HashSet<String>(Arrays.asList(new String[] {"missing", "gone"})), unknown.keySet());
+		assertEquals(new HashSet<String>(Arrays.asList(new String[] {"name@missing", "count@missing"})), new HashSet<String>(unknown.get("missing")));
+		assertEquals(Arrays.asList(new String[] {"name@gone"}), unknown.get("gone"));
+
+		// the known beans are still overridden
+		assertEquals("one", ((Named)factory.getBean("first")).getName());
+	}
+
+	public void testUnknownBeansFailUnlessIgnored() {
+		props.setProperty("name@missing", "three");
+		try {
+			configurer(false).postProcessBeanFactory(factory);
+			fail("overrode a bean not defined");
+		} catch (BeanInitializationException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("name@missing") != -1);
+		}
+	}
+
+	public void testInvalidKeyFailsUnlessIgnored() {
+		props.setProperty("plain.value", "not a bean override");
+		try {
+			configurer(false).postProcessBeanFactory(factory);
+			fail("took a key with no bean name");
+		} catch (BeanInitializationException e) {
+			assertTrue(e.getMessage(), e.getMessage().indexOf("plain.value") != -1);
+		}
+	}
+
+	public void testBeanNameNotAtEnd() {
+		ReversiblePropertyOverrideConfigurer configurer = configurer(true);
+		configurer.setBeanNameAtEnd(false);
+		configurer.postProcessBeanFactory(factory);
+
+		assertNull(((Named)factory.getBean("first")).getName());
+		assertFalse(configurer.hasPropertyOverridesFor("first"));
+	}
+
+	private ReversiblePropertyOverrideConfigurer configurer(boolean ignoreInvalidKeys) {
+		ReversiblePropertyOverrideConfigurer rv = new ReversiblePropertyOverrideConfigurer();
+		rv.setBeanNameSeparator("@");
+		rv.setIgnoreInvalidKeys(ignoreInvalidKeys);
+		rv.setProperties(props);
+		return rv;
+	}
+
+	public static class Named {
+		private String name;
+		private int count;
+
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getCount() {
+			return count;
+		}
+		public void setCount(int count) {
+			this.count = count;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that SharedJars shares only jars that are the same in every package, and gives each package only the shared jars left out of it.
+ */
+public class SharedJarsTest extends TestCase
+{
+	private File root;
+
+	private List<File> packages;
+
+	protected void setUp() throws Exception
+	{
+		root = File.createTempFile("sharedjars", "");
+		root.delete();
+		root.mkdirs();
+		packages = new ArrayList<File>();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		delete(root);
+	}
+
+	public void testSharesOnlyWithPackagesThatHadACopy() throws Exception
+	{
+		File a = addPackage("a", "commons-lang-2.1.jar", "2.1");
+		File b = addPackage("b", "commons-lang-2.1.jar", "2.1");
+		File c = addPackage("c", "commons-lang-2.4.jar", "2.4");
+		File d = addPackage("d", "commons-lang-2.4.jar", "2.4");
+		File e = addPackage("e", null, null);
+
+		SharedJars shared = new SharedJars(packages, new String[] {"commons-lang-2.1.jar", "commons-lang-2.4.jar"}, getClass().getClassLoader());
+
+		assertTrue(shared.isShared(jar(a, "commons-lang-2.1.jar")));
+		assertTrue(shared.isShared(jar(d, "commons-lang-2.4.jar")));
+		assertSame(shared.getClassLoader(a), shared.getClassLoader(b));
+		assertSame(shared.getClassLoader(c), shared.getClassLoader(d));
+		assertNotSame(shared.getClassLoader(a), shared.getClassLoader(c));
+		assertNull(shared.getClassLoader(e));
+
+		assertEquals("2.1", version(shared.getClassLoader(b)));
+		assertEquals("2.4", version(shared.getClassLoader(c)));
+	}
+
+	public void testDoesNotShareAPrefixWithDifferentVersions() throws Exception
+	{
+		File a = addPackage("a", "commons-lang-2.1.jar", "2.1");
+		addPackage("b", "commons-lang-2.1.jar", "2.1");
+		File c = addPackage("c", "commons-lang-2.4.jar", "2.4");
+
+		SharedJars shared = new SharedJars(packages, new String[] {"commons-lang-*"}, getClass().getClassLoader());
+
+		assertFalse(shared.isShared(jar(a, "commons-lang-2.1.jar")));
+		assertFalse(shared.isShared(jar(c, "commons-lang-2.4.jar")));
+		assertNull(shared.getClassLoader(a));
+		assertNull(shared.getClassLoader(c));
+	}
+
+	public void testDoesNotShareANameWithDifferentContent() throws Exception
+	{
+		File a = addPackage("a", "commons-lang.jar", "2.1");
+		addPackage("b", "commons-lang.jar", "2.1");
+		File c = addPackage("c", "commons-lang.jar", "2.4");
+
+		SharedJars shared = new SharedJars(packages, new String[] {"commons-lang.jar"}, getClass().getClassLoader());
+
+		assertFalse(shared.isShared(jar(a, "commons-lang.jar")));
+		assertNull(shared.getClassLoader(c));
+	}
+
+	private File addPackage(String name, String jarName, String version) throws Exception
+	{
+		File dir = new File(root, name);
+		File lib = new File(new File(dir, "WEB-INF"), "lib");
+		lib.mkdirs();
+		if (jarName != null)
+		{
+			JarOutputStream out = new JarOutputStream(new FileOutputStream(new File(lib, jarName)));
+			ZipEntry entry = new ZipEntry("version.txt");
+			entry.setTime(0);
+			out.putNextEntry(entry);
+			out.write(version.getBytes("UTF-8"));
+			out.closeEntry();
+			out.close();
+		}
+		packages.add(dir);
+		return dir;
+	}
+
+	private File jar(File dir, String name) throws Exception
+	{
+		return new File(new File(new File(dir, "WEB-INF"), "lib"), name).getCanonicalFile();
+	}
+
+	private String version(ClassLoader loader) throws Exception
+	{
+		URL url = loader.getResource("version.txt");
+		assertNotNull(url);
+		BufferedReader in = new BufferedReader(new InputStreamReader(url.openStream(), "UTF-8"));
+		try
+		{
+			return in.readLine();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	private void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+		{
+			for (File child : files)
+			{
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,233 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.sakaiproject.component.api.ComponentManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.component.impl.BasicConfigurationService;
+import org.sakaiproject.thread_local.api.ThreadLocalManager;
+import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.util.SakaiProperties;
+
+/**
+ * <p>
+ * BenchmarkEnvironment boots the component manager once per benchmark JVM, against a sakai.home and components root made in a temporary
+ * directory, and loads a BasicConfigurationService into it, set up from that sakai.home as the kernel would set it up. The sakai.properties
+ * written holds the values the benchmarks read, among FILLER others, and the toolOrder.xml a course category of TOOLS tools.
+ * </p>
+ * <p>
+ * The thread local and session managers the service needs are stand-ins: there is no request, so no server URL or portal path is set for it,
+ * and the current user is always USER_ID.
+ * </p>
+ */
+public class BenchmarkEnvironment
+{
+	/** How many values, other than those read, the configuration holds. */
+	public static final int FILLER = 2000;
+
+	/** How many tools the course category holds. */
+	public static final int TOOLS = 40;
+
+	/** The tool order category. */
+	public static final String CATEGORY = "course";
+
+	/** The current user's id. */
+	public static final String USER_ID = "benchmark-user";
+
+	/** The configured server URL. */
+	public static final String SERVER_URL = "http://localhost:8080";
+
+	/** A component name never registered. */
+	public static final String MISSING = "org.sakaiproject.benchmark.api.MissingService";
+
+	private static ComponentManager m_componentManager = null;
+
+	private static ServerConfigurationService m_service = null;
+
+	/**
+	 * Boot the component manager and load the configuration service, if not yet done.
+	 */
+	public static synchronized void start()
+	{
+		if (m_componentManager != null) return;
+
+		try
+		{
+			File root = createTempDir("sakai-benchmark");
+			File home = new File(root, "sakai");
+			File components = new File(root, "components");
+			home.mkdirs();
+			components.mkdirs();
+			writeProperties(new File(home, "sakai.properties"));
+			writeToolOrder(new File(home, "toolOrder.xml"));
+
+			String homePath = home.getAbsolutePath() + File.separator;
+			System.setProperty("sakai.home", homePath);
+			System.setProperty("sakai.security", homePath);
+			System.setProperty(ComponentManager.SAKAI_COMPONENTS_ROOT_SYS_PROP, components.getAbsolutePath() + File.separator);
+
+			ComponentManager componentManager = org.sakaiproject.component.cover.ComponentManager.getInstance();
+
+			ThreadLocalManager threadLocalManager = (ThreadLocalManager) stub(ThreadLocalManager.class);
+			SessionManager sessionManager = (SessionManager) stub(SessionManager.class);
+			componentManager.loadComponent(ThreadLocalManager.class, threadLocalManager);
+			componentManager.loadComponent(SessionManager.class, sessionManager);
+
+			BasicConfigurationService service = new BasicConfigurationService();
+			service.setThreadLocalManager(threadLocalManager);
+			service.setSessionManager(sessionManager);
+			service.setSakaiProperties((SakaiProperties) componentManager.get("org.sakaiproject.component.SakaiProperties"));
+			service.setToolOrderFile(homePath + "toolOrder.xml");
+			service.init();
+			componentManager.loadComponent(ServerConfigurationService.class, service);
+
+			m_service = service;
+			m_componentManager = componentManager;
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("cannot set up sakai.home: " + e, e);
+		}
+	}
+
+	/**
+	 * @return The component manager, booted.
+	 */
+	public static ComponentManager getComponentManager()
+	{
+		start();
+		return m_componentManager;
+	}
+
+	/**
+	 * @return The configuration service, loaded into the component manager.
+	 */
+	public static ServerConfigurationService getServerConfigurationService()
+	{
+		start();
+		return m_service;
+	}
+
+	/**
+	 * @return The id of the tool at this position in the course category.
+	 */
+	public static String toolId(int position)
+	{
+		return "sakai.benchmark.tool" + position;
+	}
+
+	protected static void writeProperties(File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "ISO-8859-1"));
+		try
+		{
+			out.println("serverId=benchmark");
+			out.println("serverUrl=" + SERVER_URL);
+			out.println("serverName=localhost");
+			out.println("accessPath=/access");
+			out.println("toolPath=/portal/tool");
+			out.println("portalPath=/portal");
+			out.println("helpPath=/help");
+			out.println("loggedOutUrl=/portal/logout");
+			out.println("bench.string=  a string value  ");
+			out.println("bench.int=42");
+			out.println("bench.boolean=true");
+			out.println("bench.commas=sakai.a, sakai.b, sakai.c, sakai.d, sakai.e");
+			out.println("bench.duration=5m");
+			out.println("bench.size=512MB");
+			out.println("bench.strings.count=5");
+			for (int i = 1; i <= 5; i++)
+			{
+				out.println("bench.strings." + i + "=value" + i);
+			}
+			for (int i = 0; i < FILLER; i++)
+			{
+				out.println("bench.filler." + i + "=filler value " + i);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	protected static void writeToolOrder(File file) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try
+		{
+			out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			out.println("<toolOrder>");
+			out.println("\t<category name=\"" + CATEGORY + "\">");
+			for (int i = 0; i < TOOLS; i++)
+			{
+				out.println("\t\t<tool id=\"" + toolId(i) + "\"" + ((i % 4 == 0) ? " required=\"true\"" : "") + ((i % 2 == 0) ? " selected=\"true\"" : "")
+						+ "/>");
+			}
+			out.println("\t</category>");
+			out.println("</toolOrder>");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	protected static File createTempDir(String prefix) throws IOException
+	{
+		File rv = File.createTempFile(prefix, "");
+		if (!rv.delete() || !rv.mkdir()) throw new IOException("cannot create " + rv);
+		return rv;
+	}
+
+	/**
+	 * Make a stand-in for a collaborator: it knows the current user, and has nothing else to give.
+	 */
+	protected static Object stub(Class<?> iface)
+	{
+		return Proxy.newProxyInstance(BenchmarkEnvironment.class.getClassLoader(), new Class[] {iface}, new InvocationHandler()
+		{
+			public Object invoke(Object proxy, Method method, Object[] args)
+			{
+				if (method.getName().equals("getCurrentSessionUserId")) return USER_ID;
+				if (method.getName().equals("toString")) return "benchmark stub";
+				if (method.getName().equals("hashCode")) return Integer.valueOf(System.identityHashCode(proxy));
+				if (method.getName().equals("equals")) return Boolean.valueOf(proxy == args[0]);
+
+				Class<?> type = method.getReturnType();
+				if (type == Boolean.TYPE) return Boolean.FALSE;
+				if (type == Integer.TYPE) return Integer.valueOf(0);
+				if (type == Long.TYPE) return Long.valueOf(0);
+				return null;
+			}
+		});
+	}
+}
@@ -0,0 +1,65 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * <p>
+ * BenchmarkRunner runs the benchmarks once for each thread count, with the GC profiler, so each result has the allocation rate (bytes per
+ * operation) next to the time per operation. The results for each thread count are also written, as JSON, to benchmarks-THREADS.json.
+ * </p>
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar [benchmark name pattern]
+ * </pre>
+ *
+ * <p>
+ * The thread counts are set with -Dbenchmark.threads (default "1,8,64"), and the forks, warmup and measurement iterations with
+ * -Dbenchmark.forks, -Dbenchmark.warmups and -Dbenchmark.iterations. For anything else, run JMH itself: java -cp target/benchmarks.jar
+ * org.openjdk.jmh.Main -h
+ * </p>
+ */
+public class BenchmarkRunner
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		String include = (args.length > 0) ? args[0] : BenchmarkRunner.class.getPackage().getName() + ".*";
+		String[] threads = System.getProperty("benchmark.threads", "1,8,64").split(",");
+
+		for (String count : threads)
+		{
+			int t = Integer.parseInt(count.trim());
+			Options options = new OptionsBuilder().include(include).threads(t).forks(Integer.getInteger("benchmark.forks", 1).intValue())
+					.warmupIterations(Integer.getInteger("benchmark.warmups", 5).intValue())
+					.measurementIterations(Integer.getInteger("benchmark.iterations", 5).intValue()).addProfiler(GCProfiler.class)
+					.resultFormat(ResultFormatType.JSON).result("benchmarks-" + t + ".json").build();
+
+			new Runner(options).run();
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.sakaiproject.component.api.ComponentManager;
+import org.sakaiproject.component.impl.SpringCompMgr;
+
+/**
+ * <p>
+ * ColdStartHarness measures the component manager's start-up against synthetic installs of each size asked for. For each size it writes an
+ * install with ComponentPackageGenerator, then boots the component manager against it a number of times, each in a new JVM, so each boot is
+ * cold: no classes loaded, nothing compiled. An install is written once and kept, with the generator's settings, for the next run; if those
+ * settings have changed since, it is written again. For each phase of each boot - loading the component packages, refreshing the context (creating the
+ * beans), the whole of init, and closing - it records the wall time, the process CPU time, and the heap and metaspace in use at the end.
+ * </p>
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.sakaiproject.component.benchmark.ColdStartHarness
+ * </pre>
+ *
+ * <p>
+ * Settings, as system properties (defaults in brackets): coldstart.packages, the sizes (10,100,500); coldstart.beans, per package (20);
+ * coldstart.fanout, references per bean (3); coldstart.placeholders, per bean (2); coldstart.overrides, the percentage of beans overridden
+ * (10); coldstart.jars, per package (5); coldstart.sharedJars, the same in every package (3); coldstart.runs, boots per size (5);
+ * coldstart.dir, where to write the installs (a temporary directory); coldstart.jvmArgs, for the boot JVMs. Any "sakai.components.*" system
+ * property is passed on to the boot JVMs, so start-up options can be compared.
+ * </p>
+ * <p>
+ * Each boot is printed as it finishes, and the results written to coldstart.csv, one line per phase per boot.
+ * </p>
+ */
+public class ColdStartHarness
+{
+	/** The start of a boot JVM's line that reports a phase. */
+	protected static final String PHASE = "PHASE";
+
+	/** The file in an install that holds the settings it was generated with. */
+	protected static final String SETTINGS = "generator.properties";
+
+	public static void main(String[] args) throws Exception
+	{
+		String[] sizes = System.getProperty("coldstart.packages", "10,100,500").split(",");
+		int runs = Integer.getInteger("coldstart.runs", 5).intValue();
+		File dir = (System.getProperty("coldstart.dir") != null) ? new File(System.getProperty("coldstart.dir")) : BenchmarkEnvironment
+				.createTempDir("sakai-coldstart");
+
+		PrintWriter csv = new PrintWriter(new OutputStreamWriter(new FileOutputStream("coldstart.csv"), "UTF-8"));
+		try
+		{
+			csv.println("packages,beans,run,phase,wall_ms,cpu_ms,heap_mb,metaspace_mb");
+			for (String size : sizes)
+			{
+				int packages = Integer.parseInt(size.trim());
+
+				ComponentPackageGenerator generator = new ComponentPackageGenerator();
+				generator.setPackages(packages);
+				generator.setBeans(Integer.getInteger("coldstart.beans", 20).intValue());
+				generator.setFanOut(Integer.getInteger("coldstart.fanout", 3).intValue());
+				generator.setPlaceholders(Integer.getInteger("coldstart.placeholders", 2).intValue());
+				generator.setOverridePercent(Integer.getInteger("coldstart.overrides", 10).intValue());
+				generator.setJars(Integer.getInteger("coldstart.jars", 5).intValue());
+				generator.setSharedJars(Integer.getInteger("coldstart.sharedJars", 3).intValue());
+
+				File install = new File(dir, "install-" + packages);
+				File componentsRoot = new File(install, "components");
+				File sakaiHome = new File(install, "sakai");
+				if (!generator.describe().equals(readSettings(install)))
+				{
+					delete(install);
+					generator.generate(componentsRoot, sakaiHome);
+					writeSettings(install, generator.describe());
+				}
+				System.out.println("install: " + install + " : " + generator.describe());
+
+				for (int run = 1; run <= runs; run++)
+				{
+					Map<String, String> phases = boot(componentsRoot, sakaiHome);
+					for (Map.Entry<String, String> phase : phases.entrySet())
+					{
+						csv.println(packages + "," + Integer.getInteger("coldstart.beans", 20) + "," + run + "," + phase.getKey() + ","
+								+ phase.getValue());
+					}
+					csv.flush();
+					System.out.println("packages=" + packages + " run=" + run + " : " + phases);
+				}
+			}
+		}
+		finally
+		{
+			csv.close();
+		}
+	}
+
+	/**
+	 * @return The settings the install was generated with, or null if it was not, or not all of it.
+	 */
+	protected static String readSettings(File install) throws IOException
+	{
+		File file = new File(install, SETTINGS);
+		if (!file.isFile()) return null;
+
+		Properties settings = new Properties();
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			settings.load(in);
+		}
+		finally
+		{
+			in.close();
+		}
+
+		return settings.getProperty("settings");
+	}
+
+	/**
+	 * Record the settings the install was generated with - written last, so an install not all written has none.
+	 */
+	protected static void writeSettings(File install, String describe) throws IOException
+	{
+		Properties settings = new Properties();
+		settings.setProperty("settings", describe);
+		FileOutputStream out = new FileOutputStream(new File(install, SETTINGS));
+		try
+		{
+			settings.store(out, "ComponentPackageGenerator");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Delete a file, or a directory and all in it.
+	 */
+	protected static void delete(File file) throws IOException
+	{
+		File[] files = file.listFiles();
+		if (files != null)
+		{
+			for (File child : files)
+			{
+				delete(child);
+			}
+		}
+
+		if (file.exists() && !file.delete()) throw new IOException("cannot delete " + file);
+	}
+
+	/**
+	 * Boot the component manager in a new JVM.
+	 *
+	 * @return Each phase's measures (wall ms, cpu ms, heap MB, metaspace MB, comma separated), by phase name, in order.
+	 */
+	protected static Map<String, String> boot(File componentsRoot, File sakaiHome) throws IOException, InterruptedException
+	{
+		List<String> command = new ArrayList<String>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		String jvmArgs = System.getProperty("coldstart.jvmArgs");
+		if ((jvmArgs != null) && (jvmArgs.trim().length() > 0))
+		{
+			for (String arg : jvmArgs.trim().split("\\s+"))
+			{
+				command.add(arg);
+			}
+		}
+		for (String name : System.getProperties().stringPropertyNames())
+		{
+			if (name.startsWith("sakai.components.") && !name.equals(ComponentManager.SAKAI_COMPONENTS_ROOT_SYS_PROP))
+			{
+				command.add("-D" + name + "=" + System.getProperty(name));
+			}
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(Boot.class.getName());
+		command.add(componentsRoot.getAbsolutePath());
+		command.add(sakaiHome.getAbsolutePath());
+
+		ProcessBuilder builder = new ProcessBuilder(command);
+		builder.redirectErrorStream(true);
+		Process process = builder.start();
+
+		Map<String, String> rv = new LinkedHashMap<String, String>();
+		List<String> output = new ArrayList<String>();
+		BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		try
+		{
+			String line;
+			while ((line = in.readLine()) != null)
+			{
+				if (line.startsWith(PHASE + " "))
+				{
+					String[] parts = line.substring(PHASE.length() + 1).split("\t");
+					rv.put(parts[0], parts[1]);
+				}
+				else
+				{
+					output.add(line);
+				}
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+
+		int exit = process.waitFor();
+		if ((exit != 0) || rv.isEmpty())
+		{
+			for (String line : output)
+			{
+				System.err.println(line);
+			}
+			throw new IllegalStateException("boot failed, exit " + exit);
+		}
+
+		return rv;
+	}
+
+	/**
+	 * Boots the component manager once, in this JVM, reporting each phase on standard out: args are the components root and sakai.home.
+	 */
+	public static class Boot
+	{
+		private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+		public static void main(String[] args)
+		{
+			System.setProperty(ComponentManager.SAKAI_COMPONENTS_ROOT_SYS_PROP, args[0] + File.separator);
+			System.setProperty("sakai.home", args[1] + File.separator);
+			System.setProperty("sakai.security", args[1] + File.separator);
+
+			final long[] loaded = new long[1];
+			final String[] loadMeasures = new String[1];
+			final long[] cpuLoaded = new long[1];
+
+			long start = System.nanoTime();
+			long cpuStart = cpuTime();
+			SpringCompMgr componentManager = new SpringCompMgr(null)
+			{
+				protected void loadComponents()
+				{
+					long loadStart = System.nanoTime();
+					long cpuLoadStart = cpuTime();
+					super.loadComponents();
+					loaded[0] = System.nanoTime();
+					cpuLoaded[0] = cpuTime();
+					loadMeasures[0] = measures(loadStart, loaded[0], cpuLoadStart, cpuLoaded[0]);
+				}
+			};
+			componentManager.init();
+			long initialized = System.nanoTime();
+			long cpuInitialized = cpuTime();
+
+			// check the install booted as generated, its components' classes loaded from their packages
+			Object first = componentManager.get(ComponentPackageGenerator.beanName(0, 0));
+			if (!(first instanceof SyntheticComponent) || !first.getClass().getName().equals(ComponentPackageGenerator.className(0, 0))
+					|| (first.getClass().getClassLoader() == SyntheticComponent.class.getClassLoader()))
+			{
+				System.err.println("boot: synthetic components not loaded");
+				System.exit(1);
+			}
+
+			report("load components", loadMeasures[0]);
+			report("refresh", measures(loaded[0], initialized, cpuLoaded[0], cpuInitialized));
+			report("init", measures(start, initialized, cpuStart, cpuInitialized));
+
+			long closeStart = System.nanoTime();
+			long cpuCloseStart = cpuTime();
+			componentManager.close();
+			report("close", measures(closeStart, System.nanoTime(), cpuCloseStart, cpuTime()));
+
+			System.exit(0);
+		}
+
+		private static void report(String phase, String measures)
+		{
+			System.out.println(PHASE + " " + phase + "\t" + measures);
+		}
+
+		/**
+		 * @return wall ms, cpu ms, heap MB and metaspace MB now in use, comma separated.
+		 */
+		private static String measures(long start, long end, long cpuStart, long cpuEnd)
+		{
+			long mb = 1024 * 1024;
+			return ((end - start) / 1000000) + "," + ((cpuStart < 0) ? -1 : (cpuEnd - cpuStart) / 1000000) + ","
+					+ (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / mb) + "," + (metaspaceUsed() / mb);
+		}
+
+		/**
+		 * @return The process's CPU time, in ns, or -1 if the JVM does not tell.
+		 */
+		private static long cpuTime()
+		{
+			if (OS instanceof com.sun.management.OperatingSystemMXBean)
+			{
+				return ((com.sun.management.OperatingSystemMXBean) OS).getProcessCpuTime();
+			}
+
+			return -1;
+		}
+
+		/**
+		 * @return The class metadata memory in use - the metaspace, or on older JVMs the permanent generation.
+		 */
+		private static long metaspaceUsed()
+		{
+			long rv = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			{
+				if ((pool.getName().indexOf("Metaspace") != -1) || (pool.getName().indexOf("Perm Gen") != -1))
+				{
+					rv += pool.getUsage().getUsed();
+				}
+			}
+
+			return rv;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sakaiproject.component.api.ComponentManager;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.component.cover.ComponentHandle;
+
+/**
+ * <p>
+ * ComponentLookupBenchmark measures finding components: through the SpringCompMgr, by interface and by name, for components there and
+ * missing; through the static ComponentManager cover; and through a ComponentHandle.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ComponentLookupBenchmark
+{
+	/** An interface with no component. */
+	protected interface MissingService
+	{
+	}
+
+	protected ComponentManager m_componentManager;
+
+	protected ComponentHandle<ServerConfigurationService> m_handle;
+
+	@Setup
+	public void setup()
+	{
+		m_componentManager = BenchmarkEnvironment.getComponentManager();
+		m_handle = ComponentHandle.forInterface(ServerConfigurationService.class);
+	}
+
+	@Benchmark
+	public Object getClassHit()
+	{
+		return m_componentManager.get(ServerConfigurationService.class);
+	}
+
+	@Benchmark
+	public Object getClassMiss()
+	{
+		return m_componentManager.get(MissingService.class);
+	}
+
+	@Benchmark
+	public Object getStringHit()
+	{
+		return m_componentManager.get(ServerConfigurationService.class.getName());
+	}
+
+	@Benchmark
+	public Object getStringMiss()
+	{
+		return m_componentManager.get(BenchmarkEnvironment.MISSING);
+	}
+
+	@Benchmark
+	public Object coverGetClassHit()
+	{
+		return org.sakaiproject.component.cover.ComponentManager.get(ServerConfigurationService.class);
+	}
+
+	@Benchmark
+	public Object coverGetStringMiss()
+	{
+		return org.sakaiproject.component.cover.ComponentManager.get(BenchmarkEnvironment.MISSING);
+	}
+
+	@Benchmark
+	public Object coverGetInstance()
+	{
+		return org.sakaiproject.component.cover.ServerConfigurationService.getInstance();
+	}
+
+	@Benchmark
+	public Object handleGet()
+	{
+		return m_handle.get();
+	}
+}
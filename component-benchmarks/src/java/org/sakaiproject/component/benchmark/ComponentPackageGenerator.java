@@ -0,0 +1,446 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * <p>
+ * ComponentPackageGenerator writes a synthetic Sakai install to boot the component manager against: a components root of component packages,
+ * each a WEB-INF/components.xml and WEB-INF/lib jars, and a sakai.home with the sakai.properties they need. Each bean has its own class, a
+ * SyntheticComponent subclass in one of its package's jars, and:
+ * </p>
+ * <ul>
+ * <li>references a number of beans defined before it (the fan-out), in its own package or earlier ones, so the dependencies form no cycle;</li>
+ * <li>has a number of values that are placeholders, resolved from sakai.properties;</li>
+ * <li>may have its label set from sakai.properties by a "label@bean" override.</li>
+ * </ul>
+ * <p>
+ * The jars hold resource entries, for the class loaders to open and index, and the first jar unique to each package holds the classes of its
+ * beans, so that the beans are created from classes loaded out of the package, as real components are. The other jars are the same, byte for
+ * byte, in every package, as common libraries are. What is generated depends only on the settings, so runs can be compared: see describe().
+ * </p>
+ */
+public class ComponentPackageGenerator
+{
+	/** The bean names' common start. */
+	public static final String BEAN_PREFIX = "org.sakaiproject.synthetic.";
+
+	/** Entries in each jar. */
+	protected static final int JAR_ENTRIES = 50;
+
+	/** The time stamp of the jar entries - fixed, so the shared jars are the same. */
+	protected static final long JAR_TIME = 1199145600000L;
+
+	/** The version of what is generated, part of describe(), to change when the same settings generate something else. */
+	protected static final int VERSION = 2;
+
+	protected int m_packages = 10;
+
+	protected int m_beans = 20;
+
+	protected int m_fanOut = 3;
+
+	protected int m_placeholders = 2;
+
+	protected int m_overridePercent = 10;
+
+	protected int m_jars = 5;
+
+	protected int m_sharedJars = 3;
+
+	protected long m_seed = 1;
+
+	/**
+	 * @param packages
+	 *        How many component packages to write.
+	 */
+	public void setPackages(int packages)
+	{
+		m_packages = packages;
+	}
+
+	/**
+	 * @param beans
+	 *        How many beans each package defines.
+	 */
+	public void setBeans(int beans)
+	{
+		m_beans = beans;
+	}
+
+	/**
+	 * @param fanOut
+	 *        How many other beans each bean references (fewer for the first beans, which have fewer to choose from).
+	 */
+	public void setFanOut(int fanOut)
+	{
+		m_fanOut = fanOut;
+	}
+
+	/**
+	 * @param placeholders
+	 *        How many placeholder values each bean has.
+	 */
+	public void setPlaceholders(int placeholders)
+	{
+		m_placeholders = placeholders;
+	}
+
+	/**
+	 * @param overridePercent
+	 *        The percentage of beans with a "label@bean" override.
+	 */
+	public void setOverridePercent(int overridePercent)
+	{
+		m_overridePercent = overridePercent;
+	}
+
+	/**
+	 * @param jars
+	 *        How many jars each package has in WEB-INF/lib.
+	 */
+	public void setJars(int jars)
+	{
+		m_jars = jars;
+	}
+
+	/**
+	 * @param sharedJars
+	 *        How many of each package's jars are the same in every package - at most all but one, which holds the package's classes.
+	 */
+	public void setSharedJars(int sharedJars)
+	{
+		m_sharedJars = sharedJars;
+	}
+
+	/**
+	 * @param seed
+	 *        Picks the references and overrides.
+	 */
+	public void setSeed(long seed)
+	{
+		m_seed = seed;
+	}
+
+	/**
+	 * @return The settings, for a report, and to tell whether an install written before is the same as this would write.
+	 */
+	public String describe()
+	{
+		return "version=" + VERSION + " packages=" + m_packages + " beans=" + m_beans + " fanOut=" + m_fanOut + " placeholders=" + m_placeholders
+				+ " overrides=" + m_overridePercent + "% jars=" + jars() + " sharedJars=" + sharedJars() + " seed=" + m_seed;
+	}
+
+	/**
+	 * @return The jars in each package - at least the one that holds its classes.
+	 */
+	protected int jars()
+	{
+		return Math.max(m_jars, 1);
+	}
+
+	/**
+	 * @return The jars in each package that are the same in every package.
+	 */
+	protected int sharedJars()
+	{
+		return Math.max(0, Math.min(m_sharedJars, jars() - 1));
+	}
+
+	/**
+	 * @return The name of a bean.
+	 */
+	public static String beanName(int pkg, int bean)
+	{
+		return BEAN_PREFIX + packageName(pkg) + ".api.Service" + bean;
+	}
+
+	/**
+	 * @return The name of a bean's class.
+	 */
+	public static String className(int pkg, int bean)
+	{
+		return BEAN_PREFIX + packageName(pkg).replace('-', '_') + ".impl.Service" + bean + "Impl";
+	}
+
+	/**
+	 * @return The name of a package.
+	 */
+	public static String packageName(int pkg)
+	{
+		return "synthetic-pack-" + pad(pkg);
+	}
+
+	/**
+	 * Write the install.
+	 *
+	 * @param componentsRoot
+	 *        The components root directory - made if need be.
+	 * @param sakaiHome
+	 *        The sakai.home directory - made if need be.
+	 */
+	public void generate(File componentsRoot, File sakaiHome) throws IOException
+	{
+		componentsRoot.mkdirs();
+		sakaiHome.mkdirs();
+
+		Random random = new Random(m_seed);
+		List<String> defined = new ArrayList<String>();
+
+		PrintWriter properties = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(sakaiHome, "sakai.properties")), "ISO-8859-1"));
+		try
+		{
+			properties.println("serverId=synthetic");
+
+			for (int p = 0; p < m_packages; p++)
+			{
+				File webinf = new File(new File(componentsRoot, packageName(p)), "WEB-INF");
+				File lib = new File(webinf, "lib");
+				lib.mkdirs();
+
+				List<String> classes = new ArrayList<String>();
+				for (int b = 0; b < m_beans; b++)
+				{
+					classes.add(className(p, b));
+				}
+
+				for (int j = 0; j < jars(); j++)
+				{
+					if (j < sharedJars())
+					{
+						writeJar(new File(lib, "synthetic-shared-" + j + ".jar"), "shared" + j, new ArrayList<String>());
+					}
+					else
+					{
+						writeJar(new File(lib, packageName(p) + "-" + j + ".jar"), packageName(p) + "-" + j, classes);
+						classes = new ArrayList<String>();
+					}
+				}
+
+				PrintWriter xml = new PrintWriter(new OutputStreamWriter(new FileOutputStream(new File(webinf, "components.xml")), "UTF-8"));
+				try
+				{
+					xml.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+					xml.println("<beans xmlns=\"http://www.springframework.org/schema/beans\"");
+					xml.println("\txmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\"");
+					xml.println("\txsi:schemaLocation=\"http://www.springframework.org/schema/beans http://www.springframework.org/schema/beans/spring-beans-2.0.xsd\">");
+
+					for (int b = 0; b < m_beans; b++)
+					{
+						String name = beanName(p, b);
+						writeBean(xml, properties, name, p, b, pick(random, defined));
+						defined.add(name);
+
+						if (random.nextInt(100) < m_overridePercent)
+						{
+							properties.println("label@" + name + "=overridden " + p + "." + b);
+						}
+					}
+
+					xml.println("</beans>");
+				}
+				finally
+				{
+					xml.close();
+				}
+			}
+		}
+		finally
+		{
+			properties.close();
+		}
+	}
+
+	/**
+	 * Pick the beans for one bean to reference, from those defined before it.
+	 */
+	protected List<String> pick(Random random, List<String> defined)
+	{
+		List<String> rv = new ArrayList<String>();
+		int count = Math.min(m_fanOut, defined.size());
+		while (rv.size() < count)
+		{
+			String name = defined.get(random.nextInt(defined.size()));
+			if (!rv.contains(name)) rv.add(name);
+		}
+
+		return rv;
+	}
+
+	protected void writeBean(PrintWriter xml, PrintWriter properties, String name, int p, int b, List<String> references)
+	{
+		xml.println("\t<bean id=\"" + name + "\" class=\"" + className(p, b) + "\" init-method=\"init\" destroy-method=\"destroy\">");
+		xml.println("\t\t<property name=\"name\" value=\"" + name + "\"/>");
+		xml.println("\t\t<property name=\"label\" value=\"" + packageName(p) + " service " + b + "\"/>");
+
+		if (m_placeholders > 0)
+		{
+			xml.println("\t\t<property name=\"values\">");
+			xml.println("\t\t\t<map>");
+			for (int v = 0; v < m_placeholders; v++)
+			{
+				String key = "synthetic." + pad(p) + "." + b + ".value" + v;
+				xml.println("\t\t\t\t<entry key=\"value" + v + "\" value=\"${" + key + "}\"/>");
+				properties.println(key + "=value " + v + " of " + name);
+			}
+			xml.println("\t\t\t</map>");
+			xml.println("\t\t</property>");
+		}
+
+		if (!references.isEmpty())
+		{
+			xml.println("\t\t<property name=\"dependencies\">");
+			xml.println("\t\t\t<list>");
+			for (String reference : references)
+			{
+				xml.println("\t\t\t\t<ref bean=\"" + reference + "\"/>");
+			}
+			xml.println("\t\t\t</list>");
+			xml.println("\t\t</property>");
+		}
+
+		xml.println("\t</bean>");
+	}
+
+	/**
+	 * Write a jar of resource entries and classes - the same bytes for the same name and classes.
+	 */
+	protected void writeJar(File file, String name, List<String> classes) throws IOException
+	{
+		JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+		try
+		{
+			for (String className : classes)
+			{
+				JarEntry entry = new JarEntry(className.replace('.', '/') + ".class");
+				entry.setTime(JAR_TIME);
+				out.putNextEntry(entry);
+				out.write(classBytes(className, SyntheticComponent.class.getName()));
+				out.closeEntry();
+			}
+
+			for (int i = 0; i < JAR_ENTRIES; i++)
+			{
+				JarEntry entry = new JarEntry("org/sakaiproject/synthetic/" + name.replace('-', '_') + "/resource" + i + ".properties");
+				entry.setTime(JAR_TIME);
+				out.putNextEntry(entry);
+				out.write(("name=" + name + "\nentry=" + i + "\n").getBytes("ISO-8859-1"));
+				out.closeEntry();
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Write the class file of a public class with nothing but a public no-argument constructor that calls its super class's. It is written for
+	 * Java 5 (class file version 49), which needs no stack map frames.
+	 */
+	protected static byte[] classBytes(String className, String superName) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);
+
+		// the constant pool, entries 1 to 9
+		out.writeShort(10);
+		out.writeByte(1); // 1: this class name
+		out.writeUTF(className.replace('.', '/'));
+		out.writeByte(7); // 2: this class
+		out.writeShort(1);
+		out.writeByte(1); // 3: super class name
+		out.writeUTF(superName.replace('.', '/'));
+		out.writeByte(7); // 4: super class
+		out.writeShort(3);
+		out.writeByte(1); // 5
+		out.writeUTF("<init>");
+		out.writeByte(1); // 6
+		out.writeUTF("()V");
+		out.writeByte(12); // 7: <init>()V
+		out.writeShort(5);
+		out.writeShort(6);
+		out.writeByte(10); // 8: super's <init>()V
+		out.writeShort(4);
+		out.writeShort(7);
+		out.writeByte(1); // 9
+		out.writeUTF("Code");
+
+		// public, super; this, super, no interfaces, no fields
+		out.writeShort(0x0021);
+		out.writeShort(2);
+		out.writeShort(4);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// one method: public <init>()V { aload_0; invokespecial #8; return; }
+		out.writeShort(1);
+		out.writeShort(0x0001);
+		out.writeShort(5);
+		out.writeShort(6);
+		out.writeShort(1);
+		out.writeShort(9);
+		out.writeInt(17);
+		out.writeShort(1);
+		out.writeShort(1);
+		out.writeInt(5);
+		out.writeByte(0x2a);
+		out.writeByte(0xb7);
+		out.writeShort(8);
+		out.writeByte(0xb1);
+		out.writeShort(0);
+		out.writeShort(0);
+
+		// no class attributes
+		out.writeShort(0);
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	protected static String pad(int n)
+	{
+		String rv = Integer.toString(n);
+		while (rv.length() < 3)
+		{
+			rv = "0" + rv;
+		}
+
+		return rv;
+	}
+}
@@ -0,0 +1,251 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.util.RequestUrlContext;
+
+/**
+ * <p>
+ * ConfigurationBenchmark measures the ServerConfigurationService reads made on every request: values, by type, the server URLs (as configured,
+ * and as set for a request) and the tool order. Values are read both set and not set, as the miss path differs.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class ConfigurationBenchmark
+{
+	protected ServerConfigurationService m_service;
+
+	/** A tool in the middle of the order. */
+	protected String m_tool;
+
+	@Setup
+	public void setup()
+	{
+		m_service = BenchmarkEnvironment.getServerConfigurationService();
+		m_tool = BenchmarkEnvironment.toolId(BenchmarkEnvironment.TOOLS / 2);
+	}
+
+	/**
+	 * Each thread's request, with its server URL and portal path set.
+	 */
+	@State(Scope.Thread)
+	public static class Request
+	{
+		@Setup(Level.Iteration)
+		public void bind()
+		{
+			RequestUrlContext.bind("https://benchmark.example.edu", "/portal");
+		}
+
+		@TearDown(Level.Iteration)
+		public void unbind()
+		{
+			RequestUrlContext.unbind();
+		}
+	}
+
+	@Benchmark
+	public String getString()
+	{
+		return m_service.getString("bench.string");
+	}
+
+	@Benchmark
+	public String getStringMissing()
+	{
+		return m_service.getString("bench.missing", "default");
+	}
+
+	@Benchmark
+	public int getInt()
+	{
+		return m_service.getInt("bench.int", 0);
+	}
+
+	@Benchmark
+	public int getIntMissing()
+	{
+		return m_service.getInt("bench.missing", 0);
+	}
+
+	@Benchmark
+	public boolean getBoolean()
+	{
+		return m_service.getBoolean("bench.boolean", false);
+	}
+
+	@Benchmark
+	public String[] getStrings()
+	{
+		return m_service.getStrings("bench.strings");
+	}
+
+	@Benchmark
+	public List<String> getStringList()
+	{
+		return m_service.getStringList("bench.strings");
+	}
+
+	@Benchmark
+	public Set<String> getCommaSet()
+	{
+		return m_service.getCommaSet("bench.commas");
+	}
+
+	@Benchmark
+	public long getDuration()
+	{
+		return m_service.getDuration("bench.duration", TimeUnit.MILLISECONDS, 0);
+	}
+
+	@Benchmark
+	public long getByteSize()
+	{
+		return m_service.getByteSize("bench.size", 0);
+	}
+
+	@Benchmark
+	public List<String> getKeysWithPrefix()
+	{
+		return m_service.getKeysWithPrefix("bench.strings.");
+	}
+
+	@Benchmark
+	public int getSubsetSize()
+	{
+		return m_service.getSubset("bench.strings.").size();
+	}
+
+	@Benchmark
+	public String getServerUrl()
+	{
+		return m_service.getServerUrl();
+	}
+
+	@Benchmark
+	public String getAccessUrl()
+	{
+		return m_service.getAccessUrl();
+	}
+
+	@Benchmark
+	public String getPortalUrl()
+	{
+		return m_service.getPortalUrl();
+	}
+
+	@Benchmark
+	public String getHelpUrl()
+	{
+		return m_service.getHelpUrl(null);
+	}
+
+	@Benchmark
+	public String getLoggedOutUrl()
+	{
+		return m_service.getLoggedOutUrl();
+	}
+
+	@Benchmark
+	public String getUserHomeUrl()
+	{
+		return m_service.getUserHomeUrl();
+	}
+
+	@Benchmark
+	public String getAccessUrlInRequest(Request request)
+	{
+		return m_service.getAccessUrl();
+	}
+
+	@Benchmark
+	public String getPortalUrlInRequest(Request request)
+	{
+		return m_service.getPortalUrl();
+	}
+
+	@Benchmark
+	public List getToolOrder()
+	{
+		return m_service.getToolOrder(BenchmarkEnvironment.CATEGORY);
+	}
+
+	@Benchmark
+	public List getToolsRequired()
+	{
+		return m_service.getToolsRequired(BenchmarkEnvironment.CATEGORY);
+	}
+
+	@Benchmark
+	public boolean isToolRequired()
+	{
+		return m_service.isToolRequired(BenchmarkEnvironment.CATEGORY, m_tool);
+	}
+
+	@Benchmark
+	public int getToolPosition()
+	{
+		return m_service.getToolPosition(BenchmarkEnvironment.CATEGORY, m_tool);
+	}
+
+	@Benchmark
+	public int compareTools()
+	{
+		Comparator<String> comparator = m_service.getToolOrderComparator(BenchmarkEnvironment.CATEGORY);
+		return comparator.compare(m_tool, BenchmarkEnvironment.toolId(0));
+	}
+
+	@Benchmark
+	public String coverGetString()
+	{
+		return org.sakaiproject.component.cover.ServerConfigurationService.getString("bench.string");
+	}
+
+	@Benchmark
+	public int coverGetInt()
+	{
+		return org.sakaiproject.component.cover.ServerConfigurationService.getInt("bench.int", 0);
+	}
+
+	@Benchmark
+	public String coverGetPortalUrl()
+	{
+		return org.sakaiproject.component.cover.ServerConfigurationService.getPortalUrl();
+	}
+}
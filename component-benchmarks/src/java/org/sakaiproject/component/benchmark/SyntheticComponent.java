@@ -0,0 +1,110 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * SyntheticComponent is the bean class of the components ComponentPackageGenerator writes: it holds the values and references it is given, and
+ * its init and destroy methods check them, as a real component's would, so that a placeholder left unresolved or a reference left unset shows.
+ * </p>
+ */
+public class SyntheticComponent
+{
+	private String m_name = null;
+
+	private String m_label = null;
+
+	private Map<String, String> m_values = null;
+
+	private List<Object> m_dependencies = new ArrayList<Object>();
+
+	private boolean m_destroyed = false;
+
+	public void setName(String name)
+	{
+		m_name = name;
+	}
+
+	public void setLabel(String label)
+	{
+		m_label = label;
+	}
+
+	public void setValues(Map<String, String> values)
+	{
+		m_values = values;
+	}
+
+	public void setDependencies(List<Object> dependencies)
+	{
+		m_dependencies = dependencies;
+	}
+
+	public void init()
+	{
+		if (m_values != null)
+		{
+			for (Map.Entry<String, String> value : m_values.entrySet())
+			{
+				if ((value.getValue() == null) || (value.getValue().indexOf("${") != -1))
+				{
+					throw new IllegalStateException(m_name + ": unresolved value: " + value.getKey() + " = " + value.getValue());
+				}
+			}
+		}
+
+		for (Object dependency : m_dependencies)
+		{
+			if (!(dependency instanceof SyntheticComponent)) throw new IllegalStateException(m_name + ": bad dependency: " + dependency);
+		}
+	}
+
+	public void destroy()
+	{
+		for (Object dependency : m_dependencies)
+		{
+			// a dependency is destroyed after all that depend on it
+			if (((SyntheticComponent) dependency).m_destroyed) throw new IllegalStateException(m_name + ": dependency destroyed first");
+		}
+
+		m_destroyed = true;
+	}
+
+	public String getName()
+	{
+		return m_name;
+	}
+
+	public String getLabel()
+	{
+		return m_label;
+	}
+
+	public String getValue(String key)
+	{
+		return (m_values == null) ? null : m_values.get(key);
+	}
+}
@@ -23,26 +23,39 @@ package org.sakaiproject.component.impl;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Vector;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.component.api.ConfigurationListener;
+import org.sakaiproject.component.api.ConfigurationVisitor;
 import org.sakaiproject.component.api.ServerConfigurationService;
 import org.sakaiproject.thread_local.api.ThreadLocalManager;
 import org.sakaiproject.tool.api.SessionManager;
+import org.sakaiproject.util.RequestUrlContext;
 import org.sakaiproject.util.SakaiProperties;
 import org.sakaiproject.util.StringUtil;
-import org.sakaiproject.util.Xml;
 import org.springframework.core.io.Resource;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /**
  * <p>
@@ -60,31 +73,47 @@ public class BasicConfigurationService implements ServerConfigurationService
 	/** This is computed, joining the configured serverId and the set instanceId. */
 	private String serverIdInstance = null;
 
+	/** Configuration key: how often, in seconds, to check the properties and tool order files for changes, and reload them - 0 (the default) never to. */
+	public static final String RELOAD_INTERVAL = "config.reload.interval";
+
+	/**
+	 * Configuration key: true to keep the values in a memory-mapped file in sakai.home, rather than on the heap - false by default. This trades
+	 * speed for heap: ints, longs and booleans are read from the file as fast, but every getString() searches the file (in log n steps) and
+	 * makes a new String, as nothing read is kept; values read as lists, sets, maps, durations, sizes or enums are still parsed once, and kept.
+	 * Use it for a large configuration whose strings are read at startup, rather than on every request.
+	 */
+	public static final String MAPPED = "config.mapped";
+
+	/** The name of the memory-mapped configuration file, in sakai.home. */
+	public static final String MAPPED_FILE = "configuration.snapshot";
+
 	/** The map of values from the loaded properties - not synchronized at access. */
-	private Properties properties;
+	private volatile Properties properties;
 
-	/** File name within sakai.home for the tool order file. */
-	private String toolOrderFile = null;
-	private Resource defaultToolOrderResource;
+	/** The loaded properties, trimmed and parsed, for reading - replaced whole on reload. */
+	private volatile ConfigurationSnapshot configuration = new ConfigurationSnapshot(new Properties(), 0);
 
-	/** loaded tool orders - map keyed by category of List of tool id strings. */
-	private Map m_toolOrders = new HashMap();
+	/** Watches the properties files, if reloading. */
+	private ConfigurationWatcher watcher = null;
 
-	/** required tools - map keyed by category of List of tool id strings. */
-	private Map m_toolsRequired = new HashMap();
+	/** Watches the tool order file, if reloading. */
+	private ConfigurationWatcher toolOrderWatcher = null;
 
-	/** default tools - map keyed by category of List of tool id strings. */
-	private Map m_defaultTools = new HashMap();
+	/** The configuration listeners' subscriptions. */
+	private List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
 
-	/** default tool categories in order mapped by site type */
-	private Map<String, List<String>> m_toolCategoriesList = new HashMap();
+	/** Tells the configuration listeners of changes - one thread, so each listener hears of reloads in order, and a bounded queue. */
+	private ThreadPoolExecutor notifier = null;
 
-	/** default tool categories to tool id maps mapped by site type */
-	private Map<String, Map<String, List<String>>> m_toolCategoriesMap = new HashMap();
+	/** How many notifications can wait to be delivered before the reloading thread delivers them itself. */
+	private static final int NOTIFY_QUEUE = 100;
 
-	/** default tool id to tool category maps mapped by site type */
-	private Map<String, Map<String, String>> m_toolToToolCategoriesMap = new HashMap();
+	/** File name within sakai.home for the tool order file. */
+	private String toolOrderFile = null;
+	private Resource defaultToolOrderResource;
 
+	/** loaded tool orders - map keyed by category, replaced whole when loaded. */
+	private volatile Map<String, ToolOrder> m_toolOrders = new HashMap<String, ToolOrder>();
 
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Dependencies
@@ -127,6 +156,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	public void init()
 	{
 		this.properties = sakaiProperties.getProperties();
+		this.configuration = newSnapshot(this.properties, 1);
 
 		try
 		{
@@ -142,32 +172,59 @@ public class BasicConfigurationService implements ServerConfigurationService
 		}
 
 		// load in the tool order, if specified, from the sakai home area
-		if (toolOrderFile != null)
+		loadToolOrders();
+
+		notifier = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(NOTIFY_QUEUE), new ThreadFactory()
+		{
+			public Thread newThread(Runnable r)
+			{
+				Thread thread = new Thread(r, "sakai-config-listeners");
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+
+		// watch the properties files, if asked to
+		int interval = getInt(RELOAD_INTERVAL, 0);
+		List<File> files = new ArrayList<File>();
+		if (interval > 0)
 		{
-			File f = new File(toolOrderFile);
-			if (f.exists())
+			for (Resource location : sakaiProperties.getLocations())
 			{
 				try
 				{
-					loadToolOrder(new FileInputStream(f));
+					files.add(location.getFile());
 				}
-				catch (Throwable t)
+				catch (IOException e)
 				{
-					M_log.warn("init(): trouble loading tool order from : " + toolOrderFile, t);
+					// not a file (in a jar, say) - it will not change while we run
 				}
 			}
-			else
+		}
+
+		if (!files.isEmpty())
+		{
+			watcher = new ConfigurationWatcher("sakai-config-watcher", files.toArray(new File[files.size()]), interval * 1000L, new Runnable()
 			{
-				// start with the distributed defaults from the classpath
-				try
+				public void run()
 				{
-					loadToolOrder(defaultToolOrderResource.getInputStream());
+					reload();
 				}
-				catch (Throwable t)
+			});
+			watcher.start();
+		}
+
+		// and the tool order file
+		if ((interval > 0) && (toolOrderFile != null))
+		{
+			toolOrderWatcher = new ConfigurationWatcher("sakai-toolorder-watcher", new File[] {new File(toolOrderFile)}, interval * 1000L, new Runnable()
+			{
+				public void run()
 				{
-					M_log.warn("init(): trouble loading tool order from default toolOrder.xml", t);
+					loadToolOrders();
 				}
-			}
+			});
+			toolOrderWatcher.start();
 		}
 
 		M_log.info("init()");
@@ -178,19 +235,172 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public void destroy()
 	{
+		if (watcher != null)
+		{
+			watcher.stop();
+			watcher = null;
+		}
+
+		if (toolOrderWatcher != null)
+		{
+			toolOrderWatcher.stop();
+			toolOrderWatcher = null;
+		}
+
+		if (notifier != null)
+		{
+			notifier.shutdown();
+			notifier = null;
+		}
+		subscriptions.clear();
+
 		M_log.info("destroy()");
 	}
 
+	/**
+	 * Read the properties files again and replace the configuration with what they now hold. The new values are read and parsed before they
+	 * replace the old, all at once - each lookup sees either the old or the new configuration, never a mix. Bean property overrides and
+	 * placeholders are applied only at start-up, and are not changed.
+	 */
+	public synchronized void reload()
+	{
+		Properties reloaded = null;
+		try
+		{
+			reloaded = sakaiProperties.reload();
+		}
+		catch (IOException e)
+		{
+			M_log.warn("reload(): keeping the current configuration: " + e);
+			return;
+		}
+
+		ConfigurationSnapshot old = configuration;
+		ConfigurationSnapshot snapshot = newSnapshot(reloaded, old.getVersion() + 1);
+		this.properties = reloaded;
+		this.configuration = snapshot;
+
+		Map<String, String> changes = snapshot.changesSince(old);
+		M_log.info("reload(): version " + snapshot.getVersion() + ", " + snapshot.size() + " values, " + changes.size() + " changed");
+
+		if (!changes.isEmpty()) notifyListeners(changes, snapshot.getVersion());
+	}
+
+	/**
+	 * Make a snapshot of these properties - read from the mapped configuration file, written if need be, if so configured (and the file can be
+	 * written), or else in memory.
+	 */
+	protected ConfigurationSnapshot newSnapshot(Properties properties, long version)
+	{
+		if (Boolean.valueOf(StringUtil.trimToNull(properties.getProperty(MAPPED))).booleanValue())
+		{
+			File file = new File(getSakaiHomePath(), MAPPED_FILE);
+			try
+			{
+				return new ConfigurationSnapshot(MappedConfiguration.load(file, properties), version);
+			}
+			catch (IOException e)
+			{
+				M_log.warn("newSnapshot(): keeping the configuration in memory: " + e);
+			}
+		}
+
+		return new ConfigurationSnapshot(properties, version);
+	}
+
+	/**
+	 * Give each listener the changes it subscribed to, if any, on the notifier thread.
+	 */
+	protected void notifyListeners(Map<String, String> changes, final long version)
+	{
+		// gather each listener's changes from all its subscriptions, so it gets one call
+		Map<ConfigurationListener, Map<String, String>> notices = new LinkedHashMap<ConfigurationListener, Map<String, String>>();
+		for (Subscription subscription : subscriptions)
+		{
+			for (Map.Entry<String, String> change : changes.entrySet())
+			{
+				if (subscription.matches(change.getKey()))
+				{
+					Map<String, String> notice = notices.get(subscription.listener);
+					if (notice == null)
+					{
+						notice = new HashMap<String, String>();
+						notices.put(subscription.listener, notice);
+					}
+					notice.put(change.getKey(), change.getValue());
+				}
+			}
+		}
+
+		ExecutorService notifier = this.notifier;
+		if (notifier == null) return;
+
+		for (Map.Entry<ConfigurationListener, Map<String, String>> notice : notices.entrySet())
+		{
+			final ConfigurationListener listener = notice.getKey();
+			final Map<String, String> listenerChanges = Collections.unmodifiableMap(notice.getValue());
+			notifier.execute(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						listener.configurationChanged(listenerChanges, version);
+					}
+					catch (Throwable t)
+					{
+						M_log.warn("notifyListeners(): " + listener + " : ", t);
+					}
+				}
+			});
+		}
+	}
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * ServerConfigurationService implementation
 	 *********************************************************************************************************************************************************************************************************************************************************/
 
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getConfigurationVersion()
+	{
+		return configuration.getVersion();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getPropertySource(String name)
+	{
+		return sakaiProperties.getPropertyIndex().getSource(name);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void addConfigurationListener(ConfigurationListener listener, String[] names, String[] prefixes)
+	{
+		subscriptions.add(new Subscription(listener, names, prefixes));
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void removeConfigurationListener(ConfigurationListener listener)
+	{
+		for (Subscription subscription : subscriptions)
+		{
+			if (subscription.listener == listener) subscriptions.remove(subscription);
+		}
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
 	public String getServerId()
 	{
-		return (String) properties.get("serverId");
+		return configuration.getRaw("serverId");
 	}
 
 	/**
@@ -215,10 +425,11 @@ public class BasicConfigurationService implements ServerConfigurationService
 	public String getServerUrl()
 	{
 		// try to get the value pre-computed for this request, to better match the request server naming conventions
-		String rv = (String) threadLocalManager.get(CURRENT_SERVER_URL);
+		RequestUrlContext context = RequestUrlContext.current();
+		String rv = (context != null) ? context.getServerUrl() : (String) threadLocalManager.get(CURRENT_SERVER_URL);
 		if (rv == null)
 		{
-			rv = (String) properties.get("serverUrl");
+			rv = configuration.getRaw("serverUrl");
 		}
 
 		return rv;
@@ -230,7 +441,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getServerName()
 	{
-		return (String) properties.get("serverName");
+		return configuration.getRaw("serverName");
 	}
 
 	/**
@@ -238,7 +449,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getAccessUrl()
 	{
-		return getServerUrl() + (String) properties.get("accessPath");
+		return configuration.getUrls().getAccessUrl(getServerUrl());
 	}
 
 	/**
@@ -246,7 +457,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getAccessPath()
 	{
-		return (String) properties.get("accessPath");
+		return configuration.getRaw("accessPath");
 	}
 
 	/**
@@ -254,7 +465,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getHelpUrl(String helpContext)
 	{
-		String rv = getPortalUrl() + (String) properties.get("helpPath") + "/main";
+		String rv = configuration.getUrls().getHelpUrl(getServerUrl(), getRequestPortalPath());
 		if (helpContext != null)
 		{
 			rv += "?help=" + helpContext;
@@ -268,15 +479,16 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getPortalUrl()
 	{
-		String rv = (String) threadLocalManager.get(CURRENT_PORTAL_PATH);
-		if (rv == null)
-		{
-			rv = (String) properties.get("portalPath");
-		}
-
-		String portalUrl = getServerUrl() + rv;
+		return configuration.getUrls().getPortalUrl(getServerUrl(), getRequestPortalPath());
+	}
 
-		return portalUrl;
+	/**
+	 * @return The portal path pre-computed for this request, or null to use the configured one.
+	 */
+	private String getRequestPortalPath()
+	{
+		RequestUrlContext context = RequestUrlContext.current();
+		return (context != null) ? context.getPortalPath() : (String) threadLocalManager.get(CURRENT_PORTAL_PATH);
 	}
 
 	/**
@@ -284,7 +496,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getToolUrl()
 	{
-		return getServerUrl() + (String) properties.get("toolPath");
+		return configuration.getUrls().getToolUrl(getServerUrl());
 	}
 
 	/**
@@ -292,30 +504,8 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getUserHomeUrl()
 	{
-		// get the configured URL (the text "#UID#" will be repalced with the current logged in user id
-		// NOTE: this is relative to the server root
-		String rv = (String) properties.get("userHomeUrl");
-
-		// form a site based portal id if not configured
-		if (rv == null)
-		{
-			rv = (String) properties.get("portalPath") + "/site/~#UID#";
-		}
-
-		// check for a logged in user
-		String user = sessionManager.getCurrentSessionUserId();
-		boolean loggedIn = (user != null);
-
-		// if logged in, replace the UID in the pattern
-		if (loggedIn)
-		{
-			rv = rv.replaceAll("#UID#", user);
-		}
-
-		// make it full, adding the server root
-		rv = getServerUrl() + rv;
-
-		return rv;
+		// the configured URL (relative to the server root), or a site based portal one, with "#UID#" replaced by the current logged in user id
+		return configuration.getUrls().getUserHomeUrl(getServerUrl(), sessionManager.getCurrentSessionUserId());
 	}
 
 	/**
@@ -323,7 +513,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getGatewaySiteId()
 	{
-		String rv = (String) properties.get("gatewaySiteId");
+		String rv = configuration.getRaw("gatewaySiteId");
 
 		if (rv == null)
 		{
@@ -338,23 +528,8 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getLoggedOutUrl()
 	{
-		String rv = (String) properties.get("loggedOutUrl");
-		if (rv != null)
-		{
-			// if not a full URL, add the server to the front
-			if (rv.startsWith("/"))
-			{
-				rv = getServerUrl() + rv;
-			}
-		}
-
-		// use the portal URL if there's no logout defined
-		else
-		{
-			rv = getPortalUrl();
-		}
-
-		return rv;
+		// the configured URL, with the server added to the front if not a full URL, or the portal URL if there's no logout defined
+		return configuration.getUrls().getLoggedOutUrl(getServerUrl(), getRequestPortalPath());
 	}
 
 	/**
@@ -378,10 +553,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String getString(String name, String dflt)
 	{
-		String rv = StringUtil.trimToNull((String) properties.get(name));
-		if (rv == null) rv = dflt;
-
-		return rv;
+		return configuration.getString(name, dflt);
 	}
 
 	/**
@@ -389,31 +561,56 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public String[] getStrings(String name)
 	{
-		// get the count
-		int count = getInt(name + ".count", 0);
-		if (count > 0)
-		{
-			String[] rv = new String[count];
-			for (int i = 1; i <= count; i++)
-			{
-				rv[i - 1] = getString(name + "." + i, "");
-			}
-			return rv;
-		}
+		List<String> rv = configuration.getList(name);
+		return (rv == null) ? null : rv.toArray(new String[rv.size()]);
+	}
 
-		return null;
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<String> getStringList(String name)
+	{
+		return configuration.getList(name);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public int getInt(String name, int dflt)
+	public List<String> getKeysWithPrefix(String prefix)
 	{
-		String value = getString(name);
+		return configuration.getNamesWithPrefix(prefix);
+	}
 
-		if (value.length() == 0) return dflt;
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, String> getSubset(String prefix)
+	{
+		return configuration.getSubset(prefix);
+	}
 
-		return Integer.parseInt(value);
+	/**
+	 * {@inheritDoc}
+	 */
+	public void forEachWithPrefix(String prefix, ConfigurationVisitor visitor)
+	{
+		configuration.forEachWithPrefix(prefix, visitor);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getInt(String name, int dflt)
+	{
+		return configuration.getInt(name, dflt);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getLong(String name, long dflt)
+	{
+		return configuration.getLong(name, dflt);
 	}
 
 	/**
@@ -421,62 +618,79 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public boolean getBoolean(String name, boolean dflt)
 	{
-		String value = getString(name);
+		return configuration.getBoolean(name, dflt);
+	}
 
-		if (value.length() == 0) return dflt;
+	/**
+	 * {@inheritDoc}
+	 */
+	public List<String> getCommaList(String name)
+	{
+		return configuration.getTyped().getCommaList(name);
+	}
 
-		return Boolean.valueOf(value).booleanValue();
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getCommaSet(String name)
+	{
+		return configuration.getTyped().getCommaSet(name);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public List getToolOrder(String category)
+	public Map<String, String> getKeyValueMap(String name)
 	{
-		if (category != null)
-		{
-			List order = (List) m_toolOrders.get(category);
-			if (order != null)
-			{
-				return order;
-			}
-		}
+		return configuration.getTyped().getKeyValueMap(name);
+	}
 
-		return new Vector();
+	/**
+	 * {@inheritDoc}
+	 */
+	public long getDuration(String name, TimeUnit unit, long dflt)
+	{
+		return configuration.getTyped().getDuration(name, unit, dflt);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public List getToolsRequired(String category)
+	public long getByteSize(String name, long dflt)
 	{
-		if (category != null)
-		{
-			List order = (List) m_toolsRequired.get(category);
-			if (order != null)
-			{
-				return order;
-			}
-		}
+		return configuration.getTyped().getByteSize(name, dflt);
+	}
 
-		return new Vector();
+	/**
+	 * {@inheritDoc}
+	 */
+	public <E extends Enum<E>> E getEnum(String name, Class<E> type, E dflt)
+	{
+		return configuration.getTyped().getEnum(name, type, dflt);
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
-	public List getDefaultTools(String category)
+	public List getToolOrder(String category)
 	{
-		if (category != null)
-		{
-			List order = (List) m_defaultTools.get(category);
-			if (order != null)
-			{
-				return order;
-			}
-		}
+		return getToolOrderModel(category).getOrder();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public List getToolsRequired(String category)
+	{
+		return getToolOrderModel(category).getRequired();
+	}
 
-		return new Vector();
+	/**
+	 * {@inheritDoc}
+	 */
+	public List getDefaultTools(String category)
+	{
+		return getToolOrderModel(category).getDefaults();
 	}
 
 	/**
@@ -484,16 +698,7 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public List<String> getToolCategories(String category)
 	{
-		if (category != null)
-		{
-			List<String> categories = m_toolCategoriesList.get(category);
-			if (categories != null)
-			{
-				return categories;
-			}
-		}
-
-		return new Vector();
+		return getToolOrderModel(category).getCategories();
 	}
 
 	/**
@@ -501,166 +706,124 @@ public class BasicConfigurationService implements ServerConfigurationService
 	 */
 	public Map<String, List<String>> getToolCategoriesAsMap(String category)
 	{
-		if (category != null)
-		{
-			Map<String, List<String>> categories = m_toolCategoriesMap.get(category);
-			if (categories != null)
-			{
-				return categories;
-			}
-		}
-
-		return new HashMap();
+		return getToolOrderModel(category).getCategoryTools();
 	}
 
 	/**
 	 * {@inheritDoc}
 	 */
 	public Map<String, String> getToolToCategoryMap(String category)
+	{
+		return getToolOrderModel(category).getToolCategory();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean isToolRequired(String category, String toolId)
+	{
+		return getToolOrderModel(category).isRequired(toolId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean isToolDefault(String category, String toolId)
+	{
+		return getToolOrderModel(category).isDefault(toolId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int getToolPosition(String category, String toolId)
+	{
+		return getToolOrderModel(category).positionOf(toolId);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Comparator<String> getToolOrderComparator(String category)
+	{
+		return getToolOrderModel(category).getComparator();
+	}
+
+	/**
+	 * @return The tool order for this category, or an empty one if there is none.
+	 */
+	protected ToolOrder getToolOrderModel(String category)
 	{
 		if (category != null)
 		{
-			Map<String, String> categories = m_toolToToolCategoriesMap.get(category);
-			if (categories != null)
+			ToolOrder order = m_toolOrders.get(category);
+			if (order != null)
 			{
-				return categories;
+				return order;
 			}
 		}
 
-		return new HashMap();
+		return ToolOrder.EMPTY;
 	}
 
 	/**
-	 * Load this single file as a registration file, loading tools and locks.
-	 * 
-	 * @param in
-	 *        The Stream to load
+	 * Load the tool order from the file in the sakai home area, if there, or else the distributed defaults from the classpath, replacing the
+	 * tool order loaded before (if the file can be read).
 	 */
-	private void loadToolOrder(InputStream in)
+	protected void loadToolOrders()
 	{
-		Document doc = Xml.readDocumentFromStream(in);
-		Element root = doc.getDocumentElement();
-		if (!root.getTagName().equals("toolOrder"))
+		if (toolOrderFile == null) return;
+
+		File f = new File(toolOrderFile);
+		if (f.exists())
 		{
-			M_log.info("loadToolOrder: invalid root element (expecting \"toolOrder\"): " + root.getTagName());
-			return;
+			try
+			{
+				loadToolOrder(new FileInputStream(f));
+			}
+			catch (Throwable t)
+			{
+				M_log.warn("loadToolOrders(): trouble loading tool order from : " + toolOrderFile, t);
+			}
 		}
-
-		// read the children nodes
-		NodeList rootNodes = root.getChildNodes();
-		final int rootNodesLength = rootNodes.getLength();
-		for (int i = 0; i < rootNodesLength; i++)
+		else
 		{
-			Node rootNode = rootNodes.item(i);
-			if (rootNode.getNodeType() != Node.ELEMENT_NODE) continue;
-			Element rootElement = (Element) rootNode;
-
-			// look for "category" elements
-			if (rootElement.getTagName().equals("category"))
+			// start with the distributed defaults from the classpath
+			try
 			{
-				String name = StringUtil.trimToNull(rootElement.getAttribute("name"));
-				if (name != null)
-				{
-					// form a list for this category
-					List order = (List) m_toolOrders.get(name);
-					if (order == null)
-					{
-						order = new Vector();
-						m_toolOrders.put(name, order);
-
-						List required = new Vector();
-						m_toolsRequired.put(name, required);
-						List defaultTools = new Vector();
-						m_defaultTools.put(name, defaultTools);
-
-                  List<String> toolCategories = new Vector();
-                  m_toolCategoriesList.put(name, toolCategories);
-
-                  Map<String, List<String>> toolCategoryMappings = new HashMap();
-                  m_toolCategoriesMap.put(name, toolCategoryMappings);
-                  
-                  Map<String, String> toolToCategoryMap = new HashMap();
-                  m_toolToToolCategoriesMap.put(name, toolToCategoryMap);
-
-						// get the kids
-						NodeList nodes = rootElement.getChildNodes();
-						final int nodesLength = nodes.getLength();
-						for (int c = 0; c < nodesLength; c++)
-						{
-							Node node = nodes.item(c);
-							if (node.getNodeType() != Node.ELEMENT_NODE) continue;
-							Element element = (Element) node;
-
-							if (element.getTagName().equals("tool"))
-							{
-                        processTool(element, order, required, defaultTools);
-                     }
-                     else if (element.getTagName().equals("toolCategory")) {
-                        processCategory(element, order, required, defaultTools, 
-                           toolCategories, toolCategoryMappings, toolToCategoryMap);
-                     }
-                  }
-					}
-				}
+				loadToolOrder(defaultToolOrderResource.getInputStream());
+			}
+			catch (Throwable t)
+			{
+				M_log.warn("loadToolOrders(): trouble loading tool order from default toolOrder.xml", t);
 			}
 		}
 	}
 
-   private void processCategory(Element element, List order, List required,
-                                  List defaultTools, List<String> toolCategories,
-                                  Map<String, List<String>> toolCategoryMappings, 
-                                  Map<String, String> toolToCategoryMap) {
-      String name = element.getAttribute("id");      
-      NodeList nameList = element.getElementsByTagName("name");
-      
-      if (nameList.getLength() > 0) {
-         Element nameElement = (Element) nameList.item(0);
-         name = nameElement.getTextContent();
-      }
-      
-      toolCategories.add(name);
-      List<String> toolCategoryTools = new Vector();
-      toolCategoryMappings.put(name, toolCategoryTools);
-      
-      NodeList nodes = element.getChildNodes();
-      final int nodesLength = nodes.getLength();
-      for (int c = 0; c < nodesLength; c++)
-      {
-         Node node = nodes.item(c);
-         if (node.getNodeType() != Node.ELEMENT_NODE) continue;
-         Element toolElement = (Element) node;
-
-         if (toolElement.getTagName().equals("tool"))
-         {
-            String id = processTool(toolElement, order, required, defaultTools);
-            toolCategoryTools.add(id);
-            toolToCategoryMap.put(id, name);
-         }
-      }      
-   }
-
-   private String processTool(Element element, List order, List required, List defaultTools) {
-								String id = StringUtil.trimToNull(element.getAttribute("id"));
-								if (id != null)
-								{
-									order.add(id);
-								}
-
-								String req = StringUtil.trimToNull(element.getAttribute("required"));
-								if ((req != null) && (Boolean.TRUE.toString().equalsIgnoreCase(req)))
-								{
-									required.add(id);
-								}
-
-								String sel = StringUtil.trimToNull(element.getAttribute("selected"));
-								if ((sel != null) && (Boolean.TRUE.toString().equalsIgnoreCase(sel)))
-								{
-									defaultTools.add(id);
-								}
-      return id;
+	/**
+	 * Load this single file as a tool order file, replacing the tool order loaded before.
+	 * 
+	 * @param in
+	 *        The Stream to load - closed when done.
+	 */
+	private void loadToolOrder(InputStream in) throws XMLStreamException, IOException
+	{
+		long start = System.currentTimeMillis();
+		try
+		{
+			Map<String, ToolOrder> toolOrders = ToolOrderLoader.load(in);
+			if (toolOrders != null)
+			{
+				m_toolOrders = toolOrders;
+				M_log.info("loadToolOrder: " + toolOrders.size() + " categories in " + (System.currentTimeMillis() - start) + " ms");
+			}
+		}
+		finally
+		{
+			in.close();
+		}
 	}
 
-
 	public void setThreadLocalManager(ThreadLocalManager threadLocalManager) {
 		this.threadLocalManager = threadLocalManager;
 	}
@@ -680,4 +843,35 @@ public class BasicConfigurationService implements ServerConfigurationService
 	public void setSakaiProperties(SakaiProperties sakaiProperties) {
 		this.sakaiProperties = sakaiProperties;
 	}
+
+	/**
+	 * A listener's interest in some configuration values.
+	 */
+	private static class Subscription
+	{
+		private final ConfigurationListener listener;
+
+		private final Set<String> names;
+
+		private final String[] prefixes;
+
+		private Subscription(ConfigurationListener listener, String[] names, String[] prefixes)
+		{
+			this.listener = listener;
+			this.names = (names == null) ? Collections.<String> emptySet() : new HashSet<String>(Arrays.asList(names));
+			this.prefixes = (prefixes == null) ? new String[0] : prefixes.clone();
+		}
+
+		private boolean matches(String name)
+		{
+			if (names.contains(name)) return true;
+
+			for (String prefix : prefixes)
+			{
+				if (name.startsWith(prefix)) return true;
+			}
+
+			return false;
+		}
+	}
 }
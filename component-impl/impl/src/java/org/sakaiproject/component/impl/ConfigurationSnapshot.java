@@ -0,0 +1,713 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.RandomAccess;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.component.api.ConfigurationVisitor;
+import org.sakaiproject.util.StringUtil;
+
+/**
+ * <p>
+ * ConfigurationSnapshot is an immutable copy of the configuration properties, with each value's trimmed form and its int, long and boolean
+ * readings worked out once, when the snapshot is made. Reading a value is a lookup in a map that is never changed, so it needs no lock and
+ * creates no objects.
+ * </p>
+ * <p>
+ * A value meant as a number that is not a valid one (a decimal, say, or one with separators) is reported once, when the snapshot is made. Any
+ * value that is not a valid number reads as not set when asked for as a number.
+ * </p>
+ * <p>
+ * Arrays of values - a name + ".count" value giving how many, and name + ".1" to name + "." + count the values - are gathered into shared,
+ * unmodifiable lists when the snapshot is made, too, and the server URL templates prepared.
+ * </p>
+ * <p>
+ * A snapshot may instead read its values from a MappedConfiguration file, which keeps them off the heap, with their readings worked out when
+ * the file was written. Reading a number or boolean from the file makes no objects either; reading a string makes the string.
+ * </p>
+ * <p>
+ * The names are kept sorted too (in memory, or in the file), so the values whose names start with a prefix are found by two binary searches, and
+ * handed out as views of the sorted names, not copies.
+ * </p>
+ * <p>
+ * Values read as lists, maps, durations, sizes or enums are parsed the first time they are read so, and the results kept with the snapshot.
+ * </p>
+ * <p>
+ * When the configuration is reloaded a new snapshot, with the next version number, replaces the old one whole; a reader never sees a mix of old
+ * and new values.
+ * </p>
+ */
+public class ConfigurationSnapshot
+{
+	/** Our log (commons). */
+	private static Log M_log = LogFactory.getLog(ConfigurationSnapshot.class);
+
+	/** The values, by name - never changed once made - or null if mapped. */
+	private final Map<String, Value> m_values;
+
+	/** The values, mapped from a file, or null if in memory. */
+	private final MappedConfiguration m_mapped;
+
+	/** The names, sorted, and their values, in the same order - or null if mapped (the file is sorted). */
+	private final String[] m_sortedNames;
+
+	private final Value[] m_sortedValues;
+
+	/** The arrays of values, by base name - never changed once made. */
+	private final Map<String, List<String>> m_lists;
+
+	/** The suffix of the name of the value that gives the size of an array of values. */
+	private static final String COUNT = ".count";
+
+	/** The snapshot version. */
+	private final long m_version;
+
+	/** The server URLs, made from this snapshot's paths. */
+	private final UrlTemplates m_urls;
+
+	/** The values read as structured types, parsed as they are first read. */
+	private final TypedValues m_typed;
+
+	/**
+	 * Make a snapshot of these properties.
+	 *
+	 * @param properties
+	 *        The properties (their own entries, not their defaults).
+	 * @param version
+	 *        The snapshot version.
+	 */
+	public ConfigurationSnapshot(Properties properties, long version)
+	{
+		this(read(properties), null, version);
+	}
+
+	/**
+	 * Make a snapshot of the values in this file.
+	 *
+	 * @param mapped
+	 *        The configuration file, mapped.
+	 * @param version
+	 *        The snapshot version.
+	 */
+	public ConfigurationSnapshot(MappedConfiguration mapped, long version)
+	{
+		this(null, mapped, version);
+	}
+
+	private ConfigurationSnapshot(Map<String, Value> values, MappedConfiguration mapped, long version)
+	{
+		m_values = values;
+		m_mapped = mapped;
+		m_version = version;
+
+		if (values != null)
+		{
+			m_sortedNames = values.keySet().toArray(new String[values.size()]);
+			Arrays.sort(m_sortedNames);
+			m_sortedValues = new Value[m_sortedNames.length];
+			for (int i = 0; i < m_sortedNames.length; i++)
+			{
+				m_sortedValues[i] = values.get(m_sortedNames[i]);
+			}
+		}
+		else
+		{
+			m_sortedNames = null;
+			m_sortedValues = null;
+		}
+
+		// gather the arrays of values
+		Map<String, List<String>> lists = new HashMap<String, List<String>>();
+		for (String name : getNames())
+		{
+			if (!name.endsWith(COUNT)) continue;
+
+			int count = getInt(name, 0);
+			if (count <= 0) continue;
+
+			String base = name.substring(0, name.length() - COUNT.length());
+			List<String> list = new ArrayList<String>(count);
+			for (int i = 1; i <= count; i++)
+			{
+				list.add(getString(base + "." + i, ""));
+			}
+			lists.put(base, Collections.unmodifiableList(list));
+		}
+
+		m_lists = lists;
+
+		m_urls = new UrlTemplates(this);
+		m_typed = new TypedValues(this);
+	}
+
+	/**
+	 * Read the string values from these properties.
+	 */
+	private static Map<String, Value> read(Properties properties)
+	{
+		Map<String, Value> rv = new HashMap<String, Value>();
+		for (Map.Entry<Object, Object> entry : properties.entrySet())
+		{
+			if ((entry.getKey() instanceof String) && (entry.getValue() instanceof String))
+			{
+				rv.put((String) entry.getKey(), new Value((String) entry.getKey(), (String) entry.getValue()));
+			}
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The names of the values set.
+	 */
+	public Collection<String> getNames()
+	{
+		return (m_mapped == null) ? m_values.keySet() : m_mapped.getNames();
+	}
+
+	/**
+	 * Access the names that start with a prefix.
+	 *
+	 * @param prefix
+	 *        The prefix.
+	 * @return The names, sorted - a view, not modifiable.
+	 */
+	public List<String> getNamesWithPrefix(String prefix)
+	{
+		int[] range = range(prefix);
+		return new NameRange(range[0], range[1]);
+	}
+
+	/**
+	 * Access the values whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *        The prefix.
+	 * @return The values, trimmed ("" if blank), by full name, sorted by name - a view, not modifiable.
+	 */
+	public Map<String, String> getSubset(String prefix)
+	{
+		int[] range = range(prefix);
+		return new ValueRange(prefix, range[0], range[1]);
+	}
+
+	/**
+	 * Give each value whose name starts with a prefix to a visitor, in name order.
+	 *
+	 * @param prefix
+	 *        The prefix.
+	 * @param visitor
+	 *        The visitor.
+	 */
+	public void forEachWithPrefix(String prefix, ConfigurationVisitor visitor)
+	{
+		int[] range = range(prefix);
+		for (int i = range[0]; i < range[1]; i++)
+		{
+			visitor.visit(nameAt(i), valueAt(i));
+		}
+	}
+
+	/**
+	 * Find the names that start with a prefix - which, sorted, are all together.
+	 *
+	 * @return The index of the first, and the index after the last.
+	 */
+	private int[] range(String prefix)
+	{
+		int count = (m_mapped == null) ? m_sortedNames.length : m_mapped.size();
+
+		// the first name not before the prefix
+		int low = 0;
+		int high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = (m_mapped == null) ? m_sortedNames[mid].compareTo(prefix) : m_mapped.compareName(mid, prefix);
+			if (cmp < 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		int first = low;
+
+		// the first name from there that does not start with it
+		high = count;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			boolean starts = (m_mapped == null) ? m_sortedNames[mid].startsWith(prefix) : m_mapped.nameStartsWith(mid, prefix);
+			if (starts)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+
+		return new int[] {first, low};
+	}
+
+	private String nameAt(int index)
+	{
+		return (m_mapped == null) ? m_sortedNames[index] : m_mapped.getName(index);
+	}
+
+	private String valueAt(int index)
+	{
+		String rv = (m_mapped == null) ? m_sortedValues[index].trimmed : m_mapped.getTrimmed(index);
+		return (rv == null) ? "" : rv;
+	}
+
+	/**
+	 * @return The configuration file this snapshot reads, or null if it is in memory.
+	 */
+	public MappedConfiguration getMapped()
+	{
+		return m_mapped;
+	}
+
+	/**
+	 * @return The server URLs, made from this snapshot's paths.
+	 */
+	public UrlTemplates getUrls()
+	{
+		return m_urls;
+	}
+
+	/**
+	 * @return The values read as structured types, parsed (once) as they are first read.
+	 */
+	public TypedValues getTyped()
+	{
+		return m_typed;
+	}
+
+	/**
+	 * Access an array of values.
+	 *
+	 * @param name
+	 *        The array's base name.
+	 * @return The values, trimmed, with "" for any not set - shared, and not modifiable - or null if name + ".count" is not set to a positive int.
+	 */
+	public List<String> getList(String name)
+	{
+		return m_lists.get(name);
+	}
+
+	/**
+	 * @return The snapshot version.
+	 */
+	public long getVersion()
+	{
+		return m_version;
+	}
+
+	/**
+	 * Find the values that differ between an older snapshot and this one.
+	 *
+	 * @param older
+	 *        The older snapshot.
+	 * @return The values added or changed since the older snapshot, by name, and those removed, mapped to null.
+	 */
+	public Map<String, String> changesSince(ConfigurationSnapshot older)
+	{
+		Map<String, String> rv = new HashMap<String, String>();
+		for (String name : getNames())
+		{
+			String value = getRaw(name);
+			if (!value.equals(older.getRaw(name)))
+			{
+				rv.put(name, value);
+			}
+		}
+
+		for (String name : older.getNames())
+		{
+			if (getRaw(name) == null)
+			{
+				rv.put(name, null);
+			}
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The number of values.
+	 */
+	public int size()
+	{
+		return (m_mapped == null) ? m_values.size() : m_mapped.size();
+	}
+
+	/**
+	 * Access a value as configured, untrimmed.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @return The value, or null if not set.
+	 */
+	public String getRaw(String name)
+	{
+		if (m_mapped != null)
+		{
+			int index = m_mapped.indexOf(name);
+			return (index == -1) ? null : m_mapped.getRaw(index);
+		}
+
+		Value value = m_values.get(name);
+		return (value == null) ? null : value.raw;
+	}
+
+	/**
+	 * Access a value, trimmed.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param dflt
+	 *        The value to return if not set, or blank.
+	 * @return The trimmed value, or the default.
+	 */
+	public String getString(String name, String dflt)
+	{
+		if (m_mapped != null)
+		{
+			int index = m_mapped.indexOf(name);
+			return ((index == -1) || (m_mapped.isBlank(index))) ? dflt : m_mapped.getTrimmed(index);
+		}
+
+		Value value = m_values.get(name);
+		return ((value == null) || (value.trimmed == null)) ? dflt : value.trimmed;
+	}
+
+	/**
+	 * Access a value as an int.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param dflt
+	 *        The value to return if not set, blank, or not a valid int.
+	 * @return The int value, or the default.
+	 */
+	public int getInt(String name, int dflt)
+	{
+		if (m_mapped != null)
+		{
+			int index = m_mapped.indexOf(name);
+			return ((index == -1) || (!m_mapped.isInt(index))) ? dflt : (int) m_mapped.getLong(index);
+		}
+
+		Value value = m_values.get(name);
+		return ((value == null) || (!value.isInt)) ? dflt : value.intValue;
+	}
+
+	/**
+	 * Access a value as a long.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param dflt
+	 *        The value to return if not set, blank, or not a valid long.
+	 * @return The long value, or the default.
+	 */
+	public long getLong(String name, long dflt)
+	{
+		if (m_mapped != null)
+		{
+			int index = m_mapped.indexOf(name);
+			return ((index == -1) || (!m_mapped.isLong(index))) ? dflt : m_mapped.getLong(index);
+		}
+
+		Value value = m_values.get(name);
+		return ((value == null) || (!value.isLong)) ? dflt : value.longValue;
+	}
+
+	/**
+	 * Access a value as a boolean - true if "true" (in any case), false otherwise.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param dflt
+	 *        The value to return if not set, or blank.
+	 * @return The boolean value, or the default.
+	 */
+	public boolean getBoolean(String name, boolean dflt)
+	{
+		if (m_mapped != null)
+		{
+			int index = m_mapped.indexOf(name);
+			return ((index == -1) || (m_mapped.isBlank(index))) ? dflt : m_mapped.getBoolean(index);
+		}
+
+		Value value = m_values.get(name);
+		return ((value == null) || (value.trimmed == null)) ? dflt : value.booleanValue;
+	}
+
+	/**
+	 * The sorted names from one index to before another.
+	 */
+	private class NameRange extends AbstractList<String> implements RandomAccess
+	{
+		private final int m_first;
+
+		private final int m_end;
+
+		private NameRange(int first, int end)
+		{
+			m_first = first;
+			m_end = end;
+		}
+
+		public String get(int index)
+		{
+			if ((index < 0) || (index >= size())) throw new IndexOutOfBoundsException(Integer.toString(index));
+			return nameAt(m_first + index);
+		}
+
+		public int size()
+		{
+			return m_end - m_first;
+		}
+	}
+
+	/**
+	 * The values with the sorted names from one index to before another - all those with a prefix.
+	 */
+	private class ValueRange extends AbstractMap<String, String>
+	{
+		private final String m_prefix;
+
+		private final int m_first;
+
+		private final int m_end;
+
+		private ValueRange(String prefix, int first, int end)
+		{
+			m_prefix = prefix;
+			m_first = first;
+			m_end = end;
+		}
+
+		public int size()
+		{
+			return m_end - m_first;
+		}
+
+		public boolean containsKey(Object key)
+		{
+			return (key instanceof String) && ((String) key).startsWith(m_prefix) && (getRaw((String) key) != null);
+		}
+
+		public String get(Object key)
+		{
+			if (!containsKey(key)) return null;
+			return getString((String) key, "");
+		}
+
+		public Set<Map.Entry<String, String>> entrySet()
+		{
+			return new AbstractSet<Map.Entry<String, String>>()
+			{
+				public int size()
+				{
+					return m_end - m_first;
+				}
+
+				public Iterator<Map.Entry<String, String>> iterator()
+				{
+					return new Iterator<Map.Entry<String, String>>()
+					{
+						private int m_next = m_first;
+
+						public boolean hasNext()
+						{
+							return m_next < m_end;
+						}
+
+						public Map.Entry<String, String> next()
+						{
+							if (m_next >= m_end) throw new NoSuchElementException();
+							Map.Entry<String, String> rv = new NameValue(nameAt(m_next), valueAt(m_next));
+							m_next++;
+							return rv;
+						}
+
+						public void remove()
+						{
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
+	}
+
+	/**
+	 * A name and value, as a map entry that cannot be changed.
+	 */
+	private static class NameValue implements Map.Entry<String, String>
+	{
+		private final String m_name;
+
+		private final String m_value;
+
+		private NameValue(String name, String value)
+		{
+			m_name = name;
+			m_value = value;
+		}
+
+		public String getKey()
+		{
+			return m_name;
+		}
+
+		public String getValue()
+		{
+			return m_value;
+		}
+
+		public String setValue(String value)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Map.Entry)) return false;
+
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+			return m_name.equals(other.getKey()) && m_value.equals(other.getValue());
+		}
+
+		public int hashCode()
+		{
+			return m_name.hashCode() ^ m_value.hashCode();
+		}
+
+		public String toString()
+		{
+			return m_name + "=" + m_value;
+		}
+	}
+
+	/**
+	 * One configuration value, in all its readings - worked out here for the mapped configuration file, too.
+	 */
+	static class Value
+	{
+		final String raw;
+
+		final String trimmed;
+
+		final boolean isInt;
+
+		final int intValue;
+
+		final boolean isLong;
+
+		final long longValue;
+
+		final boolean booleanValue;
+
+		Value(String name, String raw)
+		{
+			this.raw = raw;
+			this.trimmed = StringUtil.trimToNull(raw);
+			this.booleanValue = Boolean.valueOf(this.trimmed).booleanValue();
+
+			long parsed = 0;
+			boolean isLong = false;
+			if (this.trimmed != null)
+			{
+				try
+				{
+					parsed = Long.parseLong(this.trimmed);
+					isLong = true;
+				}
+				catch (NumberFormatException e)
+				{
+					// only worth reporting if it looks like it was meant to be a number
+					if (looksNumeric(this.trimmed))
+					{
+						M_log.warn("malformed number for: " + name + " : " + this.trimmed);
+					}
+				}
+			}
+
+			this.isLong = isLong;
+			this.longValue = parsed;
+			this.isInt = isLong && (parsed >= Integer.MIN_VALUE) && (parsed <= Integer.MAX_VALUE);
+			this.intValue = this.isInt ? (int) parsed : 0;
+
+			if (isLong && !this.isInt)
+			{
+				if (M_log.isDebugEnabled()) M_log.debug("value too large for an int: " + name + " : " + this.trimmed);
+			}
+		}
+
+		/**
+		 * @return true if the value is made of digits, signs and separators only - meant as a number, even if not one Java can read.
+		 */
+		private static boolean looksNumeric(String value)
+		{
+			boolean digits = false;
+			for (int i = 0; i < value.length(); i++)
+			{
+				char c = value.charAt(i);
+				if (Character.isDigit(c))
+				{
+					digits = true;
+				}
+				else if ("+-.,_ ".indexOf(c) == -1)
+				{
+					return false;
+				}
+			}
+
+			return digits;
+		}
+	}
+}
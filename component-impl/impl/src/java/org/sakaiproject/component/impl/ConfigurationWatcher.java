@@ -0,0 +1,160 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * ConfigurationWatcher checks a set of configuration files every so often, on its own daemon thread, and runs an action when any of them has
+ * changed - been modified, resized, created or removed.
+ * </p>
+ * <p>
+ * A change is acted on only once the files have stayed the same for a whole interval, so a file caught half-written by an editor or a deployment
+ * script is not read.
+ * </p>
+ */
+public class ConfigurationWatcher implements Runnable
+{
+	/** Our log (commons). */
+	private static Log M_log = LogFactory.getLog(ConfigurationWatcher.class);
+
+	/** The files watched. */
+	private final File[] m_files;
+
+	/** How long to wait between checks, in ms. */
+	private final long m_interval;
+
+	/** What to do when the files change. */
+	private final Runnable m_action;
+
+	/** The watching thread, or null if not started. */
+	private Thread m_thread = null;
+
+	/** Set to stop watching. */
+	private volatile boolean m_stopped = false;
+
+	/**
+	 * Construct.
+	 *
+	 * @param name
+	 *        The thread name.
+	 * @param files
+	 *        The files to watch - they need not exist yet.
+	 * @param interval
+	 *        How long to wait between checks, in ms.
+	 * @param action
+	 *        What to do, on the watching thread, when the files change.
+	 */
+	public ConfigurationWatcher(String name, File[] files, long interval, Runnable action)
+	{
+		m_files = files.clone();
+		m_interval = interval;
+		m_action = action;
+		m_thread = new Thread(this, name);
+		m_thread.setDaemon(true);
+	}
+
+	/**
+	 * Start watching.
+	 */
+	public void start()
+	{
+		m_thread.start();
+		M_log.info("start: watching " + Arrays.asList(m_files) + " every " + m_interval + " ms");
+	}
+
+	/**
+	 * Stop watching, waiting for an action under way to finish.
+	 */
+	public void stop()
+	{
+		m_stopped = true;
+		m_thread.interrupt();
+		try
+		{
+			m_thread.join(m_interval);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public void run()
+	{
+		long[] acted = stamps();
+		long[] seen = acted;
+
+		while (!m_stopped)
+		{
+			try
+			{
+				Thread.sleep(m_interval);
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+
+			long[] now = stamps();
+
+			// act on a change once it has settled - the same as at the last check, and different from what we last acted on
+			if (Arrays.equals(now, seen) && !Arrays.equals(now, acted))
+			{
+				acted = now;
+				try
+				{
+					m_action.run();
+				}
+				catch (Throwable t)
+				{
+					M_log.warn("run: ", t);
+				}
+			}
+
+			seen = now;
+		}
+	}
+
+	/**
+	 * @return The last modified time and length of each file - both 0 for a missing file.
+	 */
+	protected long[] stamps()
+	{
+		long[] rv = new long[m_files.length * 2];
+		for (int i = 0; i < m_files.length; i++)
+		{
+			rv[i * 2] = m_files[i].lastModified();
+			rv[i * 2 + 1] = m_files[i].length();
+		}
+
+		return rv;
+	}
+}
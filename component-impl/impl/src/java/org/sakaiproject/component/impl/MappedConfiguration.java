@@ -0,0 +1,614 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * MappedConfiguration is the configuration, resolved, in a binary file that is memory-mapped for reading, so that however many values there
+ * are, they take no heap. The file holds the values sorted by name, with a fixed size entry for each - giving where its name and value are, the
+ * value's trimmed extent, and its long, int and boolean readings, worked out when the file was written - and then the names and values
+ * themselves, in UTF-8:
+ * </p>
+ *
+ * <pre>
+ * header:  magic (int), format (int), checksum (long), count (int), entries checksum (int)
+ * entries: count x { name offset, name length, value offset, value length, trim offset, trim length, flags (ints), long value (long) }
+ * data:    the names and values
+ * </pre>
+ * <p>
+ * A value is found by a binary search of the entries, which, for names in ASCII, compares the name asked for with the name in the file without
+ * making any objects. Its numbers and boolean are read from its entry; only its strings need to be made.
+ * </p>
+ * <p>
+ * The checksum covers the names and values, so a file already written for the same configuration is used as it is, and not written again.
+ * Opening a file works its checksums out again, from the names and values and from the entries, and checks its layout against its size, so a
+ * file cut short or damaged is written again, not used. The file is never changed once written - a new one, written under a name of its own,
+ * replaces it - so it may be read by many threads at once.
+ * </p>
+ */
+public class MappedConfiguration
+{
+	/** Our log (commons). */
+	private static Log M_log = LogFactory.getLog(MappedConfiguration.class);
+
+	/** The start of the file: "SAKC". */
+	protected static final int MAGIC = 0x53414B43;
+
+	/** The file format - changed if the layout changes, so old files are written again. */
+	protected static final int FORMAT = 2;
+
+	protected static final int HEADER_SIZE = 24;
+
+	protected static final int ENTRY_SIZE = 40;
+
+	/** The entry flags. */
+	protected static final int IS_LONG = 1;
+
+	protected static final int IS_INT = 2;
+
+	protected static final int BOOLEAN = 4;
+
+	protected static final int TRIMMED = 8;
+
+	protected static final int ASCII_NAME = 16;
+
+	protected static final String UTF8 = "UTF-8";
+
+	/** How much of the file to checksum at a time, when opening it. */
+	protected static final int CHUNK_SIZE = 8192;
+
+	/** The file, mapped - read only with absolute gets, which are safe for many threads. */
+	protected final MappedByteBuffer m_buffer;
+
+	protected final int m_count;
+
+	protected final long m_checksum;
+
+	protected final File m_file;
+
+	/**
+	 * Use the file for this configuration if it has been written already, or write it.
+	 *
+	 * @param file
+	 *        The file.
+	 * @param properties
+	 *        The configuration.
+	 * @return The configuration, mapped.
+	 * @throws IOException
+	 *         if the file cannot be written or mapped.
+	 */
+	public static MappedConfiguration load(File file, Properties properties) throws IOException
+	{
+		Map<String, String> sorted = sort(properties);
+		long checksum = checksum(sorted);
+
+		if (file.isFile())
+		{
+			try
+			{
+				MappedConfiguration rv = open(file);
+				if (rv.getChecksum() == checksum)
+				{
+					M_log.info("load: unchanged: " + file + " : " + rv.size() + " values");
+					return rv;
+				}
+			}
+			catch (IOException e)
+			{
+				M_log.info("load: replacing unreadable: " + file + " : " + e);
+			}
+		}
+
+		write(file, sorted, checksum);
+		MappedConfiguration rv = open(file);
+		M_log.info("load: written: " + file + " : " + rv.size() + " values, " + file.length() + " bytes");
+		return rv;
+	}
+
+	/**
+	 * Map a file written before.
+	 *
+	 * @param file
+	 *        The file.
+	 * @return The configuration, mapped.
+	 * @throws IOException
+	 *         if the file cannot be read, or is not a configuration file of this format.
+	 */
+	public static MappedConfiguration open(File file) throws IOException
+	{
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try
+		{
+			// the mapping lasts after the file is closed
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			return new MappedConfiguration(file, buffer);
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	protected MappedConfiguration(File file, MappedByteBuffer buffer) throws IOException
+	{
+		if ((buffer.capacity() < HEADER_SIZE) || (buffer.getInt(0) != MAGIC))
+		{
+			throw new IOException("not a configuration file: " + file);
+		}
+		if (buffer.getInt(4) != FORMAT)
+		{
+			throw new IOException("configuration file format " + buffer.getInt(4) + ", not " + FORMAT + ": " + file);
+		}
+
+		m_file = file;
+		m_buffer = buffer;
+		m_checksum = buffer.getLong(8);
+		m_count = buffer.getInt(16);
+
+		if ((m_count < 0) || (HEADER_SIZE + ((long) m_count * ENTRY_SIZE) > buffer.capacity()))
+		{
+			throw new IOException("truncated configuration file: " + file);
+		}
+
+		verify();
+	}
+
+	/**
+	 * Check that the entries lay the names and values out end to end, to the end of the file, and that the checksums, worked out again, are
+	 * those written.
+	 *
+	 * @throws IOException
+	 *         if not.
+	 */
+	protected void verify() throws IOException
+	{
+		byte[] chunk = new byte[CHUNK_SIZE];
+		CRC32 crc = new CRC32();
+		update(crc, HEADER_SIZE, m_count * ENTRY_SIZE, chunk);
+		if ((int) crc.getValue() != m_buffer.getInt(20))
+		{
+			throw new IOException("damaged configuration file: " + m_file);
+		}
+
+		crc.reset();
+		long offset = HEADER_SIZE + ((long) m_count * ENTRY_SIZE);
+		for (int i = 0; i < m_count; i++)
+		{
+			int entry = entry(i);
+			long nameLength = m_buffer.getInt(entry + 4);
+			long valueOffset = m_buffer.getInt(entry + 8);
+			long valueLength = m_buffer.getInt(entry + 12);
+			long trimOffset = m_buffer.getInt(entry + 16);
+			long trimLength = m_buffer.getInt(entry + 20);
+			if ((m_buffer.getInt(entry) != offset) || (nameLength < 0) || (valueOffset != offset + nameLength) || (valueLength < 0)
+					|| (valueOffset + valueLength > m_buffer.capacity()) || (trimOffset < valueOffset) || (trimLength < 0)
+					|| (trimOffset + trimLength > valueOffset + valueLength))
+			{
+				throw new IOException("truncated configuration file: " + m_file);
+			}
+
+			update(crc, (int) offset, (int) nameLength, chunk);
+			crc.update(0);
+			update(crc, (int) valueOffset, (int) valueLength, chunk);
+			crc.update(0);
+
+			offset = valueOffset + valueLength;
+		}
+
+		if (offset != m_buffer.capacity())
+		{
+			throw new IOException("truncated configuration file: " + m_file);
+		}
+		if (((((long) m_count) << 32) ^ crc.getValue()) != m_checksum)
+		{
+			throw new IOException("damaged configuration file: " + m_file);
+		}
+	}
+
+	/**
+	 * Add some of the file to a checksum.
+	 */
+	protected void update(CRC32 crc, int offset, int length, byte[] chunk)
+	{
+		ByteBuffer buffer = m_buffer.duplicate();
+		buffer.position(offset);
+		while (length > 0)
+		{
+			int n = Math.min(length, chunk.length);
+			buffer.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+			length -= n;
+		}
+	}
+
+	/**
+	 * @return The file.
+	 */
+	public File getFile()
+	{
+		return m_file;
+	}
+
+	/**
+	 * @return The checksum of the names and values.
+	 */
+	public long getChecksum()
+	{
+		return m_checksum;
+	}
+
+	/**
+	 * @return The number of values.
+	 */
+	public int size()
+	{
+		return m_count;
+	}
+
+	/**
+	 * Find a value.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @return The value's index, or -1 if it is not set.
+	 */
+	public int indexOf(String name)
+	{
+		int low = 0;
+		int high = m_count - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = compareName(mid, name);
+			if (cmp < 0)
+			{
+				low = mid + 1;
+			}
+			else if (cmp > 0)
+			{
+				high = mid - 1;
+			}
+			else
+			{
+				return mid;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * @return The names, in order.
+	 */
+	public List<String> getNames()
+	{
+		List<String> rv = new ArrayList<String>(m_count);
+		for (int i = 0; i < m_count; i++)
+		{
+			rv.add(getName(i));
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The name of the value at this index.
+	 */
+	public String getName(int index)
+	{
+		int entry = entry(index);
+		return string(m_buffer.getInt(entry), m_buffer.getInt(entry + 4));
+	}
+
+	/**
+	 * @return The value at this index, as configured.
+	 */
+	public String getRaw(int index)
+	{
+		int entry = entry(index);
+		return string(m_buffer.getInt(entry + 8), m_buffer.getInt(entry + 12));
+	}
+
+	/**
+	 * @return The value at this index, trimmed, or null if it is blank.
+	 */
+	public String getTrimmed(int index)
+	{
+		int entry = entry(index);
+		if ((m_buffer.getInt(entry + 24) & TRIMMED) == 0) return null;
+
+		return string(m_buffer.getInt(entry + 16), m_buffer.getInt(entry + 20));
+	}
+
+	/**
+	 * @return true if the value at this index is blank.
+	 */
+	public boolean isBlank(int index)
+	{
+		return (flags(index) & TRIMMED) == 0;
+	}
+
+	/**
+	 * @return true if the value at this index is a valid long.
+	 */
+	public boolean isLong(int index)
+	{
+		return (flags(index) & IS_LONG) != 0;
+	}
+
+	/**
+	 * @return true if the value at this index is a valid int.
+	 */
+	public boolean isInt(int index)
+	{
+		return (flags(index) & IS_INT) != 0;
+	}
+
+	/**
+	 * @return The value at this index as a long, or 0 if it is not one.
+	 */
+	public long getLong(int index)
+	{
+		return m_buffer.getLong(entry(index) + 32);
+	}
+
+	/**
+	 * @return The value at this index as a boolean - true if "true" (in any case).
+	 */
+	public boolean getBoolean(int index)
+	{
+		return (flags(index) & BOOLEAN) != 0;
+	}
+
+	protected int entry(int index)
+	{
+		if ((index < 0) || (index >= m_count)) throw new IndexOutOfBoundsException(Integer.toString(index));
+
+		return HEADER_SIZE + (index * ENTRY_SIZE);
+	}
+
+	protected int flags(int index)
+	{
+		return m_buffer.getInt(entry(index) + 24);
+	}
+
+	/**
+	 * Compare the name at this index with a name, as String.compareTo() would.
+	 */
+	protected int compareName(int index, String name)
+	{
+		int entry = HEADER_SIZE + (index * ENTRY_SIZE);
+		if ((m_buffer.getInt(entry + 24) & ASCII_NAME) == 0)
+		{
+			return getName(index).compareTo(name);
+		}
+
+		// an ASCII name is one byte per char
+		int offset = m_buffer.getInt(entry);
+		int length = m_buffer.getInt(entry + 4);
+		int n = Math.min(length, name.length());
+		for (int i = 0; i < n; i++)
+		{
+			int diff = (m_buffer.get(offset + i) & 0xff) - name.charAt(i);
+			if (diff != 0) return diff;
+		}
+
+		return length - name.length();
+	}
+
+	/**
+	 * @return true if the name at this index starts with the prefix.
+	 */
+	protected boolean nameStartsWith(int index, String prefix)
+	{
+		int entry = HEADER_SIZE + (index * ENTRY_SIZE);
+		if ((m_buffer.getInt(entry + 24) & ASCII_NAME) == 0)
+		{
+			return getName(index).startsWith(prefix);
+		}
+
+		int offset = m_buffer.getInt(entry);
+		int length = m_buffer.getInt(entry + 4);
+		if (length < prefix.length()) return false;
+		for (int i = 0; i < prefix.length(); i++)
+		{
+			if ((m_buffer.get(offset + i) & 0xff) != prefix.charAt(i)) return false;
+		}
+
+		return true;
+	}
+
+	protected String string(int offset, int length)
+	{
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+		{
+			bytes[i] = m_buffer.get(offset + i);
+		}
+
+		try
+		{
+			return new String(bytes, UTF8);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			// every JVM has UTF-8
+			throw new IllegalStateException(e.toString());
+		}
+	}
+
+	/**
+	 * @return The string names and values, sorted by name.
+	 */
+	protected static Map<String, String> sort(Properties properties)
+	{
+		Map<String, String> rv = new TreeMap<String, String>();
+		for (Map.Entry<Object, Object> entry : properties.entrySet())
+		{
+			if ((entry.getKey() instanceof String) && (entry.getValue() instanceof String))
+			{
+				rv.put((String) entry.getKey(), (String) entry.getValue());
+			}
+		}
+
+		return rv;
+	}
+
+	protected static long checksum(Map<String, String> sorted) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		for (Map.Entry<String, String> entry : sorted.entrySet())
+		{
+			crc.update(entry.getKey().getBytes(UTF8));
+			crc.update(0);
+			crc.update(entry.getValue().getBytes(UTF8));
+			crc.update(0);
+		}
+
+		// the count, too, so that no values and an empty value differ
+		return (((long) sorted.size()) << 32) ^ crc.getValue();
+	}
+
+	/**
+	 * Write the file, to a new file that then replaces any old one - so a reader never sees it half written.
+	 */
+	protected static void write(File file, Map<String, String> sorted, long checksum) throws IOException
+	{
+		int count = sorted.size();
+		byte[][] names = new byte[count][];
+		byte[][] values = new byte[count][];
+		int i = 0;
+		for (Map.Entry<String, String> entry : sorted.entrySet())
+		{
+			names[i] = entry.getKey().getBytes(UTF8);
+			values[i] = entry.getValue().getBytes(UTF8);
+			i++;
+		}
+
+		// the entries first, to checksum them for the header
+		ByteArrayOutputStream entries = new ByteArrayOutputStream(count * ENTRY_SIZE);
+		DataOutputStream out = new DataOutputStream(entries);
+		long offset = HEADER_SIZE + ((long) count * ENTRY_SIZE);
+		i = 0;
+		for (Map.Entry<String, String> entry : sorted.entrySet())
+		{
+			long valueOffset = offset + names[i].length;
+			if (valueOffset + values[i].length > Integer.MAX_VALUE) throw new IOException("configuration too large to map");
+
+			// the trimmed value's extent: String.trim() drops chars up to ' ', which in UTF-8 are single bytes
+			byte[] value = values[i];
+			int start = 0;
+			int end = value.length;
+			while ((start < end) && ((value[start] & 0xff) <= ' '))
+			{
+				start++;
+			}
+			while ((end > start) && ((value[end - 1] & 0xff) <= ' '))
+			{
+				end--;
+			}
+
+			ConfigurationSnapshot.Value readings = new ConfigurationSnapshot.Value(entry.getKey(), entry.getValue());
+			int flags = 0;
+			if (readings.isLong) flags |= IS_LONG;
+			if (readings.isInt) flags |= IS_INT;
+			if (readings.booleanValue) flags |= BOOLEAN;
+			if (readings.trimmed != null) flags |= TRIMMED;
+			if (names[i].length == entry.getKey().length()) flags |= ASCII_NAME;
+
+			out.writeInt((int) offset);
+			out.writeInt(names[i].length);
+			out.writeInt((int) valueOffset);
+			out.writeInt(value.length);
+			out.writeInt((int) valueOffset + start);
+			out.writeInt(end - start);
+			out.writeInt(flags);
+			out.writeInt(0);
+			out.writeLong(readings.longValue);
+
+			offset = valueOffset + value.length;
+			i++;
+		}
+		out.close();
+		CRC32 crc = new CRC32();
+		crc.update(entries.toByteArray());
+
+		// a name of its own, so that two servers sharing sakai.home do not write to the same one
+		File temp = File.createTempFile(file.getName() + ".", ".tmp", file.getAbsoluteFile().getParentFile());
+		boolean written = false;
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT);
+			out.writeLong(checksum);
+			out.writeInt(count);
+			out.writeInt((int) crc.getValue());
+			entries.writeTo(out);
+
+			for (i = 0; i < count; i++)
+			{
+				out.write(names[i]);
+				out.write(values[i]);
+			}
+
+			out.close();
+			written = true;
+		}
+		finally
+		{
+			if (!written)
+			{
+				out.close();
+				temp.delete();
+			}
+		}
+
+		// replace the old file - which, on some systems, cannot be done while it is mapped
+		if ((!temp.renameTo(file)) && (!(file.delete() && temp.renameTo(file))))
+		{
+			temp.delete();
+			throw new IOException("cannot replace: " + file);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * ToolOrder is the tool order for one category (site type) from toolOrder.xml: the tool ids in order, those required and those selected by
+ * default, and the tool categories with their tools. It is immutable, with the lists and maps it hands out unmodifiable, and keeps each tool's
+ * position and its required and default flags indexed, so they are found without a search.
+ * </p>
+ */
+public class ToolOrder
+{
+	/** The tool order for a category with none configured. */
+	public static final ToolOrder EMPTY = new ToolOrder(new ArrayList<String>(), new ArrayList<String>(), new ArrayList<String>(),
+			new ArrayList<String>(), new HashMap<String, List<String>>(), new HashMap<String, String>());
+
+	/** The tool ids, in order. */
+	private final List<String> m_order;
+
+	/** The required tool ids, in order. */
+	private final List<String> m_required;
+
+	/** The default tool ids, in order. */
+	private final List<String> m_defaults;
+
+	/** The tool category ids, in order. */
+	private final List<String> m_categories;
+
+	/** The tool ids in each tool category, by category id. */
+	private final Map<String, List<String>> m_categoryTools;
+
+	/** The tool category id of each tool, by tool id. */
+	private final Map<String, String> m_toolCategory;
+
+	/** Each tool's position in the order, by tool id. */
+	private final Map<String, Integer> m_positions;
+
+	private final Set<String> m_requiredSet;
+
+	private final Set<String> m_defaultSet;
+
+	/** Sorts tool ids into this order. */
+	private final Comparator<String> m_comparator = new Comparator<String>()
+	{
+		public int compare(String a, String b)
+		{
+			int pa = positionOf(a);
+			int pb = positionOf(b);
+
+			// tools not in the order go after those that are
+			if (pa == -1) pa = Integer.MAX_VALUE;
+			if (pb == -1) pb = Integer.MAX_VALUE;
+			return (pa < pb) ? -1 : ((pa == pb) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * Construct - the lists and maps are copied.
+	 *
+	 * @param order
+	 *        The tool ids, in order.
+	 * @param required
+	 *        The required tool ids.
+	 * @param defaults
+	 *        The default tool ids.
+	 * @param categories
+	 *        The tool category ids, in order.
+	 * @param categoryTools
+	 *        The tool ids in each tool category, by category id.
+	 * @param toolCategory
+	 *        The tool category id of each tool, by tool id.
+	 */
+	public ToolOrder(List<String> order, List<String> required, List<String> defaults, List<String> categories,
+			Map<String, List<String>> categoryTools, Map<String, String> toolCategory)
+	{
+		m_order = Collections.unmodifiableList(new ArrayList<String>(order));
+		m_required = Collections.unmodifiableList(new ArrayList<String>(required));
+		m_defaults = Collections.unmodifiableList(new ArrayList<String>(defaults));
+		m_categories = Collections.unmodifiableList(new ArrayList<String>(categories));
+
+		Map<String, List<String>> tools = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String>> entry : categoryTools.entrySet())
+		{
+			tools.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<String>(entry.getValue())));
+		}
+		m_categoryTools = Collections.unmodifiableMap(tools);
+		m_toolCategory = Collections.unmodifiableMap(new HashMap<String, String>(toolCategory));
+
+		// the first position, if a tool is listed more than once
+		Map<String, Integer> positions = new HashMap<String, Integer>();
+		for (int i = m_order.size() - 1; i >= 0; i--)
+		{
+			positions.put(m_order.get(i), i);
+		}
+		m_positions = positions;
+
+		m_requiredSet = new HashSet<String>(m_required);
+		m_defaultSet = new HashSet<String>(m_defaults);
+	}
+
+	/**
+	 * @return The tool ids, in order.
+	 */
+	public List<String> getOrder()
+	{
+		return m_order;
+	}
+
+	/**
+	 * @return The required tool ids, in order.
+	 */
+	public List<String> getRequired()
+	{
+		return m_required;
+	}
+
+	/**
+	 * @return The default tool ids, in order.
+	 */
+	public List<String> getDefaults()
+	{
+		return m_defaults;
+	}
+
+	/**
+	 * @return The tool category ids, in order.
+	 */
+	public List<String> getCategories()
+	{
+		return m_categories;
+	}
+
+	/**
+	 * @return The tool ids in each tool category, by category id.
+	 */
+	public Map<String, List<String>> getCategoryTools()
+	{
+		return m_categoryTools;
+	}
+
+	/**
+	 * @return The tool category id of each tool, by tool id.
+	 */
+	public Map<String, String> getToolCategory()
+	{
+		return m_toolCategory;
+	}
+
+	/**
+	 * @return true if the tool is required, false if not.
+	 */
+	public boolean isRequired(String toolId)
+	{
+		return m_requiredSet.contains(toolId);
+	}
+
+	/**
+	 * @return true if the tool is selected by default, false if not.
+	 */
+	public boolean isDefault(String toolId)
+	{
+		return m_defaultSet.contains(toolId);
+	}
+
+	/**
+	 * @return The tool's position in the order (from 0), or -1 if it is not in the order.
+	 */
+	public int positionOf(String toolId)
+	{
+		Integer rv = m_positions.get(toolId);
+		return (rv == null) ? -1 : rv.intValue();
+	}
+
+	/**
+	 * @return A comparator of tool ids that sorts them into this order, with those not in the order last.
+	 */
+	public Comparator<String> getComparator()
+	{
+		return m_comparator;
+	}
+}
@@ -0,0 +1,300 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.util.StringUtil;
+
+/**
+ * <p>
+ * ToolOrderLoader reads a toolOrder.xml file into a ToolOrder for each category, in one streaming pass (StAX), without building a document.
+ * </p>
+ * <p>
+ * The file is a "toolOrder" element holding "category" elements, each named with a "name" attribute. A category holds "tool" elements, and
+ * "toolCategory" elements, which hold "tool" elements of their own. A tool has an "id", and may be "required" or "selected" (by default). A tool
+ * category has an "id", and may have a "name" element, which names it instead. Only the first category of each name is used.
+ * </p>
+ */
+public class ToolOrderLoader
+{
+	/** Our log (commons). */
+	private static Log M_log = LogFactory.getLog(ToolOrderLoader.class);
+
+	/** Makes the readers - thread safe once configured. */
+	private static final XMLInputFactory FACTORY = newFactory();
+
+	static
+	{
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+
+	/**
+	 * Find the StAX implementation: the JVM's own (Java 6 and later), or else, on Java 5, the one packaged with the component, found through our
+	 * own class loader, whatever the thread's context class loader.
+	 */
+	protected static XMLInputFactory newFactory()
+	{
+		try
+		{
+			return XMLInputFactory.newInstance();
+		}
+		catch (FactoryConfigurationError e)
+		{
+			return XMLInputFactory.newInstance(XMLInputFactory.class.getName(), ToolOrderLoader.class.getClassLoader());
+		}
+	}
+
+	/**
+	 * Read the tool orders.
+	 *
+	 * @param in
+	 *        The toolOrder.xml stream - not closed.
+	 * @return The tool order for each category, by category name, or null if this is not a tool order file.
+	 * @throws XMLStreamException
+	 *         if the file is not well formed.
+	 */
+	public static Map<String, ToolOrder> load(InputStream in) throws XMLStreamException
+	{
+		XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+		try
+		{
+			reader.nextTag();
+			if (!reader.getLocalName().equals("toolOrder"))
+			{
+				M_log.info("load: invalid root element (expecting \"toolOrder\"): " + reader.getLocalName());
+				return null;
+			}
+
+			Map<String, ToolOrder> rv = new HashMap<String, ToolOrder>();
+
+			// the children of toolOrder
+			while (nextChild(reader))
+			{
+				String name = reader.getLocalName().equals("category") ? StringUtil.trimToNull(reader.getAttributeValue(null, "name")) : null;
+				if ((name == null) || rv.containsKey(name))
+				{
+					skip(reader);
+					continue;
+				}
+
+				rv.put(name, readCategory(reader));
+			}
+
+			return rv;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/**
+	 * Read a category, from its start to its end.
+	 */
+	protected static ToolOrder readCategory(XMLStreamReader reader) throws XMLStreamException
+	{
+		List<String> order = new ArrayList<String>();
+		List<String> required = new ArrayList<String>();
+		List<String> defaultTools = new ArrayList<String>();
+		List<String> toolCategories = new ArrayList<String>();
+		Map<String, List<String>> toolCategoryMappings = new LinkedHashMap<String, List<String>>();
+		Map<String, String> toolToCategoryMap = new HashMap<String, String>();
+
+		while (nextChild(reader))
+		{
+			if (reader.getLocalName().equals("tool"))
+			{
+				readTool(reader, order, required, defaultTools);
+				skip(reader);
+			}
+			else if (reader.getLocalName().equals("toolCategory"))
+			{
+				readToolCategory(reader, order, required, defaultTools, toolCategories, toolCategoryMappings, toolToCategoryMap);
+			}
+			else
+			{
+				skip(reader);
+			}
+		}
+
+		return new ToolOrder(order, required, defaultTools, toolCategories, toolCategoryMappings, toolToCategoryMap);
+	}
+
+	/**
+	 * Read a tool category, from its start to its end. Its name (the first "name" element in it, at any depth) may come after its tools, so the
+	 * tools are gathered first, and filed under the name at the end.
+	 */
+	protected static void readToolCategory(XMLStreamReader reader, List<String> order, List<String> required, List<String> defaultTools,
+			List<String> toolCategories, Map<String, List<String>> toolCategoryMappings, Map<String, String> toolToCategoryMap)
+			throws XMLStreamException
+	{
+		String name = reader.getAttributeValue(null, "id");
+		if (name == null) name = "";
+		boolean named = false;
+
+		List<String> toolCategoryTools = new ArrayList<String>();
+		while (nextChild(reader))
+		{
+			String found = null;
+			if (reader.getLocalName().equals("name"))
+			{
+				found = readText(reader);
+			}
+			else
+			{
+				if (reader.getLocalName().equals("tool"))
+				{
+					toolCategoryTools.add(readTool(reader, order, required, defaultTools));
+				}
+
+				// a name may be deeper down
+				found = findName(reader);
+			}
+
+			if ((found != null) && (!named))
+			{
+				name = found;
+				named = true;
+			}
+		}
+
+		toolCategories.add(name);
+		toolCategoryMappings.put(name, toolCategoryTools);
+		for (String id : toolCategoryTools)
+		{
+			toolToCategoryMap.put(id, name);
+		}
+	}
+
+	/**
+	 * Read a tool's attributes, leaving the reader at its start.
+	 *
+	 * @return The tool id, or null if it has none.
+	 */
+	protected static String readTool(XMLStreamReader reader, List<String> order, List<String> required, List<String> defaultTools)
+			throws XMLStreamException
+	{
+		String id = StringUtil.trimToNull(reader.getAttributeValue(null, "id"));
+		if (id != null)
+		{
+			order.add(id);
+		}
+
+		String req = StringUtil.trimToNull(reader.getAttributeValue(null, "required"));
+		if ((req != null) && (Boolean.TRUE.toString().equalsIgnoreCase(req)))
+		{
+			required.add(id);
+		}
+
+		String sel = StringUtil.trimToNull(reader.getAttributeValue(null, "selected"));
+		if ((sel != null) && (Boolean.TRUE.toString().equalsIgnoreCase(sel)))
+		{
+			defaultTools.add(id);
+		}
+
+		return id;
+	}
+
+	/**
+	 * Move to the next child element of the current element.
+	 *
+	 * @return true if at the start of a child element, false if at the end of the current element.
+	 */
+	protected static boolean nextChild(XMLStreamReader reader) throws XMLStreamException
+	{
+		while (reader.hasNext())
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) return true;
+			if (event == XMLStreamConstants.END_ELEMENT) return false;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Move to the end of the current element, passing over all it holds.
+	 */
+	protected static void skip(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while ((depth > 0) && reader.hasNext())
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	/**
+	 * Read all the text in the current element, at any depth, moving to its end.
+	 */
+	protected static String readText(XMLStreamReader reader) throws XMLStreamException
+	{
+		StringBuilder rv = new StringBuilder();
+		int depth = 1;
+		while ((depth > 0) && reader.hasNext())
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+			else if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA) || (event == XMLStreamConstants.SPACE))
+			{
+				rv.append(reader.getText());
+			}
+		}
+
+		return rv.toString();
+	}
+
+	/**
+	 * Find the text of the first "name" element in the current element, moving to its end.
+	 *
+	 * @return The name, or null if there is none.
+	 */
+	protected static String findName(XMLStreamReader reader) throws XMLStreamException
+	{
+		String rv = null;
+		while (nextChild(reader))
+		{
+			String found = reader.getLocalName().equals("name") ? readText(reader) : findName(reader);
+			if (rv == null) rv = found;
+		}
+
+		return rv;
+	}
+}
@@ -0,0 +1,436 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * <p>
+ * TypedValues reads configuration values as structured types: comma separated lists and sets, comma separated key=value maps, durations ("30s",
+ * "5m") and byte sizes ("512MB"), and enum constants. Each value is parsed the first time it is read as a type, and the result kept, so later
+ * reads share the same (unmodifiable) object, with no splitting or parsing.
+ * </p>
+ * <p>
+ * A value that cannot be read as the type asked for is reported once, when first read, and reads as not set from then on.
+ * </p>
+ * <p>
+ * Like the configuration snapshot it is part of, a reload replaces it, parsed values and all.
+ * </p>
+ */
+public class TypedValues
+{
+	/** Our log (commons). */
+	private static Log M_log = LogFactory.getLog(TypedValues.class);
+
+	/** Kept in place of a value that could not be parsed. */
+	protected static final Object INVALID = new Object();
+
+	/** One of each duration unit, by suffix - minutes, hours and days in seconds, as Java 5 has no TimeUnit for them. */
+	protected static final Map<String, Duration> DURATION_UNITS = new LinkedHashMap<String, Duration>();
+
+	/** The byte size multipliers, by suffix - in 1024s, as for the JVM's own memory settings. */
+	protected static final Map<String, Long> SIZE_UNITS = new LinkedHashMap<String, Long>();
+
+	static
+	{
+		DURATION_UNITS.put("ns", new Duration(1, TimeUnit.NANOSECONDS));
+		DURATION_UNITS.put("us", new Duration(1, TimeUnit.MICROSECONDS));
+		DURATION_UNITS.put("ms", new Duration(1, TimeUnit.MILLISECONDS));
+		DURATION_UNITS.put("s", new Duration(1, TimeUnit.SECONDS));
+		DURATION_UNITS.put("m", new Duration(60, TimeUnit.SECONDS));
+		DURATION_UNITS.put("h", new Duration(60 * 60, TimeUnit.SECONDS));
+		DURATION_UNITS.put("d", new Duration(24 * 60 * 60, TimeUnit.SECONDS));
+
+		long multiplier = 1;
+		SIZE_UNITS.put("b", Long.valueOf(multiplier));
+		for (String unit : new String[] {"k", "m", "g", "t"})
+		{
+			multiplier *= 1024;
+			SIZE_UNITS.put(unit, Long.valueOf(multiplier));
+			SIZE_UNITS.put(unit + "b", Long.valueOf(multiplier));
+			SIZE_UNITS.put(unit + "ib", Long.valueOf(multiplier));
+		}
+	}
+
+	/** The configuration snapshot the values are read from. */
+	protected final ConfigurationSnapshot m_configuration;
+
+	/** The values parsed so far, by name (and, for enums, type), for each type. */
+	protected final ConcurrentMap<String, Object> m_lists = new ConcurrentHashMap<String, Object>();
+
+	protected final ConcurrentMap<String, Object> m_sets = new ConcurrentHashMap<String, Object>();
+
+	protected final ConcurrentMap<String, Object> m_maps = new ConcurrentHashMap<String, Object>();
+
+	protected final ConcurrentMap<String, Object> m_durations = new ConcurrentHashMap<String, Object>();
+
+	protected final ConcurrentMap<String, Object> m_sizes = new ConcurrentHashMap<String, Object>();
+
+	protected final ConcurrentMap<EnumKey, Object> m_enums = new ConcurrentHashMap<EnumKey, Object>();
+
+	/**
+	 * Construct.
+	 *
+	 * @param configuration
+	 *        The configuration snapshot.
+	 */
+	public TypedValues(ConfigurationSnapshot configuration)
+	{
+		m_configuration = configuration;
+	}
+
+	/**
+	 * Access a value as a comma separated list.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @return The items, trimmed, without blanks, in order - shared, and not modifiable - empty if not set.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<String> getCommaList(String name)
+	{
+		Object rv = m_lists.get(name);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return Collections.emptyList();
+
+			rv = cache(m_lists, name, Collections.unmodifiableList(split(value)));
+		}
+
+		return (List<String>) rv;
+	}
+
+	/**
+	 * Access a value as a comma separated set.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @return The items, trimmed, without blanks or repeats, in order - shared, and not modifiable - empty if not set.
+	 */
+	@SuppressWarnings("unchecked")
+	public Set<String> getCommaSet(String name)
+	{
+		Object rv = m_sets.get(name);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return Collections.emptySet();
+
+			rv = cache(m_sets, name, Collections.unmodifiableSet(new LinkedHashSet<String>(getCommaList(name))));
+		}
+
+		return (Set<String>) rv;
+	}
+
+	/**
+	 * Access a value as a comma separated list of key=value pairs.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @return The values, trimmed, by key, trimmed, in order - shared, and not modifiable - empty if not set, or not all pairs.
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, String> getKeyValueMap(String name)
+	{
+		Object rv = m_maps.get(name);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return Collections.emptyMap();
+
+			Map<String, String> map = new LinkedHashMap<String, String>();
+			for (String pair : split(value))
+			{
+				int pos = pair.indexOf('=');
+				if (pos <= 0)
+				{
+					M_log.warn("malformed key=value map for: " + name + " : " + value);
+					map = Collections.emptyMap();
+					break;
+				}
+				map.put(pair.substring(0, pos).trim(), pair.substring(pos + 1).trim());
+			}
+
+			rv = cache(m_maps, name, Collections.unmodifiableMap(map));
+		}
+
+		return (Map<String, String>) rv;
+	}
+
+	/**
+	 * Access a value as a duration: a whole number, with a unit - "ns", "us", "ms", "s", "m", "h" or "d" - or without one, in the unit asked for.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param unit
+	 *        The unit to give the duration in.
+	 * @param dflt
+	 *        The value to return if not set, blank, or not a valid duration.
+	 * @return The duration, in the unit, or the default.
+	 */
+	public long getDuration(String name, TimeUnit unit, long dflt)
+	{
+		Object rv = m_durations.get(name);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return dflt;
+
+			rv = cache(m_durations, name, parseDuration(name, value));
+		}
+
+		if (rv == INVALID) return dflt;
+		Duration duration = (Duration) rv;
+		return (duration.unit == null) ? duration.amount : unit.convert(duration.amount, duration.unit);
+	}
+
+	/**
+	 * Access a value as a size in bytes: a whole number, with a unit - "B", "K", "M", "G" or "T", each also as "KB" or "KiB" and so on, in any
+	 * case, and all in 1024s - or without one, in bytes.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param dflt
+	 *        The value to return if not set, blank, or not a valid size.
+	 * @return The size, in bytes, or the default.
+	 */
+	public long getByteSize(String name, long dflt)
+	{
+		Object rv = m_sizes.get(name);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return dflt;
+
+			rv = cache(m_sizes, name, parseByteSize(name, value));
+		}
+
+		return (rv == INVALID) ? dflt : ((Long) rv).longValue();
+	}
+
+	/**
+	 * Access a value as one of an enum's constants, by its name, in any case.
+	 *
+	 * @param name
+	 *        The value name.
+	 * @param type
+	 *        The enum.
+	 * @param dflt
+	 *        The value to return if not set, blank, or not one of the constants.
+	 * @return The constant, or the default.
+	 */
+	public <E extends Enum<E>> E getEnum(String name, Class<E> type, E dflt)
+	{
+		EnumKey key = new EnumKey(name, type);
+		Object rv = m_enums.get(key);
+		if (rv == null)
+		{
+			String value = m_configuration.getString(name, null);
+			if (value == null) return dflt;
+
+			rv = cache(m_enums, key, parseEnum(name, value, type));
+		}
+
+		return (rv == INVALID) ? dflt : type.cast(rv);
+	}
+
+	/**
+	 * Keep a parsed value, unless another thread has just kept one.
+	 *
+	 * @return The value kept.
+	 */
+	protected static <K> Object cache(ConcurrentMap<K, Object> parsed, K key, Object value)
+	{
+		Object rv = parsed.putIfAbsent(key, value);
+		return (rv == null) ? value : rv;
+	}
+
+	/**
+	 * Split a comma separated value, trimming the items and dropping blanks.
+	 */
+	protected static List<String> split(String value)
+	{
+		List<String> rv = new ArrayList<String>();
+		int start = 0;
+		while (start <= value.length())
+		{
+			int end = value.indexOf(',', start);
+			if (end == -1) end = value.length();
+
+			String item = value.substring(start, end).trim();
+			if (item.length() > 0) rv.add(item);
+
+			start = end + 1;
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The Duration, or INVALID.
+	 */
+	protected static Object parseDuration(String name, String value)
+	{
+		int end = digits(value);
+		if (end > 0)
+		{
+			String suffix = value.substring(end).trim().toLowerCase();
+			Duration unit = (suffix.length() == 0) ? new Duration(1, null) : DURATION_UNITS.get(suffix);
+			if (unit != null)
+			{
+				try
+				{
+					long amount = Long.parseLong(value.substring(0, end));
+					if (amount <= Long.MAX_VALUE / unit.amount)
+					{
+						return new Duration(amount * unit.amount, unit.unit);
+					}
+				}
+				catch (NumberFormatException e)
+				{
+					// too large - reported below
+				}
+			}
+		}
+
+		M_log.warn("malformed duration for: " + name + " : " + value);
+		return INVALID;
+	}
+
+	/**
+	 * @return The size in bytes, as a Long, or INVALID.
+	 */
+	protected static Object parseByteSize(String name, String value)
+	{
+		int end = digits(value);
+		if (end > 0)
+		{
+			String suffix = value.substring(end).trim().toLowerCase();
+			Long multiplier = (suffix.length() == 0) ? Long.valueOf(1) : SIZE_UNITS.get(suffix);
+			if (multiplier != null)
+			{
+				try
+				{
+					long amount = Long.parseLong(value.substring(0, end));
+					if (amount <= Long.MAX_VALUE / multiplier.longValue())
+					{
+						return Long.valueOf(amount * multiplier.longValue());
+					}
+				}
+				catch (NumberFormatException e)
+				{
+					// too large - reported below
+				}
+			}
+		}
+
+		M_log.warn("malformed byte size for: " + name + " : " + value);
+		return INVALID;
+	}
+
+	/**
+	 * @return The constant, or INVALID.
+	 */
+	protected static Object parseEnum(String name, String value, Class<? extends Enum<?>> type)
+	{
+		for (Enum<?> constant : type.getEnumConstants())
+		{
+			if (constant.name().equalsIgnoreCase(value)) return constant;
+		}
+
+		M_log.warn("malformed " + type.getName() + " for: " + name + " : " + value);
+		return INVALID;
+	}
+
+	/**
+	 * @return The length of the run of digits the value starts with.
+	 */
+	protected static int digits(String value)
+	{
+		int rv = 0;
+		while ((rv < value.length()) && Character.isDigit(value.charAt(rv)))
+		{
+			rv++;
+		}
+
+		return rv;
+	}
+
+	/**
+	 * A parsed duration: an amount of a unit.
+	 */
+	protected static class Duration
+	{
+		final long amount;
+
+		/** The unit, or null if none was given. */
+		final TimeUnit unit;
+
+		Duration(long amount, TimeUnit unit)
+		{
+			this.amount = amount;
+			this.unit = unit;
+		}
+	}
+
+	/**
+	 * The name of a value read as an enum, and the enum.
+	 */
+	protected static class EnumKey
+	{
+		final String name;
+
+		final Class<?> type;
+
+		EnumKey(String name, Class<?> type)
+		{
+			this.name = name;
+			this.type = type;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof EnumKey)) return false;
+
+			EnumKey other = (EnumKey) o;
+			return name.equals(other.name) && (type == other.type);
+		}
+
+		public int hashCode()
+		{
+			return name.hashCode() * 31 + type.hashCode();
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * UrlTemplates makes the server's access, tool, portal, help, logged out and user home URLs from the configured paths. The paths are read, and
+ * the user home pattern split around its "#UID#" marker, once per configuration snapshot. The URLs made for each server URL (a request may name
+ * the server differently from the configuration), and the user home URL made for each user, are kept, and read without locking: the URLs for
+ * the server URL last asked for are checked first, then those for the others. Each cache has a limit; when full, one entry not used since the
+ * last time round is evicted for each one added (the "clock", or second chance, approximation of least recently used).
+ * </p>
+ * <p>
+ * Like the configuration snapshot it is part of, a reload replaces it, caches and all.
+ * </p>
+ */
+public class UrlTemplates
+{
+	/** The marker in the user home URL pattern for the user id. */
+	protected static final String UID = "#UID#";
+
+	/** How many server URLs to keep the URLs for. */
+	protected static final int SERVER_CACHE = 32;
+
+	/** How many users to keep the user home URL for. */
+	protected static final int USER_CACHE = 1000;
+
+	/** The configured paths. */
+	protected final String m_accessPath;
+
+	protected final String m_toolPath;
+
+	protected final String m_portalPath;
+
+	protected final String m_helpPath;
+
+	protected final String m_loggedOutUrl;
+
+	/** The user home URL pattern (relative to the server URL), split at each "#UID#", and as it is. */
+	protected final String[] m_userHome;
+
+	protected final String m_userHomePattern;
+
+	/** The URLs made, by server URL. */
+	protected final ClockCache<ServerUrls> m_servers = new ClockCache<ServerUrls>(SERVER_CACHE);
+
+	/** The URLs made for the server URL last asked for - most often the only one. */
+	protected volatile ServerUrls m_lastServer = null;
+
+	/** The user home URLs made, by user id. */
+	protected final ClockCache<UserHome> m_userHomes = new ClockCache<UserHome>(USER_CACHE);
+
+	/**
+	 * Construct, from the configured paths.
+	 *
+	 * @param configuration
+	 *        The configuration snapshot.
+	 */
+	public UrlTemplates(ConfigurationSnapshot configuration)
+	{
+		m_accessPath = configuration.getRaw("accessPath");
+		m_toolPath = configuration.getRaw("toolPath");
+		m_portalPath = configuration.getRaw("portalPath");
+		m_helpPath = configuration.getRaw("helpPath");
+		m_loggedOutUrl = configuration.getRaw("loggedOutUrl");
+
+		// form a site based portal id if not configured
+		String userHome = configuration.getRaw("userHomeUrl");
+		if (userHome == null)
+		{
+			userHome = m_portalPath + "/site/~" + UID;
+		}
+		m_userHomePattern = userHome;
+		m_userHome = userHome.split(UID, -1);
+	}
+
+	/**
+	 * @return The access URL on this server.
+	 */
+	public String getAccessUrl(String serverUrl)
+	{
+		return forServer(serverUrl).accessUrl;
+	}
+
+	/**
+	 * @return The tool URL on this server.
+	 */
+	public String getToolUrl(String serverUrl)
+	{
+		return forServer(serverUrl).toolUrl;
+	}
+
+	/**
+	 * @param portalPath
+	 *        The portal path for the current request, or null to use the configured one.
+	 * @return The portal URL on this server.
+	 */
+	public String getPortalUrl(String serverUrl, String portalPath)
+	{
+		if (portalPath != null) return serverUrl + portalPath;
+
+		return forServer(serverUrl).portalUrl;
+	}
+
+	/**
+	 * @param portalPath
+	 *        The portal path for the current request, or null to use the configured one.
+	 * @return The help URL on this server, without a help context.
+	 */
+	public String getHelpUrl(String serverUrl, String portalPath)
+	{
+		if (portalPath != null) return serverUrl + portalPath + m_helpPath + "/main";
+
+		return forServer(serverUrl).helpUrl;
+	}
+
+	/**
+	 * @param portalPath
+	 *        The portal path for the current request, or null to use the configured one.
+	 * @return The logged out URL on this server - the configured one, made full if relative, or else the portal URL.
+	 */
+	public String getLoggedOutUrl(String serverUrl, String portalPath)
+	{
+		if ((m_loggedOutUrl == null) && (portalPath != null)) return serverUrl + portalPath;
+
+		return forServer(serverUrl).loggedOutUrl;
+	}
+
+	/**
+	 * @param userId
+	 *        The current user's id, or null if no user is logged in.
+	 * @return The user's home URL on this server.
+	 */
+	public String getUserHomeUrl(String serverUrl, String userId)
+	{
+		// with no user, the pattern is used as is
+		if (userId == null) return forServer(serverUrl).userHomeUrl;
+
+		UserHome rv = m_userHomes.get(userId);
+
+		// the same user may be seen through another server URL
+		if ((rv == null) || (!equal(rv.serverUrl, serverUrl)))
+		{
+			StringBuilder buf = new StringBuilder();
+			buf.append(serverUrl).append(m_userHome[0]);
+			for (int i = 1; i < m_userHome.length; i++)
+			{
+				buf.append(userId).append(m_userHome[i]);
+			}
+
+			rv = new UserHome(serverUrl, buf.toString());
+			m_userHomes.put(userId, rv);
+		}
+
+		return rv.url;
+	}
+
+	/**
+	 * @return The URLs for this server URL, made if not yet cached.
+	 */
+	protected ServerUrls forServer(String serverUrl)
+	{
+		ServerUrls rv = m_lastServer;
+		if ((rv != null) && equal(rv.serverUrl, serverUrl)) return rv;
+
+		// a ConcurrentHashMap has no null keys
+		rv = (serverUrl == null) ? null : m_servers.get(serverUrl);
+		if (rv == null)
+		{
+			rv = new ServerUrls(serverUrl);
+			if (serverUrl != null) m_servers.put(serverUrl, rv);
+		}
+
+		m_lastServer = rv;
+		return rv;
+	}
+
+	protected static boolean equal(String a, String b)
+	{
+		return (a == null) ? (b == null) : a.equals(b);
+	}
+
+	/**
+	 * A cache of a limited size, read without locking. Each entry is marked when read; when the cache is over its limit, a hand goes round the
+	 * entries, clearing the marks, and evicts the first entry it finds unmarked - one not read since the hand last passed it. Only adding takes
+	 * a lock, and only when an entry must be evicted. Two threads may both make and keep a value for the same key; either will do.
+	 */
+	protected static class ClockCache<V>
+	{
+		protected final ConcurrentHashMap<String, Entry<V>> m_entries = new ConcurrentHashMap<String, Entry<V>>();
+
+		/** The number of entries - kept, as ConcurrentHashMap's size() may lock. */
+		protected final AtomicInteger m_size = new AtomicInteger();
+
+		protected final int m_limit;
+
+		/** The hand, going round the entries - guarded by this. */
+		protected Iterator<Map.Entry<String, Entry<V>>> m_hand = null;
+
+		protected ClockCache(int limit)
+		{
+			m_limit = limit;
+		}
+
+		/**
+		 * @return The value for the key, or null if not cached.
+		 */
+		protected V get(String key)
+		{
+			Entry<V> entry = m_entries.get(key);
+			if (entry == null) return null;
+
+			// write only if need be, to leave the cache line shared
+			if (!entry.used) entry.used = true;
+			return entry.value;
+		}
+
+		/**
+		 * Keep a value, evicting another if the cache is then over its limit.
+		 */
+		protected void put(String key, V value)
+		{
+			if ((m_entries.put(key, new Entry<V>(value)) == null) && (m_size.incrementAndGet() > m_limit))
+			{
+				evict();
+			}
+		}
+
+		protected synchronized void evict()
+		{
+			while (m_size.get() > m_limit)
+			{
+				if ((m_hand == null) || (!m_hand.hasNext()))
+				{
+					m_hand = m_entries.entrySet().iterator();
+					if (!m_hand.hasNext()) return;
+				}
+
+				Map.Entry<String, Entry<V>> entry = m_hand.next();
+				if (entry.getValue().used)
+				{
+					entry.getValue().used = false;
+				}
+				else if (m_entries.remove(entry.getKey(), entry.getValue()))
+				{
+					m_size.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * @return The number of values cached.
+		 */
+		protected int size()
+		{
+			return m_size.get();
+		}
+	}
+
+	/**
+	 * A cached value, and whether it has been read since the hand last passed it.
+	 */
+	protected static class Entry<V>
+	{
+		protected final V value;
+
+		protected volatile boolean used = false;
+
+		protected Entry(V value)
+		{
+			this.value = value;
+		}
+	}
+
+	/**
+	 * The URLs that depend only on the server URL.
+	 */
+	protected class ServerUrls
+	{
+		protected final String serverUrl;
+
+		protected final String accessUrl;
+
+		protected final String toolUrl;
+
+		protected final String portalUrl;
+
+		protected final String helpUrl;
+
+		protected final String loggedOutUrl;
+
+		protected final String userHomeUrl;
+
+		protected ServerUrls(String serverUrl)
+		{
+			this.serverUrl = serverUrl;
+			accessUrl = serverUrl + m_accessPath;
+			toolUrl = serverUrl + m_toolPath;
+			portalUrl = serverUrl + m_portalPath;
+			helpUrl = portalUrl + m_helpPath + "/main";
+			userHomeUrl = serverUrl + m_userHomePattern;
+
+			// if not a full URL, add the server to the front; use the portal URL if there's no logout defined
+			if (m_loggedOutUrl == null)
+			{
+				loggedOutUrl = portalUrl;
+			}
+			else if (m_loggedOutUrl.startsWith("/"))
+			{
+				loggedOutUrl = serverUrl + m_loggedOutUrl;
+			}
+			else
+			{
+				loggedOutUrl = m_loggedOutUrl;
+			}
+		}
+	}
+
+	/**
+	 * A user home URL, and the server URL it was made with.
+	 */
+	protected static class UserHome
+	{
+		protected final String serverUrl;
+
+		protected final String url;
+
+		protected UserHome(String serverUrl, String url)
+		{
+			this.serverUrl = serverUrl;
+			this.url = url;
+		}
+	}
+}
@@ -0,0 +1,120 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.sakaiproject.component.api.ConfigurationVisitor;
+
+/**
+ * Tests that the values whose names start with a prefix are found, in name order, whether the snapshot is in memory or mapped.
+ */
+public class ConfigurationSnapshotTest extends TestCase
+{
+	private File file;
+
+	private Properties properties;
+
+	protected void setUp() throws Exception
+	{
+		file = File.createTempFile("snapshot", ".tmp");
+		file.delete();
+
+		properties = new Properties();
+		properties.setProperty("a", "0");
+		properties.setProperty("a.b", "1");
+		properties.setProperty("a.b.c", " 2 ");
+		properties.setProperty("a.bz", "3");
+		properties.setProperty("a.c", "");
+		properties.setProperty("b", "5");
+		properties.setProperty("\u00e9t\u00e9.x", "6");
+		properties.setProperty("\u00e9t\u00e9.y", "7");
+	}
+
+	protected void tearDown() throws Exception
+	{
+		file.delete();
+	}
+
+	public void testInMemory() throws Exception
+	{
+		checkPrefixes(new ConfigurationSnapshot(properties, 1));
+	}
+
+	public void testMapped() throws Exception
+	{
+		checkPrefixes(new ConfigurationSnapshot(MappedConfiguration.load(file, properties), 1));
+	}
+
+	private void checkPrefixes(ConfigurationSnapshot snapshot)
+	{
+		assertEquals(Arrays.asList(new String[] {"a", "a.b", "a.b.c", "a.bz", "a.c"}), snapshot.getNamesWithPrefix("a"));
+		assertEquals(Arrays.asList(new String[] {"a.b", "a.b.c", "a.bz"}), snapshot.getNamesWithPrefix("a.b"));
+		assertEquals(Arrays.asList(new String[] {"a.b.c"}), snapshot.getNamesWithPrefix("a.b."));
+		assertEquals(Arrays.asList(new String[] {"\u00e9t\u00e9.x", "\u00e9t\u00e9.y"}), snapshot.getNamesWithPrefix("\u00e9t\u00e9."));
+		assertEquals(8, snapshot.getNamesWithPrefix("").size());
+		assertTrue(snapshot.getNamesWithPrefix("a.d").isEmpty());
+		assertTrue(snapshot.getNamesWithPrefix("0").isEmpty());
+		assertTrue(snapshot.getNamesWithPrefix("z").isEmpty());
+
+		Map<String, String> subset = snapshot.getSubset("a.b");
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("a.b", "1");
+		expected.put("a.b.c", "2");
+		expected.put("a.bz", "3");
+		assertEquals(expected, subset);
+		assertEquals(expected.hashCode(), subset.hashCode());
+		assertEquals("2", subset.get("a.b.c"));
+		assertNull(subset.get("a.c"));
+		assertFalse(subset.containsKey("a"));
+		assertEquals("a.b=1", subset.entrySet().iterator().next().toString());
+
+		try
+		{
+			subset.entrySet().iterator().next().setValue("x");
+			fail("changed an entry");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+
+		assertEquals("", snapshot.getSubset("a.c").get("a.c"));
+
+		final List<String> visited = new ArrayList<String>();
+		snapshot.forEachWithPrefix("a.b", new ConfigurationVisitor()
+		{
+			public void visit(String name, String value)
+			{
+				visited.add(name + "=" + value);
+			}
+		});
+		assertEquals(Arrays.asList(new String[] {"a.b=1", "a.b.c=2", "a.bz=3"}), visited);
+	}
+}
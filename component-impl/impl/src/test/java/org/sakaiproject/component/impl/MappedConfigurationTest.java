@@ -0,0 +1,161 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that the mapped configuration file reads back as written, and that a file cut short or damaged is not used.
+ */
+public class MappedConfigurationTest extends TestCase
+{
+	private File dir;
+
+	private File file;
+
+	private Properties properties;
+
+	protected void setUp() throws Exception
+	{
+		dir = File.createTempFile("mapped", "");
+		dir.delete();
+		dir.mkdirs();
+		file = new File(dir, "configuration.snapshot");
+
+		properties = new Properties();
+		properties.setProperty("serverUrl", "http://localhost:8080");
+		properties.setProperty("port", " 8080 ");
+		properties.setProperty("big", "12345678901");
+		properties.setProperty("flag", "TRUE");
+		properties.setProperty("blank", "   ");
+		properties.setProperty("caf\u00e9.name", "cr\u00e8me br\u00fbl\u00e9e");
+	}
+
+	protected void tearDown() throws Exception
+	{
+		File[] files = dir.listFiles();
+		for (int i = 0; i < files.length; i++)
+		{
+			files[i].delete();
+		}
+		dir.delete();
+	}
+
+	public void testRoundTrip() throws Exception
+	{
+		MappedConfiguration mapped = MappedConfiguration.load(file, properties);
+		assertEquals(6, mapped.size());
+		assertEquals(Arrays.asList(new String[] {"big", "blank", "caf\u00e9.name", "flag", "port", "serverUrl"}), mapped.getNames());
+
+		int port = mapped.indexOf("port");
+		assertEquals(" 8080 ", mapped.getRaw(port));
+		assertEquals("8080", mapped.getTrimmed(port));
+		assertTrue(mapped.isInt(port));
+		assertEquals(8080, mapped.getLong(port));
+
+		int big = mapped.indexOf("big");
+		assertTrue(mapped.isLong(big));
+		assertFalse(mapped.isInt(big));
+		assertEquals(12345678901L, mapped.getLong(big));
+
+		assertTrue(mapped.getBoolean(mapped.indexOf("flag")));
+		assertTrue(mapped.isBlank(mapped.indexOf("blank")));
+		assertNull(mapped.getTrimmed(mapped.indexOf("blank")));
+		assertEquals("cr\u00e8me br\u00fbl\u00e9e", mapped.getRaw(mapped.indexOf("caf\u00e9.name")));
+		assertEquals(-1, mapped.indexOf("missing"));
+
+		ConfigurationSnapshot snapshot = new ConfigurationSnapshot(mapped, 1);
+		assertEquals("http://localhost:8080", snapshot.getString("serverUrl", null));
+		assertEquals(8080, snapshot.getInt("port", 0));
+	}
+
+	public void testUnchangedFileIsUsed() throws Exception
+	{
+		MappedConfiguration.load(file, properties);
+		long written = file.lastModified();
+		file.setLastModified(written - 60000);
+
+		MappedConfiguration.load(file, properties);
+		assertEquals(written - 60000, file.lastModified());
+
+		properties.setProperty("port", "8081");
+		MappedConfiguration mapped = MappedConfiguration.load(file, properties);
+		assertEquals(8081, mapped.getLong(mapped.indexOf("port")));
+		assertEquals("no temporary files left", 1, dir.listFiles().length);
+	}
+
+	public void testTruncatedFileIsRejected() throws Exception
+	{
+		MappedConfiguration.load(file, properties);
+		long length = file.length();
+		resize(length - 3);
+
+		try
+		{
+			MappedConfiguration.open(file);
+			fail("opened a truncated file");
+		}
+		catch (IOException e)
+		{
+		}
+
+		MappedConfiguration mapped = MappedConfiguration.load(file, properties);
+		assertEquals(length, file.length());
+		assertEquals("cr\u00e8me br\u00fbl\u00e9e", mapped.getRaw(mapped.indexOf("caf\u00e9.name")));
+	}
+
+	public void testDamagedFileIsRejected() throws Exception
+	{
+		MappedConfiguration.load(file, properties);
+
+		// change the last byte of the last value
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		out.seek(out.length() - 1);
+		out.write('x');
+		out.close();
+
+		try
+		{
+			MappedConfiguration.open(file);
+			fail("opened a damaged file");
+		}
+		catch (IOException e)
+		{
+		}
+
+		MappedConfiguration mapped = MappedConfiguration.load(file, properties);
+		assertEquals("http://localhost:8080", mapped.getRaw(mapped.indexOf("serverUrl")));
+	}
+
+	private void resize(long length) throws IOException
+	{
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		out.setLength(length);
+		out.close();
+	}
+}
@@ -0,0 +1,108 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests that ToolOrderLoader reads a toolOrder.xml file as the DOM walk it replaced did.
+ */
+public class ToolOrderLoaderTest extends TestCase
+{
+	public void testCategories() throws Exception
+	{
+		Map<String, ToolOrder> orders = load("<toolOrder>"
+				+ "<category name=\"course\"><tool id=\"home\" selected=\"true\"/><tool id=\" sakai.siteinfo \" required=\"true\"/></category>"
+				+ "<other name=\"project\"><tool id=\"ignored\"/></other>"
+				+ "<category name=\"  \"><tool id=\"ignored\"/></category>"
+				+ "<category><tool id=\"ignored\"/></category>"
+				+ "<category name=\" course \"><tool id=\"second\"/></category>"
+				+ "<category name=\"project\"><tool id=\"home\" selected=\"false\" required=\"TRUE\"/></category>"
+				+ "</toolOrder>");
+
+		assertEquals(2, orders.size());
+
+		// only the first category of each name counts
+		ToolOrder course = orders.get("course");
+		assertEquals(Arrays.asList(new String[] {"home", "sakai.siteinfo"}), course.getOrder());
+		assertEquals(Arrays.asList(new String[] {"sakai.siteinfo"}), course.getRequired());
+		assertEquals(Arrays.asList(new String[] {"home"}), course.getDefaults());
+		assertTrue(course.getCategories().isEmpty());
+
+		ToolOrder project = orders.get("project");
+		assertEquals(Arrays.asList(new String[] {"home"}), project.getOrder());
+		assertEquals(Arrays.asList(new String[] {"home"}), project.getRequired());
+		assertTrue(project.getDefaults().isEmpty());
+	}
+
+	public void testToolCategories() throws Exception
+	{
+		ToolOrder order = load("<toolOrder><category name=\"course\">"
+				+ "<tool id=\"first\"/>"
+				+ "<toolCategory id=\"byId\"><tool id=\"a\"/></toolCategory>"
+				// the name is the first at any depth, even after the tools
+				+ "<toolCategory id=\"ignored\"><tool id=\"b\"/><group><name>Nested</name></group><name>Later</name></toolCategory>"
+				// only tools directly in the tool category count
+				+ "<toolCategory id=\"direct\"><tool id=\"c\"/><group><tool id=\"deep\"/></group></toolCategory>"
+				+ "<tool id=\"last\"/>"
+				+ "</category></toolOrder>").get("course");
+
+		assertEquals(Arrays.asList(new String[] {"first", "a", "b", "c", "last"}), order.getOrder());
+		assertEquals(Arrays.asList(new String[] {"byId", "Nested", "direct"}), order.getCategories());
+		assertEquals(Arrays.asList(new String[] {"a"}), order.getCategoryTools().get("byId"));
+		assertEquals(Arrays.asList(new String[] {"b"}), order.getCategoryTools().get("Nested"));
+		assertEquals(Arrays.asList(new String[] {"c"}), order.getCategoryTools().get("direct"));
+		assertEquals("Nested", order.getToolCategory().get("b"));
+		assertNull(order.getToolCategory().get("first"));
+		assertNull(order.getToolCategory().get("deep"));
+	}
+
+	public void testToolWithoutId() throws Exception
+	{
+		ToolOrder order = load("<toolOrder><category name=\"course\">"
+				+ "<tool required=\"true\" selected=\"true\"/>"
+				+ "<toolCategory><tool id=\"  \"/><tool id=\"a\"/></toolCategory>"
+				+ "</category></toolOrder>").get("course");
+
+		// not in the order, but still recorded, as null
+		assertEquals(Arrays.asList(new String[] {"a"}), order.getOrder());
+		assertEquals(Arrays.asList(new String[] {null}), order.getRequired());
+		assertEquals(Arrays.asList(new String[] {null}), order.getDefaults());
+		assertEquals(Arrays.asList(new String[] {""}), order.getCategories());
+		assertEquals(Arrays.asList(new String[] {null, "a"}), order.getCategoryTools().get(""));
+		assertEquals("", order.getToolCategory().get(null));
+	}
+
+	public void testWrongRoot() throws Exception
+	{
+		assertNull(load("<categories><category name=\"course\"><tool id=\"home\"/></category></categories>"));
+	}
+
+	private Map<String, ToolOrder> load(String xml) throws Exception
+	{
+		return ToolOrderLoader.load(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+}
@@ -0,0 +1,146 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the parsing of typed configuration values, and that each is parsed once.
+ */
+public class TypedValuesTest extends TestCase
+{
+	private enum Color
+	{
+		RED, GREEN
+	}
+
+	private enum Mode
+	{
+		FAST, GREEN
+	}
+
+	private TypedValues typed;
+
+	protected void setUp() throws Exception
+	{
+		Properties properties = new Properties();
+		properties.setProperty("list", " a, b ,,a , c ");
+		properties.setProperty("blank", "  ");
+		properties.setProperty("map", "x = 1, y=2 ,z=");
+		properties.setProperty("badmap", "x=1, y");
+		properties.setProperty("plain", "250");
+		properties.setProperty("ms", "1500ms");
+		properties.setProperty("minutes", "5m");
+		properties.setProperty("hours", "2 H");
+		properties.setProperty("days", "3d");
+		properties.setProperty("huge", "99999999999999999d");
+		properties.setProperty("badunit", "5 weeks");
+		properties.setProperty("negative", "-5s");
+		properties.setProperty("size", "512MB");
+		properties.setProperty("kib", "2KiB");
+		properties.setProperty("bytes", "100");
+		properties.setProperty("bigsize", "99999999999T");
+		properties.setProperty("color", "green");
+		properties.setProperty("fast", "fast");
+		typed = new TypedValues(new ConfigurationSnapshot(properties, 1));
+	}
+
+	public void testLists()
+	{
+		assertEquals(Arrays.asList(new String[] {"a", "b", "a", "c"}), typed.getCommaList("list"));
+		assertSame(typed.getCommaList("list"), typed.getCommaList("list"));
+		assertEquals(Arrays.asList(new String[] {"a", "b", "c"}), Arrays.asList(typed.getCommaSet("list").toArray()));
+		assertTrue(typed.getCommaList("blank").isEmpty());
+		assertTrue(typed.getCommaList("missing").isEmpty());
+		assertTrue(typed.getCommaSet("missing").isEmpty());
+
+		try
+		{
+			typed.getCommaList("list").add("d");
+			fail("changed a shared list");
+		}
+		catch (UnsupportedOperationException e)
+		{
+		}
+	}
+
+	public void testMaps()
+	{
+		Map<String, String> expected = new LinkedHashMap<String, String>();
+		expected.put("x", "1");
+		expected.put("y", "2");
+		expected.put("z", "");
+		assertEquals(expected, typed.getKeyValueMap("map"));
+		assertSame(typed.getKeyValueMap("map"), typed.getKeyValueMap("map"));
+		assertTrue(typed.getKeyValueMap("badmap").isEmpty());
+		assertTrue(typed.getKeyValueMap("missing").isEmpty());
+	}
+
+	public void testDurations()
+	{
+		assertEquals(250, typed.getDuration("plain", TimeUnit.MILLISECONDS, -1));
+		assertEquals(250, typed.getDuration("plain", TimeUnit.SECONDS, -1));
+		assertEquals(1500, typed.getDuration("ms", TimeUnit.MILLISECONDS, -1));
+		assertEquals(1, typed.getDuration("ms", TimeUnit.SECONDS, -1));
+		assertEquals(300, typed.getDuration("minutes", TimeUnit.SECONDS, -1));
+		assertEquals(300000, typed.getDuration("minutes", TimeUnit.MILLISECONDS, -1));
+		assertEquals(7200, typed.getDuration("hours", TimeUnit.SECONDS, -1));
+		assertEquals(3 * 24 * 60 * 60 * 1000L, typed.getDuration("days", TimeUnit.MILLISECONDS, -1));
+		assertEquals(-1, typed.getDuration("huge", TimeUnit.SECONDS, -1));
+		assertEquals(-1, typed.getDuration("badunit", TimeUnit.SECONDS, -1));
+		assertEquals(-1, typed.getDuration("negative", TimeUnit.SECONDS, -1));
+		assertEquals(-1, typed.getDuration("blank", TimeUnit.SECONDS, -1));
+		assertEquals(-1, typed.getDuration("missing", TimeUnit.SECONDS, -1));
+	}
+
+	public void testByteSizes()
+	{
+		assertEquals(512L * 1024 * 1024, typed.getByteSize("size", -1));
+		assertEquals(2048, typed.getByteSize("kib", -1));
+		assertEquals(100, typed.getByteSize("bytes", -1));
+		assertEquals(-1, typed.getByteSize("bigsize", -1));
+		assertEquals(-1, typed.getByteSize("list", -1));
+		assertEquals(-1, typed.getByteSize("missing", -1));
+	}
+
+	public void testEnums()
+	{
+		assertEquals(Color.GREEN, typed.getEnum("color", Color.class, Color.RED));
+		assertEquals(Mode.GREEN, typed.getEnum("color", Mode.class, Mode.FAST));
+		assertEquals(Color.GREEN, typed.getEnum("color", Color.class, Color.RED));
+
+		// invalid for one enum, valid for another
+		assertEquals(Color.RED, typed.getEnum("fast", Color.class, Color.RED));
+		assertEquals(Mode.FAST, typed.getEnum("fast", Mode.class, Mode.GREEN));
+		assertEquals(Color.RED, typed.getEnum("fast", Color.class, Color.RED));
+		assertEquals(Mode.FAST, typed.getEnum("fast", Mode.class, Mode.GREEN));
+		assertEquals(4, typed.m_enums.size());
+
+		assertEquals(Color.RED, typed.getEnum("missing", Color.class, Color.RED));
+	}
+}
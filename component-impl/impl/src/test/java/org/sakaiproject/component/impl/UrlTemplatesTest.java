@@ -0,0 +1,97 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component.impl;
+
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the URLs made from the configured paths, and that the caches of them keep the entries in use when full.
+ */
+public class UrlTemplatesTest extends TestCase
+{
+	private UrlTemplates templates;
+
+	protected void setUp() throws Exception
+	{
+		Properties properties = new Properties();
+		properties.setProperty("accessPath", "/access");
+		properties.setProperty("toolPath", "/tool");
+		properties.setProperty("portalPath", "/portal");
+		properties.setProperty("helpPath", "/help");
+		properties.setProperty("loggedOutUrl", "/logout");
+		templates = new UrlTemplates(new ConfigurationSnapshot(properties, 1));
+	}
+
+	public void testUrls()
+	{
+		assertEquals("http://a/access", templates.getAccessUrl("http://a"));
+		assertEquals("http://b/tool", templates.getToolUrl("http://b"));
+		assertEquals("http://a/portal", templates.getPortalUrl("http://a", null));
+		assertEquals("http://a/gateway", templates.getPortalUrl("http://a", "/gateway"));
+		assertEquals("http://a/portal/help/main", templates.getHelpUrl("http://a", null));
+		assertEquals("http://a/logout", templates.getLoggedOutUrl("http://a", "/gateway"));
+		assertEquals("http://a/portal/site/~#UID#", templates.getUserHomeUrl("http://a", null));
+		assertEquals("http://a/portal/site/~joe", templates.getUserHomeUrl("http://a", "joe"));
+
+		// the same user, through another server URL
+		assertEquals("http://b/portal/site/~joe", templates.getUserHomeUrl("http://b", "joe"));
+		assertEquals(1, templates.m_userHomes.size());
+		assertEquals(2, templates.m_servers.size());
+	}
+
+	public void testEvictsOneUnused()
+	{
+		UrlTemplates.ClockCache<String> cache = new UrlTemplates.ClockCache<String>(3);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.put("c", "C");
+		assertEquals("A", cache.get("a"));
+		assertEquals("B", cache.get("b"));
+
+		// c or d, neither read, goes
+		cache.put("d", "D");
+		assertEquals(3, cache.size());
+		assertEquals("A", cache.get("a"));
+		assertEquals("B", cache.get("b"));
+		assertTrue((cache.get("c") == null) != (cache.get("d") == null));
+
+		// replacing is not adding
+		cache.put("a", "A2");
+		assertEquals(3, cache.size());
+		assertEquals("A2", cache.get("a"));
+	}
+
+	public void testKeepsUsedWhenFull()
+	{
+		for (int i = 0; i < 5000; i++)
+		{
+			templates.getUserHomeUrl("http://a", "hot");
+			templates.getUserHomeUrl("http://a", "cold" + i);
+		}
+
+		assertEquals(UrlTemplates.USER_CACHE, templates.m_userHomes.size());
+		assertNotNull(templates.m_userHomes.get("hot"));
+		assertNull(templates.m_userHomes.get("cold0"));
+	}
+}
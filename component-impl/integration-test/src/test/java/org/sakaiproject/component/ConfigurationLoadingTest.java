@@ -98,4 +98,49 @@ public class ConfigurationLoadingTest extends SakaiTestBase {
 		Object aliasedObject = getService("testAliasRetention");
 		Assert.assertTrue(aliasedObject instanceof ITestComponent);
 	}
+
+	public void testPrecedenceWithoutLocalOverride() throws Exception {
+		// The files are read over the properties objects: sakai.properties sets the serverId DynamicDefaultSakaiProperties also sets.
+		Assert.assertEquals("filesystemServer", serverConfigurationService.getString("serverId"));
+		assertSource("serverId", 17);
+
+		// The later file wins: sakai.home over the classpath defaults.
+		Assert.assertEquals("5", serverConfigurationService.getString("content.upload.max"));
+		assertSource("content.upload.max", 14);
+
+		// A value only in the classpath defaults.
+		Assert.assertEquals("!gateway", serverConfigurationService.getString("gatewaySiteId"));
+		Assert.assertTrue(serverConfigurationService.getPropertySource("gatewaySiteId").startsWith("class path resource"));
+	}
+
+	public void testPropertySourceLines() throws Exception {
+		assertSource("loadedTomcatSakaiProperties", 3);
+
+		// A value continued over lines is on the line it starts on, and the lines after it are counted.
+		Assert.assertEquals("one, two, three", serverConfigurationService.getString("continued"));
+		assertSource("continued", 21);
+		assertSource("afterContinuation", 27);
+
+		// Escaped keys are found unescaped.
+		Assert.assertEquals("escaped", serverConfigurationService.getString("escaped key=x"));
+		assertSource("escaped key=x", 24);
+		Assert.assertEquals("unicode", serverConfigurationService.getString("unicodeKey"));
+		assertSource("unicodeKey", 25);
+
+		// A key set twice is on the line of the value in effect, the last.
+		Assert.assertEquals("second", serverConfigurationService.getString("duplicated"));
+		assertSource("duplicated", 26);
+
+		// A value from another file.
+		Assert.assertTrue(serverConfigurationService.getPropertySource("stringArrayPlaceholder1@org.sakaiproject.component.test.ITestComponent")
+			.endsWith("some-peculiar.properties] line 3"));
+
+		Assert.assertNull(serverConfigurationService.getPropertySource("notSet"));
+	}
+
+	private void assertSource(String name, int line) {
+		String source = serverConfigurationService.getPropertySource(name);
+		Assert.assertTrue(name + " : " + source, source.endsWith("sakai.properties] line " + line));
+		Assert.assertFalse(name + " : " + source, source.startsWith("class path resource"));
+	}
 }
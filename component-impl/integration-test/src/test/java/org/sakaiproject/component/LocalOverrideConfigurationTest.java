@@ -0,0 +1,81 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2008 The Sakai Foundation.
+ *
+ * Licensed under the Educational Community License, Version 1.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.opensource.org/licenses/ecl1.php
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.component;
+
+import junit.extensions.TestSetup;
+import junit.framework.Assert;
+import junit.framework.Test;
+import junit.framework.TestSuite;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.component.api.ServerConfigurationService;
+import org.sakaiproject.test.SakaiTestBase;
+
+/**
+ * Tests the precedence of property values when SakaiProperties is set to "localOverride", so that its properties objects (the file and DB
+ * properties) are read over its properties files (the classpath defaults).
+ */
+public class LocalOverrideConfigurationTest extends SakaiTestBase {
+	private static Log log = LogFactory.getLog(LocalOverrideConfigurationTest.class);
+
+	private ServerConfigurationService serverConfigurationService;
+
+	static {
+		setSakaiHome(LocalOverrideConfigurationTest.class, "dynamic-local-override");
+	}
+
+	public static Test suite() {
+		TestSetup setup = new TestSetup(new TestSuite(LocalOverrideConfigurationTest.class)) {
+			protected void setUp() throws Exception {
+				try {
+					oneTimeSetup();
+				} catch (Exception e) {
+					log.warn(e);
+				}
+			}
+			protected void tearDown() throws Exception {
+				oneTimeTearDown();
+			}
+		};
+		return setup;
+	}
+
+	public void setUp() throws Exception {
+		serverConfigurationService = (ServerConfigurationService)getService(ServerConfigurationService.class.getName());
+	}
+
+	public void testPrecedenceWithLocalOverride() throws Exception {
+		// The properties objects are read over the files: the file-based properties object sets a value the classpath defaults also set.
+		Assert.assertEquals("7", serverConfigurationService.getString("content.upload.max"));
+		Assert.assertEquals("properties[0]", serverConfigurationService.getPropertySource("content.upload.max"));
+
+		// The later properties object wins: the DB over the file.
+		Assert.assertEquals("initialDynamicValue1", serverConfigurationService.getString("dynamicKey1"));
+		Assert.assertEquals("properties[1]", serverConfigurationService.getPropertySource("dynamicKey1"));
+
+		// A value only in the classpath defaults is from its file, with its line.
+		String source = serverConfigurationService.getPropertySource("gatewaySiteId");
+		Assert.assertTrue(source, source.startsWith("class path resource [org/sakaiproject/config/sakai.properties] line "));
+	}
+
+}